@@ -0,0 +1,83 @@
+# Checks the item and attribute types copied to a java source against item_def.h and attr_def.h.
+#
+# Usage: cmake -D JAVA_FILE=<file> -D ITEM_DEF=<item_def.h> -D ATTR_DEF=<attr_def.h> -P check_binfile_ids.cmake
+#
+# A constant TYPE_<NAME> = 0x... of the java source is checked against ITEM(<name>) of item_def.h,
+# a constant ATTR_<NAME> = 0x... against ATTR(<name>) of attr_def.h.
+# Values are handled as two 16 bit halves, so they fit the integers of math() on all platforms.
+
+set(HEX_DIGITS 0 1 2 3 4 5 6 7 8 9 a b c d e f)
+
+function(hex_to_dec HEX VAR)
+   set(DEC 0)
+   foreach (I 0 1 2 3)
+      string(SUBSTRING "${HEX}" ${I} 1 DIGIT)
+      list(FIND HEX_DIGITS "${DIGIT}" DIGIT)
+      math(EXPR DEC "${DEC} * 16 + ${DIGIT}")
+   endforeach()
+   set(${VAR} ${DEC} PARENT_SCOPE)
+endfunction()
+
+# Sets HIGH and LOW to the halves of a hex number like 0x00010000
+macro(parse_hex HEX)
+   string(TOLOWER "${HEX}" PARSE_HEX)
+   string(REGEX REPLACE "^0x" "" PARSE_HEX "${PARSE_HEX}")
+   string(LENGTH "${PARSE_HEX}" PARSE_LEN)
+   while (PARSE_LEN LESS 8)
+      set(PARSE_HEX "0${PARSE_HEX}")
+      math(EXPR PARSE_LEN "${PARSE_LEN} + 1")
+   endwhile()
+   string(SUBSTRING "${PARSE_HEX}" 0 4 PARSE_HIGH)
+   string(SUBSTRING "${PARSE_HEX}" 4 4 PARSE_LOW)
+   hex_to_dec(${PARSE_HIGH} HIGH)
+   hex_to_dec(${PARSE_LOW} LOW)
+endmacro()
+
+# Sets <PREFIX>_<name> to the value of each entry of a header, numbered like the enums built from it
+macro(read_defs HEADER PREFIX)
+   file(STRINGS "${HEADER}" DEF_LINES REGEX "^${PREFIX}")
+   set(HIGH 0)
+   set(LOW -1)
+   foreach (DEF_LINE ${DEF_LINES})
+      math(EXPR LOW "${LOW} + 1")
+      if (LOW EQUAL 65536)
+         set(LOW 0)
+         math(EXPR HIGH "${HIGH} + 1")
+      endif()
+      set(DEF_NAME "")
+      if (DEF_LINE MATCHES "^${PREFIX}2\\(0x[0-9a-fA-F]+,[a-z0-9_]+\\)")
+         string(REGEX REPLACE "^${PREFIX}2\\((0x[0-9a-fA-F]+),([a-z0-9_]+)\\).*" "\\1;\\2" DEF "${DEF_LINE}")
+         list(GET DEF 0 DEF_HEX)
+         list(GET DEF 1 DEF_NAME)
+         parse_hex(${DEF_HEX})
+      elseif (DEF_LINE MATCHES "^${PREFIX}\\([a-z0-9_]+\\)")
+         string(REGEX REPLACE "^${PREFIX}\\(([a-z0-9_]+)\\).*" "\\1" DEF_NAME "${DEF_LINE}")
+      endif()
+      if (NOT DEF_NAME STREQUAL "")
+         set(${PREFIX}_${DEF_NAME} "${HIGH}:${LOW}")
+      endif()
+   endforeach()
+endmacro()
+
+read_defs("${ITEM_DEF}" ITEM)
+read_defs("${ATTR_DEF}" ATTR)
+
+file(STRINGS "${JAVA_FILE}" JAVA_LINES REGEX "(TYPE|ATTR)_[A-Z0-9_]+ *= *0x[0-9a-fA-F]+")
+foreach (JAVA_LINE ${JAVA_LINES})
+   string(REGEX REPLACE ".*(TYPE|ATTR)_([A-Z0-9_]+) *= *(0x[0-9a-fA-F]+).*" "\\1;\\2;\\3" CONSTANT "${JAVA_LINE}")
+   list(GET CONSTANT 0 KIND)
+   list(GET CONSTANT 1 NAME)
+   list(GET CONSTANT 2 HEX)
+   string(TOLOWER ${NAME} DEF_NAME)
+   if (KIND STREQUAL "TYPE")
+      set(DEF ITEM_${DEF_NAME})
+   else()
+      set(DEF ATTR_${DEF_NAME})
+   endif()
+   parse_hex(${HEX})
+   if (NOT DEFINED ${DEF})
+      message(FATAL_ERROR "${JAVA_FILE}: ${KIND}_${NAME} is not defined in the headers")
+   elseif (NOT "${${DEF}}" STREQUAL "${HIGH}:${LOW}")
+      message(FATAL_ERROR "${JAVA_FILE}: ${KIND}_${NAME} = ${HEX} does not match ${DEF_NAME} of the headers")
+   endif()
+endforeach()
@@ -25,9 +25,23 @@ JNIEnv *jnienv;
 jobject *android_activity;
 int android_version;
 
+/* Number of search results passed to Java in one call */
+#define ANDROID_SEARCH_BATCH_SIZE 64
+
+struct android_search_result_batch
+{
+	int count;
+	jint type[ANDROID_SEARCH_BATCH_SIZE];
+	jfloat lat[ANDROID_SEARCH_BATCH_SIZE];
+	jfloat lon[ANDROID_SEARCH_BATCH_SIZE];
+	gchar *address[ANDROID_SEARCH_BATCH_SIZE];
+};
+
 struct android_search_priv
 {
 	struct jni_object search_result_obj;
+	int search_result_batched;
+	struct android_search_result_batch batch;
 	struct event_idle *idle_ev;
 	struct callback *idle_clb;
 	struct search_list *search_list;
@@ -554,11 +568,86 @@ town_str(struct search_list_result *res, int level)
 	return g_strdup_printf("%s%s%s%s%s%s%s%s", postal, postal_sep, town, district_begin, district, district_end, county_sep, county);
 }
 
+/**
+ * @brief Passes the buffered search results to Java
+ *
+ * All results of the batch are passed in one call of receiveAddresses(), as arrays, which costs far
+ * less than one call with its own strings per result.
+ */
+static void
+android_search_flush(struct android_search_priv *search_priv)
+{
+	struct android_search_result_batch *batch=&search_priv->batch;
+	JNIEnv* env = search_priv->search_result_obj.env;
+	jclass string_class;
+	jintArray types;
+	jfloatArray lats, lons;
+	jobjectArray addresses;
+	int i;
+
+	if (!batch->count)
+		return;
+	string_class=(*env)->FindClass(env, "java/lang/String");
+	types=(*env)->NewIntArray(env, batch->count);
+	lats=(*env)->NewFloatArray(env, batch->count);
+	lons=(*env)->NewFloatArray(env, batch->count);
+	addresses=(*env)->NewObjectArray(env, batch->count, string_class, NULL);
+	if (types && lats && lons && addresses) {
+		(*env)->SetIntArrayRegion(env, types, 0, batch->count, batch->type);
+		(*env)->SetFloatArrayRegion(env, lats, 0, batch->count, batch->lat);
+		(*env)->SetFloatArrayRegion(env, lons, 0, batch->count, batch->lon);
+		for (i = 0 ; i < batch->count ; i++) {
+			jstring jaddress=(*env)->NewStringUTF(env, batch->address[i]);
+			(*env)->SetObjectArrayElement(env, addresses, i, jaddress);
+			(*env)->DeleteLocalRef(env, jaddress);
+		}
+		(*env)->CallVoidMethod(env, search_priv->search_result_obj.jo, search_priv->search_result_obj.jm, types, lats, lons, addresses, batch->count);
+	} else
+		dbg(lvl_error, "Failed to allocate arrays for %d search results", batch->count);
+	(*env)->DeleteLocalRef(env, types);
+	(*env)->DeleteLocalRef(env, lats);
+	(*env)->DeleteLocalRef(env, lons);
+	(*env)->DeleteLocalRef(env, addresses);
+	(*env)->DeleteLocalRef(env, string_class);
+	for (i = 0 ; i < batch->count ; i++)
+		g_free(batch->address[i]);
+	batch->count=0;
+}
+
+/**
+ * @brief Returns a search result to Java, buffering it if Java receives batches
+ *
+ * @param address The address, freed by this function
+ */
+static void
+android_search_add_result(struct android_search_priv *search_priv, int type, struct pcoord *location, gchar *address)
+{
+	struct android_search_result_batch *batch=&search_priv->batch;
+	struct coord_geo geo_location;
+	struct coord c;
+
+	if (!search_priv->search_result_batched) {
+		android_return_search_result(&search_priv->search_result_obj, type, location, address);
+		g_free(address);
+		return;
+	}
+	c.x=location->x;
+	c.y=location->y;
+	transform_to_geo(location->pro, &c, &geo_location);
+	batch->type[batch->count]=type;
+	batch->lat[batch->count]=geo_location.lat;
+	batch->lon[batch->count]=geo_location.lng;
+	batch->address[batch->count]=address;
+	if (++batch->count == ANDROID_SEARCH_BATCH_SIZE)
+		android_search_flush(search_priv);
+}
+
 static void
 android_search_end(struct android_search_priv *search_priv)
 {
 	dbg(lvl_debug, "End search");
 	JNIEnv* env = search_priv->search_result_obj.env;
+	android_search_flush(search_priv);
 	if (search_priv->idle_ev) {
 		event_remove_idle(search_priv->idle_ev);
 		search_priv->idle_ev=NULL;
@@ -591,8 +680,12 @@ android_search_idle(struct android_search_priv *search_priv)
 {
 	dbg(lvl_debug, "enter android_search_idle");
 
-	struct search_list_result *res = search_list_get_result(search_priv->search_list);
-	if (res) {
+	struct search_list_result *res;
+	int count=0;
+
+	/* Fetch up to a batch of results per call, and pass them to Java at once */
+	while (count < ANDROID_SEARCH_BATCH_SIZE && (res = search_list_get_result(search_priv->search_list))) {
+		count++;
 		dbg(lvl_debug, "Town: %s, Street: %s\n",res->town ? res->town->common.town_name : "no town", res->street ? res->street->name : "no street");
 		search_priv->found = 1;
 		switch (search_priv->search_attr.type)
@@ -600,16 +693,14 @@ android_search_idle(struct android_search_priv *search_priv)
 		case attr_town_or_district_name:
 		{
 			gchar *town = town_str(res, 1);
-			android_return_search_result(&search_priv->search_result_obj, 0, res->town->common.c, town);
-			g_free(town);
+			android_search_add_result(search_priv, 0, res->town->common.c, town);
 			break;
 		}
 		case attr_street_name:
 		{
 			gchar *town = town_str(res, 2);
 			gchar *address = g_strdup_printf("%.101s,%.101s, %.101s", res->country->name, town, res->street->name);
-			android_return_search_result(&search_priv->search_result_obj, 1, res->street->common.c, address);
-			g_free(address);
+			android_search_add_result(search_priv, 1, res->street->common.c, address);
 			g_free(town);
 			break;
 		}
@@ -617,14 +708,16 @@ android_search_idle(struct android_search_priv *search_priv)
 		{
 			gchar *town = town_str(res, 3);
 			gchar *address = g_strdup_printf("%.101s, %.101s, %.101s %.15s", res->country->name, town, res->street->name, res->house_number->house_number);
-			android_return_search_result(&search_priv->search_result_obj, 2, res->house_number->common.c, address);
-			g_free(address);
+			android_search_add_result(search_priv, 2, res->house_number->common.c, address);
 			g_free(town);
 			break;
 		}
 		default:
 			dbg(lvl_error, "Unhandled search type %d", search_priv->search_attr.type);
 		}
+	}
+	if (count) {
+		android_search_flush(search_priv);
 	} else {
 		int level = search_list_level(search_priv->search_attr.type) - 1;
 
@@ -719,9 +812,17 @@ Java_org_navitproject_navit_NavitAddressSearchActivity_CallbackStartAddressSearc
 	config_get_attr(config_get(), attr_navit, &attr, NULL);
 
 	jclass cls = (*env)->GetObjectClass(env,thiz);
-	jmethodID aMethodID = (*env)->GetMethodID(env, cls, "receiveAddress", "(IFFLjava/lang/String;)V");
+	int batched = 1;
+	jmethodID aMethodID = (*env)->GetMethodID(env, cls, "receiveAddresses", "([I[F[F[Ljava/lang/String;I)V");
 	struct android_search_priv *search_priv = NULL;
 
+	if (!aMethodID) {
+		/* An activity which receives one result per call */
+		(*env)->ExceptionClear(env);
+		batched = 0;
+		aMethodID = (*env)->GetMethodID(env, cls, "receiveAddress", "(IFFLjava/lang/String;)V");
+	}
+
 	if(aMethodID != 0)
 	{
 		struct mapset *ms4=navit_get_mapset(attr.u.navit);
@@ -753,6 +854,7 @@ Java_org_navitproject_navit_NavitAddressSearchActivity_CallbackStartAddressSearc
 		search_priv->search_result_obj.env = env;
 		search_priv->search_result_obj.jo = (*env)->NewGlobalRef(env, thiz);
 		search_priv->search_result_obj.jm = aMethodID;
+		search_priv->search_result_batched = batched;
 
 		start_search(search_priv, search_string);
 	}
@@ -428,6 +428,13 @@ public class Navit extends Activity
 		Log.e("Navit", "android.os.Build.VERSION.SDK_INT=" + Integer.valueOf(android.os.Build.VERSION.SDK));
 		NavitMain(this, NavitLanguage, Integer.valueOf(android.os.Build.VERSION.SDK), my_display_density, NAVIT_DATA_DIR+"/bin/navit",map_filename_path);
 
+		// continue map downloads queued before the last exit
+		NavitDownloadQueue.getInstance(this).start();
+		// scan the installed maps in the background
+		NavitMapInventory.getInstance();
+		// and index them for address searches, if enabled
+		NavitSearchIndex.getInstance(this);
+
 		showInfos();
 
 		Navit.mgr = (InputMethodManager) getSystemService(Context.INPUT_METHOD_SERVICE);
@@ -871,6 +878,7 @@ public class Navit extends Activity
 	{
 		super.onDestroy();
 		Log.e("Navit", "OnDestroy");
+		dialogs.destroy();
 		// TODO next call will kill our app the hard way. This should not be necessary, but ensures navit is
 		// properly restarted and no resources are wasted with navit in background. Remove this call after 
 		// code review
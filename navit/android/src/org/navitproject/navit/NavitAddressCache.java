@@ -0,0 +1,147 @@
+/**
+ * Navit, a modular navigation system.
+ * Copyright (C) 2005-2008 Navit Team
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * version 2 as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor,
+ * Boston, MA  02110-1301, USA.
+ */
+
+package org.navitproject.navit;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * @brief A cache of the results of address searches.
+ *
+ * Results are kept by country, partial match flag and normalized query, so searching for the same
+ * town or street again does not scan the maps again. The least recently used results are evicted once
+ * the estimated size of all results exceeds the limit. The cache must be cleared whenever a map is
+ * loaded or unloaded, as the results depend on the active maps.
+ */
+public class NavitAddressCache {
+	private static final long DEFAULT_MAX_BYTES = 2 * 1024 * 1024;
+
+	private static NavitAddressCache instance;
+
+	private final LinkedHashMap<String, NavitAddressResults> entries
+	        = new LinkedHashMap<String, NavitAddressResults>(16, 0.75f, true);
+	private final long max_bytes;
+	private long bytes;
+	private int lookups;
+	private int hits;
+
+	/** @brief Returns the cache shared by all address searches. */
+	public static synchronized NavitAddressCache getInstance()
+	{
+		if (instance == null)
+			instance = new NavitAddressCache(DEFAULT_MAX_BYTES);
+		return instance;
+	}
+
+	/**
+	 * @brief Creates a new address cache.
+	 *
+	 * @param max_bytes The maximum estimated size of all cached results
+	 */
+	public NavitAddressCache(long max_bytes)
+	{
+		this.max_bytes = max_bytes;
+	}
+
+	/**
+	 * @brief Returns the key for the results of a search.
+	 *
+	 * Queries which only differ in case, diacritics or separators between the words share a key. Queries
+	 * in different scripts do not, as the native search does not transliterate.
+	 */
+	public static String key(String country, boolean partial, String query)
+	{
+		StringBuilder ret = new StringBuilder();
+		ret.append(country).append('\n').append(partial ? '1' : '0').append('\n');
+		for (String word : NavitTextNormalizer.words(NavitTextNormalizer.fold(query)))
+			ret.append(word).append(' ');
+		return ret.toString();
+	}
+
+	/**
+	 * @brief Looks up the results of a search.
+	 *
+	 * @return The results, which must not be modified, or null
+	 */
+	public synchronized NavitAddressResults get(String key)
+	{
+		lookups++;
+		NavitAddressResults ret = entries.get(key);
+		if (ret != null)
+			hits++;
+		return ret;
+	}
+
+	/**
+	 * @brief Stores a copy of the results of a completed search.
+	 *
+	 * Incomplete results are not stored, they would be returned for the same query later.
+	 */
+	public synchronized void put(String key, NavitAddressResults results)
+	{
+		if (!results.isComplete())
+			return;
+		NavitAddressResults copy = new NavitAddressResults();
+		copy.addAll(results);
+		long size = copy.estimateBytes();
+		/* Huge result lists would evict most of the cache, and are rarely searched twice */
+		if (size > max_bytes / 4)
+			return;
+		NavitAddressResults old = entries.put(key, copy);
+		if (old != null)
+			bytes -= old.estimateBytes();
+		bytes += size;
+		Iterator<Map.Entry<String, NavitAddressResults>> it = entries.entrySet().iterator();
+		while (bytes > max_bytes && it.hasNext()) {
+			bytes -= it.next().getValue().estimateBytes();
+			it.remove();
+		}
+	}
+
+	/** @brief Removes all results, e.g. after the active maps changed. */
+	public synchronized void clear()
+	{
+		entries.clear();
+		bytes = 0;
+	}
+
+	/** @brief Returns the share of lookups which found results, between 0 and 1. */
+	public synchronized float getHitRate()
+	{
+		return lookups > 0 ? (float)hits / lookups : 0;
+	}
+
+	public synchronized int getLookups()
+	{
+		return lookups;
+	}
+
+	public synchronized int getHits()
+	{
+		return hits;
+	}
+
+	/** @brief Returns the estimated size of all cached results in bytes. */
+	public synchronized long getBytes()
+	{
+		return bytes;
+	}
+}
@@ -0,0 +1,267 @@
+/**
+ * Navit, a modular navigation system.
+ * Copyright (C) 2005-2008 Navit Team
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * version 2 as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor,
+ * Boston, MA  02110-1301, USA.
+ */
+
+package org.navitproject.navit;
+
+import android.location.Location;
+
+/**
+ * @brief Ranks address search results by how well they match the query.
+ *
+ * Each result gets a cost, lower is better, from:
+ * - each word of the query: nothing if it starts a word of the address, otherwise the edit distance to
+ *   the start of the most similar word, or a fixed cost if no word is similar enough,
+ * - the type of the result: a query ending with a number after other words most likely names a house
+ *   number, other queries prefer no type, as a town and a street may both have several words,
+ * - the distance from the last known position, growing with its logarithm.
+ *
+ * All words are compared after NavitTextNormalizer, so transliterated names match. A ranker reuses its
+ * buffers for all results, and only the best results are kept in a bounded heap, so ranking tens of
+ * thousands of results neither sorts them all nor allocates per result.
+ */
+public class NavitAddressRanker
+{
+	private static final float   PREFIX_COST       = 0.1f;
+	private static final float   EDIT_COST         = 1.0f;
+	private static final float   MISSING_WORD_COST = 4.0f;
+	private static final float   TYPE_COST         = 1.0f;
+	/* Cost per factor of 10 of the distance in km */
+	private static final float   DISTANCE_COST     = 0.25f;
+	private static final double  KM_PER_DEGREE     = 111.2;
+
+	private final char[][]       words;
+	/* The type to prefer, or -1 for none */
+	private final int            expected_type;
+	private final boolean        has_location;
+	private final double         lat;
+	private final double         lon;
+	private final double         cos_lat;
+	private final StringBuilder  buffer            = new StringBuilder(128);
+	private final float[]        word_costs;
+	private int[]                row_prev;
+	private int[]                row_cur;
+
+	/**
+	 * @brief Prepares the ranking for a query.
+	 *
+	 * @param query The query as typed
+	 * @param location The position to prefer results near to, or null
+	 */
+	public NavitAddressRanker(String query, Location location)
+	{
+		String[] query_words = NavitTextNormalizer.words(NavitTextNormalizer.normalize(query));
+		words = new char[query_words.length][];
+		int max_len = 0;
+		for (int i = 0; i < query_words.length; i++) {
+			words[i] = query_words[i].toCharArray();
+			max_len = Math.max(max_len, words[i].length);
+		}
+		word_costs = new float[words.length];
+		row_prev = new int[max_len + 2];
+		row_cur = new int[max_len + 2];
+		boolean house_number = words.length > 1 && Character.isDigit(words[words.length - 1][0]);
+		expected_type = house_number ? NavitAddressResults.TYPE_HOUSE_NUMBER : -1;
+		has_location = location != null;
+		lat = has_location ? location.getLatitude() : 0;
+		lon = has_location ? location.getLongitude() : 0;
+		cos_lat = Math.cos(Math.toRadians(lat));
+	}
+
+	/**
+	 * @brief Returns the cost of a result, lower is better.
+	 */
+	public float score(int type, float result_lat, float result_lon, String address)
+	{
+		return score(type, result_lat, result_lon, address, Float.MAX_VALUE);
+	}
+
+	/**
+	 * @brief Returns the cost of a result, or a lower bound of at least limit if it is not below limit.
+	 */
+	private float score(int type, float result_lat, float result_lon, String address, float limit)
+	{
+		/* The type and the distance are cheap, the words are only compared if the result can still win */
+		float ret = expected_type < 0 ? 0 : TYPE_COST * Math.abs(type - expected_type);
+		if (has_location) {
+			double dlat = result_lat - lat;
+			double dlon = (result_lon - lon) * cos_lat;
+			double km = Math.sqrt(dlat * dlat + dlon * dlon) * KM_PER_DEGREE;
+			ret += DISTANCE_COST * (float) Math.log10(1 + km);
+		}
+		if (ret >= limit)
+			return ret;
+
+		buffer.setLength(0);
+		NavitTextNormalizer.appendNormalized(address, buffer);
+		for (int i = 0; i < words.length; i++)
+			word_costs[i] = MISSING_WORD_COST;
+
+		int len = buffer.length();
+		int start = -1;
+		for (int pos = 0; pos <= len; pos++) {
+			boolean word_char = pos < len && Character.isLetterOrDigit(buffer.charAt(pos));
+			if (word_char && start < 0) {
+				start = pos;
+			} else if (!word_char && start >= 0) {
+				for (int i = 0; i < words.length; i++) {
+					if (word_costs[i] > 0)
+						word_costs[i] = Math.min(word_costs[i], wordCost(words[i], start, pos));
+				}
+				start = -1;
+			}
+		}
+
+		for (float cost : word_costs)
+			ret += cost;
+		return ret;
+	}
+
+	/**
+	 * @brief Returns the cost of matching a query word with the address word in buffer[start, end).
+	 */
+	private float wordCost(char[] word, int start, int end)
+	{
+		int len = end - start;
+		int common = 0;
+		while (common < word.length && common < len && word[common] == buffer.charAt(start + common))
+			common++;
+		if (common == word.length)
+			return common == len ? 0 : PREFIX_COST;
+		/* Short words may have one typo, longer ones two */
+		int max = word.length <= 4 ? 1 : 2;
+		int distance = distance(word, start, Math.min(len, word.length), max);
+		if (distance > max)
+			return MISSING_WORD_COST;
+		return PREFIX_COST + EDIT_COST * distance;
+	}
+
+	/**
+	 * @brief Returns the Levenshtein distance between a word and buffer[start, start + len).
+	 *
+	 * Only the cells within max of the diagonal are computed, and the computation stops as soon as
+	 * the distance is known to exceed max.
+	 *
+	 * @return The distance, or max + 1 if it is larger than max
+	 */
+	private int distance(char[] word, int start, int len, int max)
+	{
+		int[] prev = row_prev;
+		int[] cur = row_cur;
+		for (int j = 0; j <= len; j++)
+			prev[j] = j;
+		for (int i = 1; i <= word.length; i++) {
+			int from = Math.max(1, i - max);
+			int to = Math.min(len, i + max);
+			cur[0] = i;
+			if (from > 1)
+				cur[from - 1] = max + 1;
+			int row_min = (from == 1) ? i : max + 1;
+			char c = word[i - 1];
+			for (int j = from; j <= to; j++) {
+				int value = prev[j - 1] + (c == buffer.charAt(start + j - 1) ? 0 : 1);
+				value = Math.min(value, prev[j] + 1);
+				value = Math.min(value, cur[j - 1] + 1);
+				cur[j] = value;
+				row_min = Math.min(row_min, value);
+			}
+			if (to < len)
+				cur[to + 1] = max + 1;
+			if (row_min > max)
+				return max + 1;
+			int[] swap = prev;
+			prev = cur;
+			cur = swap;
+		}
+		return Math.min(prev[len], max + 1);
+	}
+
+	/**
+	 * @brief Returns the best results.
+	 *
+	 * @param results The results to rank
+	 * @param max The maximum number of results to return
+	 *
+	 * @return The indices of the best results, best first. Results of the same cost keep their order.
+	 */
+	public int[] rank(NavitAddressResults results, int max)
+	{
+		int count = results.size();
+		int capacity = Math.min(max, count);
+		/* A max heap of the best results so far, the worst of them at the top */
+		float[] heap_costs = new float[capacity];
+		int[] heap_indices = new int[capacity];
+		int size = 0;
+		for (int i = 0; i < count && capacity > 0; i++) {
+			/* Once the heap is full, a result has to beat its worst entry. On equal cost the earlier
+			 * result wins, so a later one needs a lower cost */
+			float limit = (size < capacity) ? Float.MAX_VALUE : heap_costs[0];
+			float cost = score(results.getType(i), results.getLat(i), results.getLon(i), results.getAddress(i),
+			        limit);
+			if (size < capacity) {
+				int pos = size++;
+				while (pos > 0) {
+					int parent = (pos - 1) / 2;
+					if (!worse(cost, i, heap_costs[parent], heap_indices[parent]))
+						break;
+					heap_costs[pos] = heap_costs[parent];
+					heap_indices[pos] = heap_indices[parent];
+					pos = parent;
+				}
+				heap_costs[pos] = cost;
+				heap_indices[pos] = i;
+			} else if (worse(heap_costs[0], heap_indices[0], cost, i)) {
+				siftDown(heap_costs, heap_indices, size, cost, i);
+			}
+		}
+
+		int[] ret = new int[size];
+		while (size > 0) {
+			ret[size - 1] = heap_indices[0];
+			size--;
+			if (size > 0)
+				siftDown(heap_costs, heap_indices, size, heap_costs[size], heap_indices[size]);
+		}
+		return ret;
+	}
+
+	private static boolean worse(float cost_a, int index_a, float cost_b, int index_b)
+	{
+		return cost_a > cost_b || (cost_a == cost_b && index_a > index_b);
+	}
+
+	/** @brief Puts a result at the top of the heap and moves it down to its place. */
+	private static void siftDown(float[] costs, int[] indices, int size, float cost, int index)
+	{
+		int pos = 0;
+		for (;;) {
+			int child = 2 * pos + 1;
+			if (child >= size)
+				break;
+			if (child + 1 < size && worse(costs[child + 1], indices[child + 1], costs[child], indices[child]))
+				child++;
+			if (!worse(costs[child], indices[child], cost, index))
+				break;
+			costs[pos] = costs[child];
+			indices[pos] = indices[child];
+			pos = child;
+		}
+		costs[pos] = cost;
+		indices[pos] = index;
+	}
+}
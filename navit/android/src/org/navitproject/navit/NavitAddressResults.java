@@ -0,0 +1,208 @@
+/**
+ * Navit, a modular navigation system.
+ * Copyright (C) 2005-2008 Navit Team
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * version 2 as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor,
+ * Boston, MA  02110-1301, USA.
+ */
+
+package org.navitproject.navit;
+
+/**
+ * @brief The results of an address search, stored in growable arrays.
+ *
+ * A search can return tens of thousands of results, so they are not kept as one object each: the
+ * type and the position of each result are stored in primitive arrays, next to an array of the
+ * addresses. Results are added in batches, as delivered by the native search.
+ */
+public class NavitAddressResults
+{
+	public static final int TYPE_TOWN         = 0;
+	public static final int TYPE_STREET       = 1;
+	public static final int TYPE_HOUSE_NUMBER = 2;
+
+	private static final int INITIAL_CAPACITY = 64;
+
+	private int[]            types            = new int[INITIAL_CAPACITY];
+	private float[]          lats             = new float[INITIAL_CAPACITY];
+	private float[]          lons             = new float[INITIAL_CAPACITY];
+	private String[]         addresses        = new String[INITIAL_CAPACITY];
+	private int              size;
+	private final int[]      type_counts      = new int[3];
+	/* Time of the first result, for the result rate */
+	private long             first_result_ns  = -1;
+	private long             last_result_ns;
+	/* Set once the results are known to hold every match of their search */
+	private boolean          complete;
+
+	/**
+	 * @brief Adds a batch of results.
+	 *
+	 * @param types The types of the results, see TYPE_TOWN, TYPE_STREET and TYPE_HOUSE_NUMBER
+	 * @param lats The latitudes in degrees
+	 * @param lons The longitudes in degrees
+	 * @param addresses The addresses
+	 * @param count The number of results in the arrays
+	 */
+	public void add(int[] types, float[] lats, float[] lons, String[] addresses, int count) {
+		if (count <= 0)
+			return;
+		ensureCapacity(size + count);
+		System.arraycopy(types, 0, this.types, size, count);
+		System.arraycopy(lats, 0, this.lats, size, count);
+		System.arraycopy(lons, 0, this.lons, size, count);
+		System.arraycopy(addresses, 0, this.addresses, size, count);
+		for (int i = 0; i < count; i++) {
+			if (types[i] >= 0 && types[i] < type_counts.length)
+				type_counts[types[i]]++;
+		}
+		size += count;
+		long now = System.nanoTime();
+		if (first_result_ns < 0)
+			first_result_ns = now;
+		last_result_ns = now;
+	}
+
+	/** @brief Adds a single result. */
+	public void add(int type, float lat, float lon, String address) {
+		add(new int[] { type }, new float[] { lat }, new float[] { lon }, new String[] { address }, 1);
+	}
+
+	/** @brief Adds all results of another store. */
+	public void addAll(NavitAddressResults other) {
+		add(other.types, other.lats, other.lons, other.addresses, other.size);
+	}
+
+	private void ensureCapacity(int capacity) {
+		if (capacity <= types.length)
+			return;
+		int new_capacity = types.length;
+		while (new_capacity < capacity)
+			new_capacity *= 2;
+		int[] new_types = new int[new_capacity];
+		float[] new_lats = new float[new_capacity];
+		float[] new_lons = new float[new_capacity];
+		String[] new_addresses = new String[new_capacity];
+		System.arraycopy(types, 0, new_types, 0, size);
+		System.arraycopy(lats, 0, new_lats, 0, size);
+		System.arraycopy(lons, 0, new_lons, 0, size);
+		System.arraycopy(addresses, 0, new_addresses, 0, size);
+		types = new_types;
+		lats = new_lats;
+		lons = new_lons;
+		addresses = new_addresses;
+	}
+
+	/** @brief Removes all results. */
+	public void clear() {
+		for (int i = 0; i < size; i++)
+			addresses[i] = null;
+		size = 0;
+		for (int i = 0; i < type_counts.length; i++)
+			type_counts[i] = 0;
+		first_result_ns = -1;
+		complete = false;
+	}
+
+	/**
+	 * @brief Marks whether the results hold every match of their search.
+	 *
+	 * Only complete results may be filtered for a longer query or kept in the cache. Results of a
+	 * cancelled or capped search are incomplete.
+	 */
+	public void setComplete(boolean complete) {
+		this.complete = complete;
+	}
+
+	public boolean isComplete() {
+		return complete;
+	}
+
+	/**
+	 * @brief Removes the results whose address does not match all prefixes.
+	 *
+	 * @param prefixes Normalized prefixes, each has to start a word of the address
+	 */
+	public void retainMatching(String[] prefixes) {
+		int kept = 0;
+		for (int i = 0; i < type_counts.length; i++)
+			type_counts[i] = 0;
+		for (int i = 0; i < size; i++) {
+			if (!NavitTextNormalizer.matchesWordPrefixes(NavitTextNormalizer.normalize(addresses[i]), prefixes))
+				continue;
+			types[kept] = types[i];
+			lats[kept] = lats[i];
+			lons[kept] = lons[i];
+			addresses[kept] = addresses[i];
+			if (types[kept] >= 0 && types[kept] < type_counts.length)
+				type_counts[types[kept]]++;
+			kept++;
+		}
+		for (int i = kept; i < size; i++)
+			addresses[i] = null;
+		size = kept;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	public int getType(int index) {
+		return types[index];
+	}
+
+	public float getLat(int index) {
+		return lats[index];
+	}
+
+	public float getLon(int index) {
+		return lons[index];
+	}
+
+	public String getAddress(int index) {
+		return addresses[index];
+	}
+
+	/**
+	 * @brief Returns an estimate of the memory used by the results, in bytes.
+	 */
+	public long estimateBytes() {
+		/* type, position and array slot per result, and a String object with its characters */
+		long ret = (long) types.length * 16;
+		for (int i = 0; i < size; i++)
+			ret += 40 + 2 * addresses[i].length();
+		return ret;
+	}
+
+	/** @brief Returns the number of results of a type. */
+	public int getCount(int type) {
+		return type_counts[type];
+	}
+
+	/**
+	 * @brief Returns the number of results per second, between the first and the last batch.
+	 *
+	 * Returns 0 until there are two batches.
+	 */
+	public float getResultsPerSecond() {
+		long elapsed = last_result_ns - first_result_ns;
+		if (first_result_ns < 0 || elapsed <= 0)
+			return 0;
+		return size * 1000000000f / elapsed;
+	}
+}
@@ -20,7 +20,6 @@
 package org.navitproject.navit;
 
 import java.lang.reflect.Field;
-import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Comparator;
 import java.util.List;
@@ -28,27 +27,32 @@ import java.util.Locale;
 
 import android.app.Activity;
 import android.app.AlertDialog;
-import android.app.Dialog;
-import android.app.ProgressDialog;
 import android.content.DialogInterface;
 import android.content.Intent;
 import android.content.SharedPreferences;
 import android.os.Bundle;
+import android.os.Handler;
+import android.text.Editable;
+import android.text.TextWatcher;
 import android.util.Log;
 import android.util.TypedValue;
 import android.view.Gravity;
 import android.view.View;
 import android.view.View.OnClickListener;
+import android.view.ViewGroup;
 import android.view.WindowManager;
 import android.widget.AdapterView;
 import android.widget.AdapterView.OnItemClickListener;
 import android.widget.ArrayAdapter;
+import android.widget.BaseAdapter;
 import android.widget.Button;
 import android.widget.CheckBox;
+import android.widget.CompoundButton;
 import android.widget.EditText;
 import android.widget.ImageButton;
 import android.widget.LinearLayout;
 import android.widget.ListView;
+import android.widget.ProgressBar;
 import android.widget.RelativeLayout;
 import android.widget.Toast;
 import android.widget.RelativeLayout.LayoutParams;
@@ -70,20 +74,41 @@ public class NavitAddressSearchActivity extends Activity {
 	}
 
 	private static final String TAG                         = "NavitAddress";
-	private static final int    ADDRESS_RESULT_PROGRESS_MAX = 10;
-
-	private List<NavitAddress> Addresses_found              = null;
-	private List<NavitAddress> addresses_shown              = null;
+	private static final long   PROGRESS_UPDATE_MS          = 250;
+	/* Search as you type: wait for a pause in typing, and for a few letters */
+	private static final long   TYPING_DELAY_MS             = 400;
+	private static final int    MIN_QUERY_LENGTH            = 3;
+	/* The number of results ranked once a search is complete, they are shown best first before the others */
+	private static final int    MAX_RANKED_RESULTS          = 200;
+
+	private final NavitAddressResults results               = new NavitAddressResults();
+	private AddressAdapter     addresses_shown              = null;
 	private String             mAddressString               = "";
 	private boolean            mPartialSearch               = false;
 	private String             mCountry;
 	private ImageButton        mCountryButton;
-	ProgressDialog             search_results_wait          = null;
+	private ProgressBar        search_progress              = null;
+	private TextView           search_status                = null;
 	public RelativeLayout      NavitAddressSearchActivity_layout;
-	private int                search_results_towns           = 0;
-	private int                search_results_streets         = 0;
-	private int                search_results_streets_hn      = 0;
+	private long               last_update                    = 0;
 	private long               search_handle                  = 0;
+	private boolean            search_cancelled               = false;
+	/* The cache key of the running native search */
+	private String             search_key                     = null;
+	/* The query the results are complete for, null if they are not */
+	private String[]           results_words                  = null;
+	private String             results_country                = null;
+	/* Set while results are shown below the query as it is typed */
+	private boolean            incremental                    = false;
+	private final Handler      handler                        = new Handler();
+	private View               results_view                   = null;
+	private ListView           last_addresses_view            = null;
+	private String             typed_query                    = "";
+	private final Runnable     typed_search                   = new Runnable() {
+		public void run() {
+			searchTyped();
+		}
+	};
 
 	// TODO remember settings
 	private static String               last_address_search_string = "";
@@ -178,6 +203,17 @@ public class NavitAddressSearchActivity extends Activity {
 		checkboxPartialMatch.setChecked(last_address_partial_match);
 		checkboxPartialMatch.setGravity(Gravity.CENTER);
 
+		// search index checkbox
+		final CheckBox checkboxSearchIndex = new CheckBox(this);
+		checkboxSearchIndex.setText(Navit.T("use search index")); // TRANS
+		checkboxSearchIndex.setChecked(NavitSearchIndex.isEnabled(this));
+		checkboxSearchIndex.setGravity(Gravity.CENTER);
+		checkboxSearchIndex.setOnCheckedChangeListener(new CompoundButton.OnCheckedChangeListener() {
+			public void onCheckedChanged(CompoundButton buttonView, boolean isChecked) {
+				NavitSearchIndex.setEnabled(NavitAddressSearchActivity.this, isChecked);
+			}
+		});
+
 		final EditText address_string = new EditText(this);
 		address_string.setText(last_address_search_string);
 		address_string.setSelectAllOnFocus(true);
@@ -193,11 +229,28 @@ public class NavitAddressSearchActivity extends Activity {
 				mAddressString = address_string.getText().toString();
 				last_address_partial_match = mPartialSearch;
 				last_address_search_string = mAddressString;
+				handler.removeCallbacks(typed_search);
+				cancelSearch();
 				executeSearch();
 			}
 		});
 
+		address_string.addTextChangedListener(new TextWatcher() {
+			public void afterTextChanged(Editable s) {
+				typed_query = s.toString();
+				handler.removeCallbacks(typed_search);
+				handler.postDelayed(typed_search, TYPING_DELAY_MS);
+			}
+
+			public void beforeTextChanged(CharSequence s, int start, int count, int after) {
+			}
+
+			public void onTextChanged(CharSequence s, int start, int before, int count) {
+			}
+		});
+
 		ListView lastAddresses = new ListView(this);
+		last_addresses_view = lastAddresses;
 		NavitAppConfig navitConfig = (NavitAppConfig) getApplicationContext();
 
 		final List<NavitAddress> addresses = navitConfig.getLastAddresses();
@@ -235,11 +288,15 @@ public class NavitAddressSearchActivity extends Activity {
 
 		searchSettingsLayout.addView(mCountryButton);
 		searchSettingsLayout.addView(checkboxPartialMatch);
+		searchSettingsLayout.addView(checkboxSearchIndex);
 		panel.addView(addr_view);
 		panel.addView(address_string);
 		panel.addView(searchSettingsLayout);
 		panel.addView(btnSearch);
 		panel.addView(lastAddresses);
+		results_view = createResultsView();
+		results_view.setVisibility(View.GONE);
+		panel.addView(results_view);
 
 		setContentView(panel);
 	}
@@ -272,6 +329,11 @@ public class NavitAddressSearchActivity extends Activity {
 				edit_settings.commit();
 
 				setCountryButtonImage();
+				if (incremental) {
+					results_words = null;
+					handler.removeCallbacks(typed_search);
+					handler.post(typed_search);
+				}
 			}
 		});
 
@@ -281,105 +343,323 @@ public class NavitAddressSearchActivity extends Activity {
 	}
 
 	/**
-	 * start a search on the map
+	 * @brief Receives a batch of results from the native search.
+	 *
+	 * Results are appended to the list, which is shown while the search is still running. The counts
+	 * and the list are refreshed at most every PROGRESS_UPDATE_MS, not for each batch.
 	 */
-	public void receiveAddress(int type, float latitude, float longitude, String address) {
-		Log.e(TAG, "(" + String.valueOf(latitude) + ", " + String.valueOf(longitude) + ") " + address);
-
-		switch (type) {
-		case 0:
-			search_results_towns++;
-			break;
-		case 1:
-			search_results_streets++;
-			break;
-		case 2:
-			search_results_streets_hn++;
-			break;
-
-		}
-		search_results_wait.setMessage(Navit.T("Towns") + ":" + search_results_towns + " "
-		        + Navit.T("Streets") + ":" + search_results_streets + "/"
-		        + search_results_streets_hn);
+	public void receiveAddresses(int[] types, float[] lats, float[] lons, String[] addresses, int count) {
+		results.add(types, lats, lons, addresses, count);
+		updateResults(false);
+	}
 
-		search_results_wait.setProgress(Addresses_found.size() % (ADDRESS_RESULT_PROGRESS_MAX + 1));
+	/**
+	 * @brief Receives a single result, from native code which does not deliver batches.
+	 */
+	public void receiveAddress(int type, float latitude, float longitude, String address) {
+		results.add(type, latitude, longitude, address);
+		updateResults(false);
+	}
 
-		Addresses_found.add(new NavitAddress(type, latitude, longitude, address));
+	private void updateResults(boolean force) {
+		long now = System.currentTimeMillis();
+		if (!force && now - last_update < PROGRESS_UPDATE_MS)
+			return;
+		last_update = now;
+		addresses_shown.update();
+		search_status.setText(Navit.T("Towns") + ":" + results.getCount(NavitAddressResults.TYPE_TOWN) + " "
+		        + Navit.T("Streets") + ":" + results.getCount(NavitAddressResults.TYPE_STREET) + "/"
+		        + results.getCount(NavitAddressResults.TYPE_HOUSE_NUMBER));
 	}
 
+	/**
+	 * @brief Called by the native search when it ended, also when it was cancelled.
+	 */
 	public void finishAddressSearch() {
-		if (Addresses_found.isEmpty()) {
+		boolean cancelled = search_cancelled;
+		search_handle = 0;
+		search_cancelled = false;
+		/* Results from the cache were marked complete by startSearch(), those of the search index are not */
+		if (search_key != null)
+			results.setComplete(!cancelled);
+		if (!results.isComplete())
+			results_words = null;
+		else if (search_key != null)
+			NavitAddressCache.getInstance().put(search_key, results);
+		search_key = null;
+		Log.d(TAG, "Found " + results.size() + " addresses, " + results.getResultsPerSecond()
+		        + " per second, cache hit rate " + NavitAddressCache.getInstance().getHitRate());
+		if (isFinishing() || search_status == null)
+			return;
+		if (incremental) {
+			// a cancelled search is replaced by the search for the new query
+			if (!cancelled)
+				showIncrementalResults();
+			return;
+		}
+		if (results.isEmpty()) {
 			Toast.makeText( getApplicationContext(),getString(R.string.address_search_not_found) + "\n" + mAddressString, Toast.LENGTH_LONG).show(); //TRANS
 			setResult(Activity.RESULT_CANCELED);
 			finish();
+			return;
 		}
-		ListView addressesFound = new ListView(this);
-		addressesFound.setFastScrollEnabled(true);
-		ArrayAdapter<String> addressList =
-		    new ArrayAdapter<String>(this, android.R.layout.simple_list_item_1);
-		
-		addresses_shown = new ArrayList<NavitAddress>();
-		
-		for (NavitAddress currentAddress : Addresses_found) {
-			if (currentAddress.result_type != 0 || search_results_streets == 0) {
-				addressList.add(currentAddress.addr);
-				addresses_shown.add(currentAddress);
-			}
+		updateResults(true);
+		addresses_shown.rank();
+		search_progress.setVisibility(View.GONE);
+	}
+
+	/** @brief Returns the rate of the last search, in results per second. */
+	public float getResultsPerSecond() {
+		return results.getResultsPerSecond();
+	}
+
+	public native long CallbackStartAddressSearch(int partial_match, String country, String s);
+	public native void CallbackCancelAddressSearch(long handle);
+
+	private void cancelSearch() {
+		if (search_handle != 0) {
+			search_cancelled = true;
+			long handle = search_handle;
+			search_handle = 0;
+			CallbackCancelAddressSearch(handle);
+		}
+	}
+
+	@Override
+	public void onBackPressed() {
+		if (search_handle != 0 && !incremental) {
+			// stop the search, but keep the results found so far. They are incomplete, so not cached.
+			cancelSearch();
+			return;
+		}
+		super.onBackPressed();
+	}
+
+	@Override
+	protected void onDestroy() {
+		handler.removeCallbacks(typed_search);
+		cancelSearch();
+		super.onDestroy();
+	}
+
+	/**
+	 * @brief Searches for the typed query, showing the results below the query.
+	 *
+	 * A running search is cancelled. If the query is a single word which extends the previous query of a
+	 * single word and its results are complete, those results are filtered instead of searching again, as
+	 * they include all results of the longer query.
+	 */
+	private void searchTyped() {
+		String query = typed_query.trim();
+		String[] words = NavitTextNormalizer.words(NavitTextNormalizer.normalize(query));
+		/* Whether a query extends another is decided without transliteration, as by the native search */
+		String[] folded = NavitTextNormalizer.words(NavitTextNormalizer.fold(query));
+		if (query.length() < MIN_QUERY_LENGTH || words.length == 0) {
+			cancelSearch();
+			incremental = false;
+			results_view.setVisibility(View.GONE);
+			last_addresses_view.setVisibility(View.VISIBLE);
+			return;
 		}
+		incremental = true;
+		last_addresses_view.setVisibility(View.GONE);
+		results_view.setVisibility(View.VISIBLE);
+		mAddressString = query;
+		last_address_search_string = query;
+
+		if (search_handle == 0 && results.isComplete() && results_words != null
+		        && mCountry.equals(results_country) && NavitTextNormalizer.isRefinement(folded, results_words)) {
+			results.retainMatching(words);
+			results_words = folded;
+			addresses_shown.reset();
+			showIncrementalResults();
+			return;
+		}
+
+		cancelSearch();
+		results.clear();
+		addresses_shown.reset();
+		last_update = 0;
+		search_progress.setVisibility(View.VISIBLE);
+		search_status.setText(Navit.T("Loading search results"));
+		// typed words are incomplete, so they are always searched as prefixes
+		results_words = folded;
+		results_country = mCountry;
+		startSearch(true, query);
+	}
+
+	/**
+	 * @brief Starts a native search, or takes its results from the cache or the search index, if enabled.
+	 *
+	 * Either way, finishAddressSearch() is called once all results were added, for cached results
+	 * before this returns.
+	 */
+	private void startSearch(boolean partial, String query) {
+		String key = NavitAddressCache.key(mCountry, partial, query);
+		NavitAddressResults cached = NavitAddressCache.getInstance().get(key);
+		if (cached != null) {
+			results.addAll(cached);
+			results.setComplete(true);
+			finishAddressSearch();
+			return;
+		}
+		NavitSearchIndex index = NavitSearchIndex.getInstance(this);
+		if (index != null && index.search(query, partial, mCountry, results)) {
+			finishAddressSearch();
+			return;
+		}
+		search_key = key;
+		search_handle = CallbackStartAddressSearch(partial ? 1 : 0, mCountry, query);
+	}
 
-		addressesFound.setAdapter(addressList);
+	private void showIncrementalResults() {
+		updateResults(true);
+		addresses_shown.rank();
+		search_progress.setVisibility(View.GONE);
+		if (results.isEmpty())
+			search_status.setText(getString(R.string.address_search_not_found));
+	}
+
+	private View createResultsView() {
+		LinearLayout layout = new LinearLayout(this);
+		layout.setOrientation(LinearLayout.VERTICAL);
+		LinearLayout status_layout = new LinearLayout(this);
+		status_layout.setOrientation(LinearLayout.HORIZONTAL);
+		status_layout.setGravity(Gravity.CENTER_VERTICAL);
+		search_progress = new ProgressBar(this);
+		search_progress.setIndeterminate(true);
+		search_status = new TextView(this);
+		search_status.setPadding(4, 4, 4, 4);
+		search_status.setText(Navit.T("Loading search results"));
+		status_layout.addView(search_progress, new LinearLayout.LayoutParams(LayoutParams.WRAP_CONTENT,
+		        LayoutParams.WRAP_CONTENT));
+		status_layout.addView(search_status);
 
+		ListView addressesFound = new ListView(this);
+		addressesFound.setFastScrollEnabled(true);
+		addresses_shown = new AddressAdapter();
+		addressesFound.setAdapter(addresses_shown);
 		addressesFound.setOnItemClickListener(new OnItemClickListener() {
 			public void onItemClick(AdapterView<?> arg0, View arg1, int arg2, long arg3) {
-				NavitAddress addressSelected = addresses_shown.get(arg2);
+				int index = addresses_shown.getResultIndex(arg2);
 				Intent resultIntent = new Intent();
-				
-				resultIntent.putExtra("lat", addressSelected.lat);
-				resultIntent.putExtra("lon", addressSelected.lon);
-				resultIntent.putExtra("q", addressSelected.addr);
+
+				resultIntent.putExtra("lat", results.getLat(index));
+				resultIntent.putExtra("lon", results.getLon(index));
+				resultIntent.putExtra("q", results.getAddress(index));
 
 				setResult(Activity.RESULT_OK, resultIntent);
 				finish();
 			}
 		});
 
-		setContentView(addressesFound);
-		search_results_wait.dismiss();
+		layout.addView(status_layout);
+		layout.addView(addressesFound);
+		return layout;
 	}
 
-	public native long CallbackStartAddressSearch(int partial_match, String country, String s);
-	public native void CallbackCancelAddressSearch(long handle);
+	void executeSearch() {
+		incremental = false;
+		results.clear();
+		results_words = null;
+		last_update = 0;
+		setContentView(createResultsView());
+		startSearch(mPartialSearch, mAddressString);
+	}
 
-	@Override
-	protected Dialog onCreateDialog(int id) {
-		search_results_wait = new ProgressDialog(this);
-		search_results_wait.setProgressStyle(ProgressDialog.STYLE_HORIZONTAL);
-		search_results_wait.setTitle("Loading search results");
-		search_results_wait.setMessage("--");
-		search_results_wait.setCancelable(true);
-		search_results_wait.setProgress(0);
-		search_results_wait.setMax(10);
-		
-		Addresses_found = new ArrayList<NavitAddress>();
-		search_results_towns = 0;
-		search_results_streets = 0;
-		search_results_streets_hn = 0;
-
-		search_handle = CallbackStartAddressSearch(mPartialSearch ? 1 : 0, mCountry, mAddressString);
-
-		search_results_wait.setOnCancelListener(new DialogInterface.OnCancelListener() {
-			@Override
-			public void onCancel(DialogInterface dialog) {
-				CallbackCancelAddressSearch(search_handle);
-				search_handle = 0;
-				search_results_wait.dismiss();
+	/**
+	 * @brief Shows the search results as they arrive, and the best of them first once the search is complete.
+	 *
+	 * Holds the indices of the shown results only. While results arrive, towns are shown as long as no
+	 * street was found. Once ranked, all results are shown: the best MAX_RANKED_RESULTS by rank, then the
+	 * others in the order they were found.
+	 */
+	private class AddressAdapter extends BaseAdapter {
+		private int[]   shown      = new int[64];
+		private int     count;
+		/* The number of results looked at so far */
+		private int     scanned;
+		private boolean hide_towns;
+		private boolean ranked;
+
+		/** @brief Shows the results from the start, after they were cleared or filtered. */
+		void reset() {
+			count = 0;
+			scanned = 0;
+			hide_towns = false;
+			ranked = false;
+			update();
+			notifyDataSetChanged();
+		}
+
+		/** @brief Shows the best results first, in the order of their rank, then all others. */
+		void rank() {
+			long start = System.currentTimeMillis();
+			NavitAddressRanker ranker = new NavitAddressRanker(mAddressString, NavitVehicle.lastLocation);
+			int[] best = ranker.rank(results, MAX_RANKED_RESULTS);
+			int size = results.size();
+			boolean[] is_best = new boolean[size];
+			shown = new int[Math.max(64, size)];
+			count = 0;
+			for (int index : best) {
+				is_best[index] = true;
+				shown[count++] = index;
 			}
-		});
-		return search_results_wait;
-	}
-	
-	void executeSearch() {
-		showDialog(0);
+			for (int i = 0; i < size; i++) {
+				if (!is_best[i])
+					shown[count++] = i;
+			}
+			ranked = true;
+			notifyDataSetChanged();
+			Log.d(TAG, "Ranked " + results.size() + " addresses in " + (System.currentTimeMillis() - start) + " ms");
+		}
+
+		void update() {
+			if (ranked)
+				return;
+			if (!hide_towns && results.getCount(NavitAddressResults.TYPE_STREET) > 0) {
+				hide_towns = true;
+				count = 0;
+				scanned = 0;
+			}
+			int size = results.size();
+			if (scanned == size)
+				return;
+			for (; scanned < size; scanned++) {
+				if (hide_towns && results.getType(scanned) == NavitAddressResults.TYPE_TOWN)
+					continue;
+				if (count == shown.length) {
+					int[] new_shown = new int[Math.max(64, shown.length * 2)];
+					System.arraycopy(shown, 0, new_shown, 0, count);
+					shown = new_shown;
+				}
+				shown[count++] = scanned;
+			}
+			notifyDataSetChanged();
+		}
+
+		int getResultIndex(int position) {
+			return shown[position];
+		}
+
+		public int getCount() {
+			return count;
+		}
+
+		public Object getItem(int position) {
+			return results.getAddress(shown[position]);
+		}
+
+		public long getItemId(int position) {
+			return shown[position];
+		}
+
+		public View getView(int position, View convertView, ViewGroup parent) {
+			TextView view = (TextView) convertView;
+			if (view == null)
+				view = (TextView) getLayoutInflater().inflate(android.R.layout.simple_list_item_1, parent, false);
+			view.setText(results.getAddress(shown[position]));
+			return view;
+		}
 	}
 }
-
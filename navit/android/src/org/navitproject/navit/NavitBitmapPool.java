@@ -0,0 +1,152 @@
+/**
+ * Navit, a modular navigation system.
+ * Copyright (C) 2005-2008 Navit Team
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * version 2 as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor,
+ * Boston, MA  02110-1301, USA.
+ */
+
+package org.navitproject.navit;
+
+import java.util.ArrayList;
+
+import android.graphics.Bitmap;
+import android.util.Log;
+
+/**
+ * @brief A pool of bitmaps for the map and overlay buffers.
+ *
+ * Bitmaps released to the pool are kept for reuse by a later request of the same size and
+ * configuration, so resizing the screen or OSD items does not allocate new pixel memory each time.
+ * Once the released bitmaps exceed the size limit, the oldest ones are recycled.
+ */
+public class NavitBitmapPool {
+	private final ArrayList<Bitmap> free = new ArrayList<Bitmap>();
+	private long max_bytes;
+	private long free_bytes;
+	private long used_bytes;
+	private long peak_bytes;
+	private int hits;
+	private int misses;
+
+	/**
+	 * @brief Creates a new pool.
+	 *
+	 * @param max_bytes The maximum number of bytes held by bitmaps which are not in use
+	 */
+	public NavitBitmapPool(long max_bytes)
+	{
+		this.max_bytes = max_bytes;
+	}
+
+	private static long bytes(Bitmap bitmap)
+	{
+		return (long)bitmap.getRowBytes() * bitmap.getHeight();
+	}
+
+	/**
+	 * @brief Returns a cleared, mutable bitmap.
+	 *
+	 * @param w The width of the bitmap
+	 * @param h The height of the bitmap
+	 * @param config The pixel format of the bitmap
+	 */
+	public synchronized Bitmap get(int w, int h, Bitmap.Config config)
+	{
+		Bitmap ret = null;
+		for (int i = 0; i < free.size(); i++) {
+			Bitmap bitmap = free.get(i);
+			if (bitmap.getWidth() == w && bitmap.getHeight() == h && bitmap.getConfig() == config) {
+				free.remove(i);
+				free_bytes -= bytes(bitmap);
+				ret = bitmap;
+				break;
+			}
+		}
+		if (ret != null) {
+			hits++;
+			ret.eraseColor(0);
+		} else {
+			misses++;
+			ret = Bitmap.createBitmap(w, h, config);
+		}
+		used_bytes += bytes(ret);
+		if (used_bytes + free_bytes > peak_bytes)
+			peak_bytes = used_bytes + free_bytes;
+		return ret;
+	}
+
+	/**
+	 * @brief Returns a bitmap obtained from {@link #get(int, int, Bitmap.Config)} to the pool.
+	 *
+	 * The caller must not use the bitmap afterwards.
+	 *
+	 * @param bitmap The bitmap, may be {@code null}
+	 */
+	public synchronized void release(Bitmap bitmap)
+	{
+		if (bitmap == null || bitmap.isRecycled())
+			return;
+		long size = bytes(bitmap);
+		used_bytes -= size;
+		free.add(bitmap);
+		free_bytes += size;
+		trim(max_bytes);
+	}
+
+	private void trim(long limit)
+	{
+		while (free_bytes > limit && !free.isEmpty()) {
+			Bitmap bitmap = free.remove(0);
+			free_bytes -= bytes(bitmap);
+			bitmap.recycle();
+		}
+	}
+
+	/**
+	 * @brief Sets the maximum number of bytes held by bitmaps which are not in use.
+	 *
+	 * @param max_bytes The new limit, 0 to recycle bitmaps as soon as they are released
+	 */
+	public synchronized void setMaxBytes(long max_bytes)
+	{
+		Log.d("NavitBitmapPool", "max_bytes=" + max_bytes);
+		this.max_bytes = max_bytes;
+		trim(max_bytes);
+	}
+
+	/** @brief Returns the number of requests served from the pool. */
+	public synchronized int getHits()
+	{
+		return hits;
+	}
+
+	/** @brief Returns the number of requests which needed a new bitmap. */
+	public synchronized int getMisses()
+	{
+		return misses;
+	}
+
+	/** @brief Returns the highest number of bytes held by bitmaps from this pool, in use or not. */
+	public synchronized long getPeakBytes()
+	{
+		return peak_bytes;
+	}
+
+	/** @brief Returns the number of bytes currently held by bitmaps from this pool, in use or not. */
+	public synchronized long getBytes()
+	{
+		return used_bytes + free_bytes;
+	}
+}
@@ -2,6 +2,7 @@ package org.navitproject.navit;
 
 
 import java.io.File;
+import java.util.HashMap;
 import android.app.AlertDialog;
 import android.app.Dialog;
 import android.app.ProgressDialog;
@@ -15,7 +16,7 @@ import android.widget.ArrayAdapter;
 import android.widget.Toast;
 import android.os.Environment;
 
-public class NavitDialogs extends Handler{
+public class NavitDialogs extends Handler implements NavitDownloadQueue.Listener {
 	// Dialogs
 	public static final int           DIALOG_MAPDOWNLOAD               = 1;
 	public static final int           DIALOG_BACKUP_RESTORE            = 2;
@@ -23,7 +24,6 @@ public class NavitDialogs extends Handler{
 	
 	// dialog messages
 	static final int MSG_MAP_DOWNLOAD_FINISHED   = 0;
-	static final int MSG_PROGRESS_BAR          = 1;
 	static final int MSG_TOAST                 = 2;
 	static final int MSG_TOAST_LONG            = 3;
 	static final int MSG_POSITION_MENU         = 6;
@@ -32,7 +32,10 @@ public class NavitDialogs extends Handler{
 	static Handler mHandler;
 
 	private ProgressDialog                    mapdownloader_dialog     = null;
-	private NavitMapDownloader                mapdownloader            = null;
+	private boolean                           mapdownloader_shown      = false;
+	private NavitDownloadQueue                download_queue;
+	/* Downloaded and total bytes of each running download, for the overall progress */
+	private HashMap<Integer, long[]>          download_progress        = new HashMap<Integer, long[]>();
 
 	private Navit mActivity;
 
@@ -40,6 +43,39 @@ public class NavitDialogs extends Handler{
 		super();
 		mActivity = activity;
 		mHandler = this;
+		download_queue = NavitDownloadQueue.getInstance(activity);
+		download_queue.addListener(this);
+	}
+
+	/** @brief Stops receiving download progress, when the activity goes away. */
+	public void destroy() {
+		download_queue.removeListener(this);
+	}
+
+	public void onDownloadProgress(int map_id, long position_bytes, long maximum_bytes, String info)
+	{
+		download_progress.put(map_id, new long[] { position_bytes, maximum_bytes });
+		if (!mapdownloader_shown)
+			return;
+		long position = 0;
+		long maximum = 0;
+		for (long[] progress : download_progress.values()) {
+			position += progress[0];
+			maximum += progress[1];
+		}
+		int queued = download_queue.getActiveCount() + download_queue.getPendingCount();
+		if (queued > 1)
+			info += "\n" + String.format(Navit.T("%d maps queued"), queued);
+		mapdownloader_dialog.setMax((int) (maximum / 1024));
+		mapdownloader_dialog.setProgress((int) (position / 1024));
+		mapdownloader_dialog.setTitle(Navit.T("Map download"));
+		mapdownloader_dialog.setMessage(info);
+	}
+
+	public void onDownloadFinished(int map_id, String map_path, boolean success)
+	{
+		download_progress.remove(map_id);
+		sendDialogMessage(MSG_MAP_DOWNLOAD_FINISHED, map_path, null, -1, success ? 1 : 0, map_id);
 	}
 
 	static public void sendDialogMessage(int what, String title, String text, int dialog_num, int value1, int value2)
@@ -64,9 +100,12 @@ public class NavitDialogs extends Handler{
 		{
 		case MSG_MAP_DOWNLOAD_FINISHED :
 		{
-			// dismiss dialog, remove dialog
-			mActivity.dismissDialog(DIALOG_MAPDOWNLOAD);
-			mActivity.removeDialog(DIALOG_MAPDOWNLOAD);
+			// dismiss dialog, remove dialog, once the whole queue is done
+			if (mapdownloader_shown && download_queue.getActiveCount() == 0
+			        && download_queue.getPendingCount() == 0) {
+				mActivity.dismissDialog(DIALOG_MAPDOWNLOAD);
+				mActivity.removeDialog(DIALOG_MAPDOWNLOAD);
+			}
 			if (msg.getData().getInt("value1") == 1) {
 				Message msg_out =
 				        Message.obtain(Navit.N_NavitGraphics.callback_handler,
@@ -78,21 +117,14 @@ public class NavitDialogs extends Handler{
 				                NavitGraphics.msg_type.CLB_CALL_CMD.ordinal());
 				Bundle b = new Bundle();
 				int mi=msg.getData().getInt("value2");
-				double lon=(Double.parseDouble(NavitMapDownloader.osm_maps[mi].lon1)+Double.parseDouble(NavitMapDownloader.osm_maps[mi].lon2))/2.0;
-				double lat=(Double.parseDouble(NavitMapDownloader.osm_maps[mi].lat1)+Double.parseDouble(NavitMapDownloader.osm_maps[mi].lat2))/2.0;
+				double lon=(NavitMapDownloader.getMaps()[mi].min_lon+NavitMapDownloader.getMaps()[mi].max_lon)/2.0;
+				double lat=(NavitMapDownloader.getMaps()[mi].min_lat+NavitMapDownloader.getMaps()[mi].max_lat)/2.0;
 				b.putString("cmd", "set_center(\""+ lon +" "+ lat + "\",1); zoom=256");
 				msg_out.setData(b);
 				msg_out.sendToTarget();
 			}
 			break;
 		}
-		case MSG_PROGRESS_BAR :
-			// change progressbar values
-			mapdownloader_dialog.setMax(msg.getData().getInt("value1"));
-			mapdownloader_dialog.setProgress(msg.getData().getInt("value2"));
-			mapdownloader_dialog.setTitle(msg.getData().getString(("title")));
-			mapdownloader_dialog.setMessage(msg.getData().getString(("text")));
-			break;
 		case MSG_TOAST :
 			Toast.makeText(mActivity, msg.getData().getString(("text")), Toast.LENGTH_SHORT).show();
 			break;
@@ -105,12 +137,12 @@ public class NavitDialogs extends Handler{
 			Log.d("Navit", "PRI id=" + download_map_id);
 			// set map id to download
 
-			// show the map download progressbar, and download the map
+			// show the map download progressbar, and queue the map
 			if (download_map_id > -1)
 			{
-				mapdownloader = new NavitMapDownloader(download_map_id);
+				download_queue.enqueue(download_map_id);
 				mActivity.showDialog(NavitDialogs.DIALOG_MAPDOWNLOAD);
-				mapdownloader.start();
+				mapdownloader_shown = true;
 			}
 		}
 		break;
@@ -136,13 +168,22 @@ public class NavitDialogs extends Handler{
 				mapdownloader_dialog.setCancelable(true);
 				mapdownloader_dialog.setProgress(0);
 				mapdownloader_dialog.setMax(200);
+				// hiding the dialog leaves the downloads running, only the button stops them
+				mapdownloader_dialog.setButton(DialogInterface.BUTTON_NEGATIVE,
+						mActivity.getString(android.R.string.cancel), new DialogInterface.OnClickListener()
+				{
+					public void onClick(DialogInterface dialog, int which)
+					{
+						Log.e("Navit", "cancel: mapdownloader_dialog");
+						download_queue.cancelAll();
+					}
+				});
 				DialogInterface.OnDismissListener onDismissListener = new DialogInterface.OnDismissListener()
 				{
 					public void onDismiss(DialogInterface dialog)
 					{
 						Log.e("Navit", "onDismiss: mapdownloader_dialog");
-						if(mapdownloader!=null)
-							mapdownloader.stop_thread();
+						mapdownloader_shown = false;
 					}
 				};
 				mapdownloader_dialog.setOnDismissListener(onDismissListener);
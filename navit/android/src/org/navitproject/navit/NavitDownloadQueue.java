@@ -0,0 +1,260 @@
+/**
+ * Navit, a modular navigation system.
+ * Copyright (C) 2005-2008 Navit Team
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * version 2 as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor,
+ * Boston, MA  02110-1301, USA.
+ */
+
+package org.navitproject.navit;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+/**
+ * @brief A queue of map downloads which runs in the background.
+ *
+ * Any number of maps can be queued, a limited number of them is downloaded at the same time. The queue
+ * is saved to the preferences, so downloads which were interrupted by the end of the process continue
+ * after the next start, resuming their partial files. Progress is reported to listeners on the main
+ * thread, so the downloads do not depend on any dialog.
+ */
+public class NavitDownloadQueue
+{
+	/**
+	 * @brief Receives the progress of the queued downloads, on the main thread.
+	 */
+	public interface Listener
+	{
+		/**
+		 * @brief Called regularly while a map is downloaded.
+		 *
+		 * @param map_id The index of the map in {@code NavitMapDownloader.getMaps()}
+		 * @param position_bytes The number of bytes downloaded
+		 * @param maximum_bytes The size of the map
+		 * @param info A description of the state of the download
+		 */
+		void onDownloadProgress(int map_id, long position_bytes, long maximum_bytes, String info);
+
+		/**
+		 * @brief Called when a download ended.
+		 *
+		 * @param map_id The index of the map in {@code NavitMapDownloader.getMaps()}
+		 * @param map_path The path of the map file
+		 * @param success true if the map is complete, false if the download failed or was cancelled
+		 */
+		void onDownloadFinished(int map_id, String map_path, boolean success);
+	}
+
+	private static final String                    TAG                 = "NavitDownloadQueue";
+	private static final String                    PREF_QUEUE          = "downloadQueue";
+	private static final String                    PREF_CONCURRENCY    = "downloadConcurrency";
+	private static final String                    PREF_RATE_LIMIT     = "downloadRateLimit";
+	private static final int                       DEFAULT_CONCURRENCY = 2;
+
+	private static NavitDownloadQueue              instance;
+
+	private final SharedPreferences                prefs;
+	private final Handler                          handler             = new Handler(Looper.getMainLooper());
+	private final CopyOnWriteArrayList<Listener>   listeners           = new CopyOnWriteArrayList<Listener>();
+	private final ArrayList<Integer>               pending             = new ArrayList<Integer>();
+	private final HashMap<Integer, NavitMapDownloader> active          = new HashMap<Integer, NavitMapDownloader>();
+	private final NavitTransferController          transfer            = new NavitTransferController();
+	private int                                    max_concurrent;
+	private boolean                                started;
+
+	/**
+	 * @brief Returns the queue, restoring it from the preferences when it is first used.
+	 */
+	public static synchronized NavitDownloadQueue getInstance(Context context) {
+		if (instance == null) {
+			instance = new NavitDownloadQueue(context.getApplicationContext().getSharedPreferences(Navit.NAVIT_PREFS,
+			        Context.MODE_PRIVATE));
+		}
+		return instance;
+	}
+
+	private NavitDownloadQueue(SharedPreferences prefs) {
+		this.prefs = prefs;
+		max_concurrent = Math.max(1, prefs.getInt(PREF_CONCURRENCY, DEFAULT_CONCURRENCY));
+		transfer.setRateLimit(prefs.getLong(PREF_RATE_LIMIT, 0));
+		/* The queue is saved by catalog name, as map indices change when a new catalog is loaded */
+		String saved = prefs.getString(PREF_QUEUE, "");
+		if (saved.length() > 0) {
+			for (String name : saved.split("\n")) {
+				int map_id = NavitMapDownloader.findMap(name);
+				if (map_id >= 0 && !pending.contains(map_id))
+					pending.add(map_id);
+			}
+		}
+		if (!pending.isEmpty())
+			Log.d(TAG, "Restored " + pending.size() + " queued downloads");
+	}
+
+	/**
+	 * @brief Starts the downloads restored from the preferences.
+	 *
+	 * Must be called once the map directory is known.
+	 */
+	public synchronized void start() {
+		started = true;
+		startNext();
+	}
+
+	/**
+	 * @brief Adds a map to the queue.
+	 *
+	 * @return false if the map is already queued or being downloaded
+	 */
+	public synchronized boolean enqueue(int map_id) {
+		if (pending.contains(map_id) || active.containsKey(map_id))
+			return false;
+		pending.add(map_id);
+		save();
+		started = true;
+		startNext();
+		return true;
+	}
+
+	/**
+	 * @brief Removes a map from the queue, stopping its download if it already runs.
+	 *
+	 * The partial file of a running download is kept, so the download resumes if the map is queued again.
+	 */
+	public synchronized void cancel(int map_id) {
+		pending.remove(Integer.valueOf(map_id));
+		NavitMapDownloader downloader = active.get(map_id);
+		if (downloader != null)
+			downloader.stop_thread();
+		save();
+	}
+
+	/** @brief Removes all maps from the queue and stops all downloads. */
+	public synchronized void cancelAll() {
+		pending.clear();
+		for (NavitMapDownloader downloader : active.values())
+			downloader.stop_thread();
+		save();
+	}
+
+	/**
+	 * @brief Sets the number of maps downloaded at the same time.
+	 */
+	public synchronized void setMaxConcurrent(int max_concurrent) {
+		this.max_concurrent = Math.max(1, max_concurrent);
+		prefs.edit().putInt(PREF_CONCURRENCY, this.max_concurrent).commit();
+		startNext();
+	}
+
+	public synchronized int getMaxConcurrent() {
+		return max_concurrent;
+	}
+
+	/**
+	 * @brief Limits the rate of all downloads together, e.g. on metered connections.
+	 *
+	 * @param bytes_per_second The limit, or 0 for no limit
+	 */
+	public void setRateLimit(long bytes_per_second) {
+		transfer.setRateLimit(bytes_per_second);
+		prefs.edit().putLong(PREF_RATE_LIMIT, transfer.getRateLimit()).commit();
+	}
+
+	/** @brief Returns the controller shared by all downloads, which also holds their metrics. */
+	public NavitTransferController getTransferController() {
+		return transfer;
+	}
+
+	/** @brief Returns the number of maps being downloaded. */
+	public synchronized int getActiveCount() {
+		return active.size();
+	}
+
+	/** @brief Returns the number of maps waiting for their download to start. */
+	public synchronized int getPendingCount() {
+		return pending.size();
+	}
+
+	/** @brief Returns true if the map is waiting or being downloaded. */
+	public synchronized boolean isQueued(int map_id) {
+		return pending.contains(map_id) || active.containsKey(map_id);
+	}
+
+	public void addListener(Listener listener) {
+		listeners.addIfAbsent(listener);
+	}
+
+	public void removeListener(Listener listener) {
+		listeners.remove(listener);
+	}
+
+	private void startNext() {
+		if (!started)
+			return;
+		while (active.size() < max_concurrent && !pending.isEmpty()) {
+			/* Start the largest map first: the small ones fill the gaps at the end, so the whole queue
+			 * finishes sooner than in the order the maps were added */
+			int next = 0;
+			for (int i = 1; i < pending.size(); i++) {
+				if (NavitMapDownloader.getMaps()[pending.get(i)].est_size_bytes
+				        > NavitMapDownloader.getMaps()[pending.get(next)].est_size_bytes)
+					next = i;
+			}
+			int map_id = pending.remove(next);
+			NavitMapDownloader downloader = new NavitMapDownloader(map_id, this);
+			active.put(map_id, downloader);
+			downloader.start();
+		}
+	}
+
+	private void save() {
+		NavitMapDownloader.osm_map_values[] maps = NavitMapDownloader.getMaps();
+		StringBuilder names = new StringBuilder();
+		for (int map_id : active.keySet())
+			names.append(maps[map_id].name).append('\n');
+		for (int map_id : pending)
+			names.append(maps[map_id].name).append('\n');
+		prefs.edit().putString(PREF_QUEUE, names.toString()).commit();
+	}
+
+	void downloadProgress(final int map_id, final long position_bytes, final long maximum_bytes, final String info) {
+		handler.post(new Runnable() {
+			public void run() {
+				for (Listener listener : listeners)
+					listener.onDownloadProgress(map_id, position_bytes, maximum_bytes, info);
+			}
+		});
+	}
+
+	void downloadFinished(final int map_id, final String map_path, final boolean success) {
+		synchronized (this) {
+			active.remove(map_id);
+			save();
+			startNext();
+		}
+		handler.post(new Runnable() {
+			public void run() {
+				for (Listener listener : listeners)
+					listener.onDownloadFinished(map_id, map_path, success);
+			}
+		});
+	}
+}
@@ -36,12 +36,13 @@ import android.os.Message;
 import android.os.StatFs;
 import android.util.Log;
 import android.view.View;
+import android.widget.AdapterView;
 import android.widget.ExpandableListView;
 import android.widget.RelativeLayout;
 import android.widget.SimpleExpandableListAdapter;
 import android.widget.TextView;
 
-public class NavitDownloadSelectMapActivity extends ExpandableListActivity {
+public class NavitDownloadSelectMapActivity extends ExpandableListActivity implements NavitMapInventory.Listener {
 
 	private static SimpleExpandableListAdapter        adapter                      = null;
 	private static final String                       MAP_BULLETPOINT              = " * ";
@@ -53,12 +54,21 @@ public class NavitDownloadSelectMapActivity extends ExpandableListActivity {
 	public void onCreate(Bundle savedInstanceState) {
 		super.onCreate(savedInstanceState);
 
+		// a new catalog is shown from the next start on
+		NavitMapCatalog.refreshInBackground();
 		if (adapter == null) {
 			adapter = createAdapter();
 		}
-		updateDownloadedMaps();
-		updateMapsForLocation(NavitMapDownloader.osm_maps);
+		NavitMapInventory inventory = NavitMapInventory.getInstance();
+		inventory.addListener(this);
+		updateDownloadedMaps(inventory.getMaps());
+		updateMapsForLocation(NavitMapDownloader.getMaps());
 		setListAdapter(adapter);
+		getExpandableListView().setOnItemLongClickListener(new AdapterView.OnItemLongClickListener() {
+			public boolean onItemLongClick(AdapterView<?> parent, View view, int position, long id) {
+				return queueMap(getExpandableListView().getExpandableListPosition(position));
+			}
+		});
 		try {
 			setTitle(String.valueOf(getFreeSpace() / 1024 / 1024) + "MB available");
 		} catch (Exception e) {
@@ -76,9 +86,20 @@ public class NavitDownloadSelectMapActivity extends ExpandableListActivity {
 		return (long)fsInfo.getAvailableBlocks() * fsInfo.getBlockSize();
 	}
 
-	private void updateDownloadedMaps() {
+	@Override
+	protected void onDestroy() {
+		super.onDestroy();
+		NavitMapInventory.getInstance().removeListener(this);
+	}
+
+	public void onMapsChanged(NavitMap[] maps) {
+		updateDownloadedMaps(maps);
+		adapter.notifyDataSetChanged();
+	}
+
+	private void updateDownloadedMaps(NavitMap[] maps) {
 		downloaded_maps_childs.clear();
-		for (NavitMap map : NavitMapDownloader.getAvailableMaps()) {
+		for (NavitMap map : maps) {
 			HashMap<String, String> child = new HashMap<String, String>();
 			child.put("map_name", map.mapName + " " + (map.size() / 1024 / 1024) + "MB");
 			child.put("map_location", map.getLocation());
@@ -107,18 +128,16 @@ public class NavitDownloadSelectMapActivity extends ExpandableListActivity {
 			} else currentLocationKnown = true;
 
 			if (currentLocation != null) {
-				// if this map contains data to our current position, add it to
-				// the
-				// MapsOfCurrentLocation-list
-				for (int currentMapIndex = 0; currentMapIndex < osm_maps.length; currentMapIndex++) {
-					if (osm_maps[currentMapIndex].isInMap(currentLocation)) {
-						HashMap<String, String> currentPositionMapChild = new HashMap<String, String>();
-						currentPositionMapChild.put("map_name", osm_maps[currentMapIndex].map_name + " "
-						        + (osm_maps[currentMapIndex].est_size_bytes / 1024 / 1024) + "MB");
-						currentPositionMapChild.put("map_index", String.valueOf(currentMapIndex));
-
-						maps_current_position_childs.add(currentPositionMapChild);
-					}
+				// add the maps containing our current position to the
+				// MapsOfCurrentLocation-list, smallest first
+				for (int currentMapIndex : NavitMapDownloader.getMapIndex().query(currentLocation.getLatitude(),
+				        currentLocation.getLongitude())) {
+					HashMap<String, String> currentPositionMapChild = new HashMap<String, String>();
+					currentPositionMapChild.put("map_name", osm_maps[currentMapIndex].getMapName() + " "
+					        + (osm_maps[currentMapIndex].est_size_bytes / 1024 / 1024) + "MB");
+					currentPositionMapChild.put("map_index", String.valueOf(currentMapIndex));
+
+					maps_current_position_childs.add(currentPositionMapChild);
 				}
 			}
 		}
@@ -126,7 +145,7 @@ public class NavitDownloadSelectMapActivity extends ExpandableListActivity {
 
 	private SimpleExpandableListAdapter createAdapter() {
 
-		NavitMapDownloader.osm_map_values osm_maps[] = NavitMapDownloader.osm_maps;
+		NavitMapDownloader.osm_map_values osm_maps[] = NavitMapDownloader.getMaps();
 
 		ArrayList<HashMap<String, String>> resultGroups = new ArrayList<HashMap<String, String>>();
 		ArrayList<ArrayList<HashMap<String, String>>> resultChilds =
@@ -155,13 +174,13 @@ public class NavitDownloadSelectMapActivity extends ExpandableListActivity {
 				}
 				secList = new ArrayList<HashMap<String, String>>();
 				HashMap<String, String> map_info_hash = new HashMap<String, String>();
-				map_info_hash.put("category_name", osm_maps[currentMapIndex].map_name);
+				map_info_hash.put("category_name", osm_maps[currentMapIndex].getMapName());
 				resultGroups.add(map_info_hash);
 			}
 
 			HashMap<String, String> child = new HashMap<String, String>();
 			child.put("map_name", (osm_maps[currentMapIndex].level > 1 ? MAP_BULLETPOINT : "")
-			        + osm_maps[currentMapIndex].map_name + " "
+			        + osm_maps[currentMapIndex].getMapName() + " "
 			        + (osm_maps[currentMapIndex].est_size_bytes / 1024 / 1024) + "MB");
 			child.put("map_index", String.valueOf(currentMapIndex));
 
@@ -186,12 +205,8 @@ public class NavitDownloadSelectMapActivity extends ExpandableListActivity {
 		String map_index = child.get("map_index");
 		if (map_index != null) {
 			int mi=Integer.parseInt(map_index);
-			if(NavitMapDownloader.osm_maps[mi].est_size_bytes/1024/1024/950>=4) {
-				NavitDialogs.sendDialogMessage(NavitDialogs.MSG_TOAST_LONG, null, 
-					Navit.T("Sorry, we currently do not support maps above 3.8G on Android, please select a smaller one."),
-					 -1, 0, 0);
+			if (!isSupportedSize(mi))
 				return true;
-			}
 			Intent resultIntent = new Intent();
 			resultIntent.putExtra("map_index", mi);
 			setResult(Activity.RESULT_OK, resultIntent);
@@ -203,12 +218,46 @@ public class NavitDownloadSelectMapActivity extends ExpandableListActivity {
 		return true;
 	}
 
+	private boolean isSupportedSize(int mi) {
+		if(NavitMapDownloader.getMaps()[mi].est_size_bytes/1024/1024/950>=4) {
+			NavitDialogs.sendDialogMessage(NavitDialogs.MSG_TOAST_LONG, null, 
+				Navit.T("Sorry, we currently do not support maps above 3.8G on Android, please select a smaller one."),
+				 -1, 0, 0);
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 * @brief Adds the map at a list position to the download queue and keeps the list open, so several
+	 * maps can be queued in one go.
+	 */
+	private boolean queueMap(long packed_position) {
+		if (ExpandableListView.getPackedPositionType(packed_position) != ExpandableListView.PACKED_POSITION_TYPE_CHILD)
+			return false;
+		@SuppressWarnings("unchecked")
+		HashMap<String, String> child = (HashMap<String, String>) adapter.getChild(
+		        ExpandableListView.getPackedPositionGroup(packed_position),
+		        ExpandableListView.getPackedPositionChild(packed_position));
+		String map_index = child.get("map_index");
+		if (map_index == null)
+			return false;
+		int mi = Integer.parseInt(map_index);
+		if (isSupportedSize(mi) && NavitDownloadQueue.getInstance(this).enqueue(mi)) {
+			NavitDialogs.sendDialogMessage(NavitDialogs.MSG_TOAST, null,
+			        NavitMapDownloader.getMaps()[mi].getMapName() + " " + Navit.T("queued for download"), -1, 0, 0);
+		}
+		return true;
+	}
+
 	private void askForMapDeletion(final String map_location) {
 		AlertDialog.Builder deleteMapBox = new AlertDialog.Builder(this);
 		deleteMapBox.setTitle(R.string.map_delete); // Android also takes recource id
 		deleteMapBox.setCancelable(true);
 		
-		NavitMap maptoDelete = new NavitMap(map_location);
+		NavitMap maptoDelete = NavitMapInventory.getInstance().find(map_location);
+		if (maptoDelete == null)
+			maptoDelete = new NavitMap(map_location);
 		deleteMapBox.setMessage(maptoDelete.mapName + " " + String.valueOf(maptoDelete.size() / 1024 / 1024) + "MB");
 		
 
@@ -21,6 +21,9 @@ package org.navitproject.navit;
 
 import java.io.File;
 import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
 import java.util.ArrayList;
 
 import android.app.Activity;
@@ -37,6 +40,7 @@ import android.graphics.PointF;
 import android.graphics.Rect;
 import android.os.Build;
 import android.os.Handler;
+import android.os.HandlerThread;
 import android.os.Message;
 import android.util.FloatMath;
 import android.util.Log;
@@ -45,6 +49,8 @@ import android.view.Gravity;
 import android.view.KeyEvent;
 import android.view.MenuItem;
 import android.view.MotionEvent;
+import android.view.SurfaceHolder;
+import android.view.SurfaceView;
 import android.view.View;
 import android.view.ViewConfiguration;
 import android.view.ViewGroup.LayoutParams;
@@ -126,6 +132,291 @@ public class NavitGraphics
 		return ret;
 	}
 
+	/* Default limit for bitmaps kept in bitmap_pool while not in use */
+	private static final long BITMAP_POOL_SIZE = 16 * 1024 * 1024;
+	/** @brief The pool the map and overlay bitmaps of all instances are taken from. */
+	static final NavitBitmapPool bitmap_pool = new NavitBitmapPool(BITMAP_POOL_SIZE);
+
+	/* Maximum size of the bitmaps in label_cache */
+	private static final long LABEL_CACHE_SIZE = 4 * 1024 * 1024;
+	/** @brief Pre-rendered labels, shared by all instances. */
+	static final NavitLabelCache label_cache = new NavitLabelCache(LABEL_CACHE_SIZE);
+	private static boolean use_label_cache;
+
+	/**
+	 * @brief Enables or disables drawing text through the label cache.
+	 *
+	 * @param enable Nonzero to draw labels from pre-rendered bitmaps, 0 to draw the text directly
+	 */
+	public void setLabelCache(int enable)
+	{
+		use_label_cache = (enable != 0);
+		if (!use_label_cache)
+			label_cache.clear();
+	}
+
+	/* Pixel format of the map bitmap of the root graphics; overlays need alpha and always use ARGB_8888 */
+	private Bitmap.Config bitmap_config = Bitmap.Config.ARGB_8888;
+
+	/**
+	 * @brief Sets the pixel format of the map bitmap.
+	 *
+	 * The map is opaque, so on devices with little memory bandwidth it can be rendered at 16 bits per
+	 * pixel, which halves memory use and blitting cost. Overlays are not affected.
+	 *
+	 * @param bpp The number of bits per pixel, 16 for RGB_565 or 32 for ARGB_8888
+	 */
+	public void setPixelFormat(int bpp)
+	{
+		Bitmap.Config config;
+		if (parent_graphics != null)
+			return;
+		if (bpp == 16)
+			config = Bitmap.Config.RGB_565;
+		else if (bpp == 32)
+			config = Bitmap.Config.ARGB_8888;
+		else {
+			Log.e("NavitGraphics", "setPixelFormat: unsupported bpp " + bpp + ", using 32");
+			config = Bitmap.Config.ARGB_8888;
+		}
+		if (config == bitmap_config)
+			return;
+		bitmap_config = config;
+		Log.d("NavitGraphics", "map pixel format " + config);
+		if (draw_bitmap != null)
+			handleResize(bitmap_w, bitmap_h);
+	}
+
+	/**
+	 * @brief Sets the maximum size of the bitmaps kept for reuse after a resize.
+	 *
+	 * @param size The limit in bytes
+	 */
+	public void setBitmapPoolSize(int size)
+	{
+		bitmap_pool.setMaxBytes(size);
+	}
+
+	/* Compositing state of the root graphics, used by NavitView.onDraw */
+	private final Rect dirty_rect = new Rect();
+	private final Rect clip_rect = new Rect();
+	private final Rect src_rect = new Rect();
+	private boolean base_dirty = true;
+	private long pixels_composited;
+
+	/**
+	 * @brief Schedules recompositing of an area of the root view after an overlay changed.
+	 *
+	 * Unlike a change of the map itself, this does not require the whole map bitmap to be redrawn.
+	 *
+	 * @param r The area to recomposite, in view coordinates
+	 */
+	private void invalidate_overlay(Rect r)
+	{
+		dirty_rect.union(r);
+		if (surface_view != null)
+			request_surface_frame();
+		else
+			view.invalidate(r);
+	}
+
+	/**
+	 * @brief Draws the map and all enabled overlays.
+	 *
+	 * @param canvas The canvas to draw on
+	 * @param partial_ok Whether only the dirty area needs to be drawn if the map itself did not change
+	 */
+	private void composite(Canvas canvas, boolean partial_ok)
+	{
+		Bitmap bitmap;
+		synchronized (buffer_lock) {
+			bitmap = display_bitmap;
+		}
+		if (bitmap == null)
+			return;
+		/* If only overlays changed since the last pass, recomposite just the area they cover.
+		 * With hardware acceleration the whole display list is rebuilt, so draw everything. */
+		boolean partial = partial_ok && !base_dirty && !dirty_rect.isEmpty()
+				&& !(Build.VERSION.SDK_INT >= 11 && canvas.isHardwareAccelerated())
+				&& canvas.getClipBounds(clip_rect) && dirty_rect.contains(clip_rect);
+		long pixels;
+		if (partial) {
+			src_rect.set(clip_rect);
+			src_rect.offset(-pos_x, -pos_y);
+			canvas.drawBitmap(bitmap, src_rect, clip_rect, null);
+			pixels = (long)clip_rect.width() * clip_rect.height();
+		} else {
+			canvas.drawBitmap(bitmap, pos_x, pos_y, null);
+			pixels = (long)bitmap.getWidth() * bitmap.getHeight();
+		}
+		if (overlay_disabled == 0)
+		{
+			for (NavitGraphics overlay : overlays)
+			{
+				if (overlay.overlay_disabled == 0)
+				{
+					Rect r=overlay.get_rect();
+					if (partial) {
+						if (!src_rect.setIntersect(r, clip_rect))
+							continue;
+						pixels += (long)src_rect.width() * src_rect.height();
+					} else {
+						pixels += (long)r.width() * r.height();
+					}
+					canvas.drawBitmap(overlay.draw_bitmap, r.left, r.top, null);
+				}
+			}
+		}
+		pixels_composited = pixels;
+		dirty_rect.setEmpty();
+		base_dirty = false;
+	}
+
+	/* These constants must be synchronized with enum graphics_android_backend in graphics_android.c. */
+	public static final int backend_bitmap = 0;
+	public static final int backend_surface = 1;
+
+	/* State of the surface backend, only used by the root graphics */
+	private SurfaceView surface_view;
+	private boolean surface_valid;
+	private boolean surface_frame_pending;
+	private static Method lockHardwareCanvas;
+
+	/* Frame time histogram, bucket i counts frames which took less than 2^i ms, the last one all others */
+	public static final int FRAME_HISTOGRAM_BUCKETS = 10;
+	private final int[] frame_histogram = new int[FRAME_HISTOGRAM_BUCKETS];
+	private long frame_start_ns;
+
+	/**
+	 * @brief Selects how the map is brought to the screen.
+	 *
+	 * With {@link #backend_bitmap}, {@code NavitView.onDraw} copies the map bitmap and the overlays to
+	 * the view. With {@link #backend_surface}, they are composited onto a {@code SurfaceView} behind
+	 * the view at the end of each frame, using a hardware accelerated canvas on API 26 and later. The
+	 * view then only handles input. Drawing into the map bitmap works the same way in both cases.
+	 *
+	 * @param backend The backend to use
+	 */
+	public void setBackend(int backend)
+	{
+		if (parent_graphics != null || (backend == backend_surface) == (surface_view != null))
+			return;
+		if (backend == backend_surface) {
+			if (Build.VERSION.SDK_INT >= 26 && lockHardwareCanvas == null) {
+				try {
+					lockHardwareCanvas = android.view.Surface.class.getMethod("lockHardwareCanvas");
+				} catch (Exception e) {
+					Log.e("NavitGraphics", "lockHardwareCanvas not available");
+				}
+			}
+			surface_view = new SurfaceView(activity);
+			surface_view.getHolder().addCallback(new SurfaceHolder.Callback() {
+				public void surfaceCreated(SurfaceHolder holder)
+				{
+					surface_valid = true;
+					base_dirty = true;
+					request_surface_frame();
+				}
+
+				public void surfaceChanged(SurfaceHolder holder, int format, int width, int height)
+				{
+					base_dirty = true;
+					request_surface_frame();
+				}
+
+				public void surfaceDestroyed(SurfaceHolder holder)
+				{
+					surface_valid = false;
+				}
+			});
+			relativelayout.addView(surface_view, 0);
+		} else {
+			relativelayout.removeView(surface_view);
+			surface_view = null;
+			surface_valid = false;
+		}
+		Log.d("NavitGraphics", "backend " + (surface_view != null ? "surface" : "bitmap"));
+		view.invalidate();
+	}
+
+	private final Runnable surface_frame_task = new Runnable()
+	{
+		public void run()
+		{
+			surface_frame_pending = false;
+			draw_surface_frame();
+		}
+	};
+
+	private void request_surface_frame()
+	{
+		if (surface_frame_pending)
+			return;
+		surface_frame_pending = true;
+		view.post(surface_frame_task);
+	}
+
+	/** @brief Composites the map and overlays onto the surface of the surface backend. */
+	private void draw_surface_frame()
+	{
+		if (surface_view == null || !surface_valid)
+			return;
+		SurfaceHolder holder = surface_view.getHolder();
+		Canvas canvas = null;
+		try {
+			if (lockHardwareCanvas != null)
+				canvas = (Canvas)lockHardwareCanvas.invoke(holder.getSurface());
+			else
+				canvas = holder.lockCanvas();
+		} catch (Exception e) {
+			Log.e("NavitGraphics", "Failed to lock surface: " + e);
+		}
+		if (canvas == null)
+			return;
+		try {
+			/* The contents of the surface are undefined after locking, so always draw everything */
+			canvas.drawColor(Color.BLACK);
+			composite(canvas, false);
+		} finally {
+			if (lockHardwareCanvas != null)
+				holder.getSurface().unlockCanvasAndPost(canvas);
+			else
+				holder.unlockCanvasAndPost(canvas);
+		}
+		frame_done();
+	}
+
+	/* Called when a frame has reached the screen */
+	private void frame_done()
+	{
+		if (frame_start_ns == 0)
+			return;
+		long ms = (System.nanoTime() - frame_start_ns) / 1000000;
+		int i = 0;
+		while (i < FRAME_HISTOGRAM_BUCKETS - 1 && ms >= (1L << i))
+			i++;
+		frame_histogram[i]++;
+		frame_start_ns = 0;
+	}
+
+	/**
+	 * @brief Returns the frame time histogram.
+	 *
+	 * Frame time is measured from the start of drawing a frame of the map to its composition on the
+	 * screen. Element i counts the frames which took less than 2^i milliseconds (and at least 2^(i-1)),
+	 * the last element all slower frames.
+	 */
+	public int[] getFrameTimeHistogram()
+	{
+		return frame_histogram.clone();
+	}
+
+	/** @brief Returns the number of pixels composited by the last call to {@code onDraw}. */
+	public long getPixelsComposited()
+	{
+		return pixels_composited;
+	}
+
 	private class NavitView extends View implements Runnable, MenuItem.OnMenuItemClickListener{
 		int               touch_mode = NONE;
 		float             oldDist    = 0;
@@ -178,19 +469,13 @@ public class NavitGraphics
 		protected void onDraw(Canvas canvas)
 		{
 			super.onDraw(canvas);
-			canvas.drawBitmap(draw_bitmap, pos_x, pos_y, null);
+			/* With the surface backend, the map is composited onto the SurfaceView behind this view */
+			if (surface_view == null)
+				composite(canvas, true);
 			if (overlay_disabled == 0)
 			{
 				// assume we ARE in map view mode!
 				in_map = true;
-				for (NavitGraphics overlay : overlays)
-				{
-					if (overlay.overlay_disabled == 0)
-					{
-						Rect r=overlay.get_rect();
-						canvas.drawBitmap(overlay.draw_bitmap, r.left, r.top, null);
-					}
-				}				
 			}
 			else
 			{
@@ -207,6 +492,8 @@ public class NavitGraphics
 					}
 				}
 			}
+			if (surface_view == null)
+				frame_done();
 		}
 		
 		@Override
@@ -750,7 +1037,7 @@ public class NavitGraphics
 		}
 		else
 		{
-			draw_bitmap = Bitmap.createBitmap(w, h, Bitmap.Config.ARGB_8888);
+			draw_bitmap = bitmap_pool.get(w, h, Bitmap.Config.ARGB_8888);
 			bitmap_w = w;
 			bitmap_h = h;
 			pos_x = x;
@@ -808,6 +1095,7 @@ public class NavitGraphics
 				case CLB_COUNTRY_CHOOSER:
 					break;
 				case CLB_LOAD_MAP:
+					NavitAddressCache.getInstance().clear();
 					CallbackMessageChannel(6, msg.getData().getString(("title")));
 					break;
 				case CLB_DELETE_MAP:
@@ -815,6 +1103,7 @@ public class NavitGraphics
 					toDelete.delete();
 				//fallthrough
 				case CLB_UNLOAD_MAP:
+					NavitAddressCache.getInstance().clear();
 					CallbackMessageChannel(7, msg.getData().getString(("title")));
 					break;
 				}
@@ -931,10 +1220,23 @@ public class NavitGraphics
 
 			adjustSystemBarsTintingViews();
 
-			draw_bitmap = Bitmap.createBitmap(w, h, Bitmap.Config.ARGB_8888);
-			draw_canvas = new Canvas(draw_bitmap);
+			render_sync();
+			Bitmap old_draw_bitmap = draw_bitmap;
+			Bitmap old_display_bitmap = display_bitmap;
+			draw_bitmap = bitmap_pool.get(w, h, bitmap_config);
+			if (draw_canvas == null)
+				draw_canvas = new Canvas(draw_bitmap);
+			else
+				draw_canvas.setBitmap(draw_bitmap);
+			synchronized (buffer_lock) {
+				display_bitmap = double_buffer ? bitmap_pool.get(w, h, bitmap_config) : draw_bitmap;
+			}
+			if (old_display_bitmap != old_draw_bitmap)
+				bitmap_pool.release(old_display_bitmap);
+			bitmap_pool.release(old_draw_bitmap);
 			bitmap_w = w;
 			bitmap_h = h;
+			base_dirty = true;
 			SizeChangedCallback(SizeChangedCallbackID, w, h);
 		}
 	}
@@ -987,30 +1289,472 @@ public class NavitGraphics
 	}
 
 
+	/* These constants must be synchronized with enum draw_buffer_op in graphics_android.c. */
+	public static final int draw_op_polyline = 1;
+	public static final int draw_op_polygon = 2;
+	public static final int draw_op_rectangle = 3;
+	public static final int draw_op_circle = 4;
+
+	private IntBuffer draw_buffer;
+	private int[] draw_buffer_copy;
+	private int frame_commands;
+	private int frame_batches;
+	private long frame_replay_ns;
+
+	/* Objects reused by the drawing methods, so redrawing the map does not allocate on the Java heap */
+	private final Path draw_path = new Path();
+	private final Path text_path = new Path();
+	private static final int DASH_CACHE_SIZE = 16;
+	private final int[][] dash_cache_keys = new int[DASH_CACHE_SIZE][];
+	private final android.graphics.DashPathEffect[] dash_cache_effects =
+			new android.graphics.DashPathEffect[DASH_CACHE_SIZE];
+	private int dash_cache_next;
+	private int frame_allocations;
+
+	/**
+	 * @brief Sets the buffer the native side queues draw commands in.
+	 *
+	 * The buffer wraps native memory owned by graphics_android.c. It is dropped with a null buffer
+	 * before graphics_destroy() frees that memory.
+	 *
+	 * @param buffer A direct buffer holding native-order ints, or null
+	 */
+	public void set_draw_buffer(ByteBuffer buffer)
+	{
+		if (buffer == null) {
+			draw_buffer = null;
+			draw_buffer_copy = null;
+			return;
+		}
+		draw_buffer = buffer.order(ByteOrder.nativeOrder()).asIntBuffer();
+		draw_buffer_copy = new int[draw_buffer.capacity()];
+	}
+
+	/**
+	 * @brief Replays the draw commands queued in the draw buffer.
+	 *
+	 * Each command is stored as its opcode, the length of its payload and the payload itself. The
+	 * payload of polylines and polygons has the same layout as the array passed to
+	 * {@link #draw_polyline(Paint, int[])} and {@link #draw_polygon(Paint, int[])}; rectangles and
+	 * circles start with line width and color, followed by their coordinates.
+	 *
+	 * @param paint The paint to draw with
+	 * @param len The number of ints used in the buffer
+	 * @param commands The number of commands in the buffer
+	 */
+	protected void draw_buffer_replay(Paint paint, int len, int commands)
+	{
+		frame_commands += commands;
+		frame_batches++;
+		if (render_handler != null) {
+			RenderBatch batch = obtain_render_batch();
+			draw_buffer.position(0);
+			draw_buffer.get(batch.c, 0, len);
+			batch.len = len;
+			if (!render_paint_valid) {
+				render_paint.set(paint);
+				render_paint_valid = true;
+			}
+			post_render(batch);
+			return;
+		}
+		long start = System.nanoTime();
+		draw_buffer.position(0);
+		draw_buffer.get(draw_buffer_copy, 0, len);
+		replay_commands(paint, draw_buffer_copy, len);
+		frame_replay_ns += System.nanoTime() - start;
+	}
+
+	private void replay_commands(Paint paint, int[] c, int len)
+	{
+		int pos = 0;
+		while (pos < len) {
+			int op = c[pos];
+			int size = c[pos + 1];
+			int off = pos + 2;
+			switch (op) {
+			case draw_op_polyline:
+				draw_polyline(paint, c, off, size);
+				break;
+			case draw_op_polygon:
+				draw_polygon(paint, c, off, size);
+				break;
+			case draw_op_rectangle:
+				paint.setStrokeWidth(c[off]);
+				paint.setARGB(c[off + 1], c[off + 2], c[off + 3], c[off + 4]);
+				draw_rectangle(paint, c[off + 5], c[off + 6], c[off + 7], c[off + 8]);
+				break;
+			case draw_op_circle:
+				paint.setStrokeWidth(c[off]);
+				paint.setARGB(c[off + 1], c[off + 2], c[off + 3], c[off + 4]);
+				draw_circle(paint, c[off + 5], c[off + 6], c[off + 7]);
+				break;
+			default:
+				Log.e("NavitGraphics", "draw_buffer_replay: unknown op " + op);
+				return;
+			}
+			pos = off + size;
+		}
+	}
+
+	/* Double buffering state of the root graphics. draw_bitmap is the back buffer the map is drawn
+	 * into, display_bitmap the front buffer shown by onDraw. Both are the same without double buffering. */
+	private Bitmap display_bitmap;
+	private final Object buffer_lock = new Object();
+	private boolean double_buffer;
+	private HandlerThread render_thread;
+	private Handler render_handler;
+	private final Paint render_paint = new Paint();
+	private boolean render_paint_valid;
+	private final Object render_lock = new Object();
+	private int render_pending;
+	private final ArrayList<RenderBatch> render_batch_pool = new ArrayList<RenderBatch>();
+	private final ArrayList<RenderOp> render_op_pool = new ArrayList<RenderOp>();
+	private int swap_count;
+	private long last_swap_ns;
+	private long frame_interval_ns;
+	private long max_frame_interval_ns;
+	private long render_wait_ns;
+
+	/** @brief A batch of draw commands replayed into the back buffer on the render thread. */
+	private class RenderBatch implements Runnable
+	{
+		int[] c;
+		int len;
+
+		public void run()
+		{
+			long start = System.nanoTime();
+			replay_commands(render_paint, c, len);
+			synchronized (render_lock) {
+				frame_replay_ns += System.nanoTime() - start;
+				render_batch_pool.add(this);
+				render_done();
+			}
+		}
+	}
+
+	/** @brief Copies the front buffer into the back buffer after a swap, so drawing can continue incrementally. */
+	private final Runnable copy_front_task = new Runnable()
+	{
+		public void run()
+		{
+			draw_canvas.drawBitmap(display_bitmap, 0, 0, null);
+			synchronized (render_lock) {
+				render_done();
+			}
+		}
+	};
+
+	/**
+	 * @brief A text or image drawn into the back buffer on the render thread.
+	 *
+	 * The paint of the caller is copied, as native code changes it for the following operations.
+	 */
+	private class RenderOp implements Runnable
+	{
+		static final int TEXT = 0;
+		static final int IMAGE = 1;
+		static final int IMAGE_WARP = 2;
+
+		final Paint paint = new Paint();
+		final int[] points = new int[8];
+		int kind;
+		int x;
+		int y;
+		String text;
+		int size;
+		int dx;
+		int dy;
+		int bgcolor;
+		Bitmap bitmap;
+
+		public void run()
+		{
+			long start = System.nanoTime();
+			switch (kind) {
+			case TEXT:
+				draw_text_now(paint, x, y, text, size, dx, dy, bgcolor);
+				break;
+			case IMAGE:
+				draw_canvas.drawBitmap(bitmap, x, y, null);
+				break;
+			case IMAGE_WARP:
+				draw_image_warp_now(paint, size, points[0], points[1], points[2], points[3], points[4],
+						points[5], points[6], points[7], bitmap);
+				break;
+			}
+			text = null;
+			bitmap = null;
+			synchronized (render_lock) {
+				frame_replay_ns += System.nanoTime() - start;
+				render_op_pool.add(this);
+				render_done();
+			}
+		}
+	}
+
+	/**
+	 * @brief Returns true if a drawing operation is to be queued to the render thread instead of drawn now.
+	 */
+	private boolean queue_render()
+	{
+		return render_handler != null && Thread.currentThread() != render_thread;
+	}
+
+	private RenderOp obtain_render_op(int kind, Paint paint)
+	{
+		RenderOp op = null;
+		synchronized (render_lock) {
+			int n = render_op_pool.size();
+			if (n > 0)
+				op = render_op_pool.remove(n - 1);
+		}
+		if (op == null) {
+			frame_allocations++;
+			op = new RenderOp();
+		}
+		op.kind = kind;
+		if (paint != null)
+			op.paint.set(paint);
+		return op;
+	}
+
+	private RenderBatch obtain_render_batch()
+	{
+		synchronized (render_lock) {
+			int n = render_batch_pool.size();
+			if (n > 0)
+				return render_batch_pool.remove(n - 1);
+		}
+		frame_allocations++;
+		RenderBatch batch = new RenderBatch();
+		batch.c = new int[draw_buffer_copy.length];
+		return batch;
+	}
+
+	private void post_render(Runnable task)
+	{
+		synchronized (render_lock) {
+			render_pending++;
+		}
+		render_handler.post(task);
+	}
+
+	/* Must be called with render_lock held */
+	private void render_done()
+	{
+		render_pending--;
+		render_lock.notifyAll();
+	}
+
+	/**
+	 * @brief Waits until the render thread has drawn everything queued so far.
+	 *
+	 * Must be called before drawing into the back buffer from the UI thread, or before replacing or
+	 * swapping it. Does nothing if double buffering is disabled or when called from the render thread.
+	 */
+	private void render_sync()
+	{
+		if (render_handler == null || Thread.currentThread() == render_thread)
+			return;
+		synchronized (render_lock) {
+			if (render_pending == 0)
+				return;
+			long start = System.nanoTime();
+			while (render_pending > 0) {
+				try {
+					render_lock.wait();
+				} catch (InterruptedException e) {
+					Log.e("NavitGraphics", "render_sync interrupted");
+					break;
+				}
+			}
+			render_wait_ns += System.nanoTime() - start;
+		}
+	}
+
+	/**
+	 * @brief Enables or disables double buffering of the map.
+	 *
+	 * With double buffering, batched draw commands (see {@link #draw_buffer_replay(Paint, int, int)}),
+	 * texts and images are drawn into a back buffer on a separate render thread, in the order native
+	 * code issued them, and the back buffer becomes visible at {@code draw_mode_end} only. The UI thread
+	 * only waits for the render thread for the rare unbatched shapes and when swapping the buffers, so
+	 * it can handle input while a frame is rasterized. Native code still computes the frame on the UI
+	 * thread. Only the root graphics can be double buffered.
+	 *
+	 * @param enable Nonzero to enable double buffering
+	 */
+	public void setDoubleBuffer(int enable)
+	{
+		if (parent_graphics != null || double_buffer == (enable != 0))
+			return;
+		render_sync();
+		double_buffer = (enable != 0);
+		if (double_buffer) {
+			render_thread = new HandlerThread("NavitRender");
+			render_thread.start();
+			render_handler = new Handler(render_thread.getLooper());
+		} else {
+			render_handler = null;
+			render_thread.quit();
+			render_thread = null;
+		}
+		Bitmap old_display_bitmap = display_bitmap;
+		synchronized (buffer_lock) {
+			if (draw_bitmap == null)
+				display_bitmap = null;
+			else if (double_buffer) {
+				display_bitmap = bitmap_pool.get(draw_bitmap.getWidth(), draw_bitmap.getHeight(), draw_bitmap.getConfig());
+				new Canvas(display_bitmap).drawBitmap(draw_bitmap, 0, 0, null);
+			} else
+				display_bitmap = draw_bitmap;
+		}
+		if (old_display_bitmap != draw_bitmap)
+			bitmap_pool.release(old_display_bitmap);
+		Log.d("NavitGraphics", "double buffering " + (double_buffer ? "enabled" : "disabled"));
+	}
+
+	/**
+	 * @brief Makes the back buffer visible.
+	 *
+	 * Called at {@code draw_mode_end} of the root graphics when double buffering is enabled.
+	 */
+	private void swap_buffers()
+	{
+		render_sync();
+		synchronized (buffer_lock) {
+			Bitmap front = display_bitmap;
+			display_bitmap = draw_bitmap;
+			draw_bitmap = front;
+		}
+		draw_canvas.setBitmap(draw_bitmap);
+		post_render(copy_front_task);
+
+		long now = System.nanoTime();
+		if (last_swap_ns != 0) {
+			frame_interval_ns = now - last_swap_ns;
+			if (frame_interval_ns > max_frame_interval_ns)
+				max_frame_interval_ns = frame_interval_ns;
+		}
+		last_swap_ns = now;
+		swap_count++;
+	}
+
+	/** @brief Returns the number of buffer swaps since double buffering was enabled. */
+	public int getSwapCount()
+	{
+		return swap_count;
+	}
+
+	/** @brief Returns the time between the last two buffer swaps, in nanoseconds. */
+	public long getFrameIntervalNanos()
+	{
+		return frame_interval_ns;
+	}
+
+	/** @brief Returns the longest time between two buffer swaps, in nanoseconds. */
+	public long getMaxFrameIntervalNanos()
+	{
+		return max_frame_interval_ns;
+	}
+
+	/** @brief Returns the time the UI thread spent waiting for the render thread in the current frame, in nanoseconds. */
+	public long getRenderWaitNanos()
+	{
+		return render_wait_ns;
+	}
+
+	/**
+	 * @brief Returns the number of objects allocated by the drawing methods in the current frame.
+	 *
+	 * Once all dash patterns in use have been seen, this stays at zero.
+	 */
+	public int getFrameAllocations()
+	{
+		return frame_allocations;
+	}
+
+	/**
+	 * @brief Returns a {@code DashPathEffect} for a dash pattern, creating it on first use.
+	 *
+	 * Effects are kept in a small round-robin cache keyed by the dash lengths. Odd patterns are
+	 * repeated to make them even, as {@code DashPathEffect} requires.
+	 *
+	 * @param c The array holding the pattern
+	 * @param off The index of the first dash length
+	 * @param ndashes The number of dash lengths
+	 */
+	private android.graphics.DashPathEffect get_dash_effect(int c[], int off, int ndashes)
+	{
+		int i, j;
+		for (i = 0; i < DASH_CACHE_SIZE; i++) {
+			int[] key = dash_cache_keys[i];
+			if (key == null || key.length != ndashes)
+				continue;
+			for (j = 0; j < ndashes && key[j] == c[off + j]; j++)
+				;
+			if (j == ndashes)
+				return dash_cache_effects[i];
+		}
+		int[] key = new int[ndashes];
+		float[] intervals = new float[ndashes + (ndashes % 2)];
+		for (i = 0; i < ndashes; i++) {
+			key[i] = c[off + i];
+			intervals[i] = c[off + i];
+		}
+		if ((ndashes % 2) == 1)
+			intervals[ndashes] = intervals[ndashes - 1];
+		frame_allocations += 3;
+		i = dash_cache_next;
+		dash_cache_next = (dash_cache_next + 1) % DASH_CACHE_SIZE;
+		dash_cache_keys[i] = key;
+		dash_cache_effects[i] = new android.graphics.DashPathEffect(intervals, 0.0f);
+		return dash_cache_effects[i];
+	}
+
+	/** @brief Returns the number of draw commands replayed from the draw buffer in the current frame. */
+	public int getFrameCommands()
+	{
+		return frame_commands;
+	}
+
+	/** @brief Returns the number of draw buffer flushes (JNI upcalls) in the current frame. */
+	public int getFrameBatches()
+	{
+		return frame_batches;
+	}
+
+	/** @brief Returns the time spent replaying the draw buffer in the current frame, in nanoseconds. */
+	public long getFrameReplayNanos()
+	{
+		return frame_replay_ns;
+	}
+
 	protected void draw_polyline(Paint paint, int c[])
 	{
-		int i, ndashes;
-		float [] intervals;
+		render_sync();
+		draw_polyline(paint, c, 0, c.length);
+	}
+
+	private void draw_polyline(Paint paint, int c[], int off, int len)
+	{
+		int i, ndashes, end = off + len;
 		//	Log.e("NavitGraphics","draw_polyline");
-		paint.setStrokeWidth(c[0]);
-		paint.setARGB(c[1],c[2],c[3],c[4]);
+		paint.setStrokeWidth(c[off]);
+		paint.setARGB(c[off+1],c[off+2],c[off+3],c[off+4]);
 		paint.setStyle(Paint.Style.STROKE);
 		//paint.setAntiAlias(true);
 		//paint.setStrokeWidth(0);
-		ndashes=c[5];
-		intervals=new float[ndashes+(ndashes%2)];
-		for (i = 0; i < ndashes; i++)
-			intervals[i]=c[6+i];
-
-		if((ndashes%2)==1)
-			intervals[ndashes]=intervals[ndashes-1];
-			
+		ndashes=c[off+5];
 		if(ndashes>0)
-			paint.setPathEffect(new android.graphics.DashPathEffect(intervals,0.0f));
+			paint.setPathEffect(get_dash_effect(c, off+6, ndashes));
 			
-		Path path = new Path();
-		path.moveTo(c[6+ndashes], c[7+ndashes]);
-		for (i = 8+ndashes; i < c.length; i += 2)
+		Path path = draw_path;
+		path.rewind();
+		path.moveTo(c[off+6+ndashes], c[off+7+ndashes]);
+		for (i = off+8+ndashes; i < end; i += 2)
 		{
 			path.lineTo(c[i], c[i + 1]);
 		}
@@ -1021,15 +1765,23 @@ public class NavitGraphics
 
 	protected void draw_polygon(Paint paint, int c[])
 	{
+		render_sync();
+		draw_polygon(paint, c, 0, c.length);
+	}
+
+	private void draw_polygon(Paint paint, int c[], int off, int len)
+	{
+		int end = off + len;
 		//Log.e("NavitGraphics","draw_polygon");
-		paint.setStrokeWidth(c[0]);
-		paint.setARGB(c[1],c[2],c[3],c[4]);
+		paint.setStrokeWidth(c[off]);
+		paint.setARGB(c[off+1],c[off+2],c[off+3],c[off+4]);
 		paint.setStyle(Paint.Style.FILL);
 		//paint.setAntiAlias(true);
 		//paint.setStrokeWidth(0);
-		Path path = new Path();
-		path.moveTo(c[5], c[6]);
-		for (int i = 7; i < c.length; i += 2)
+		Path path = draw_path;
+		path.rewind();
+		path.moveTo(c[off+5], c[off+6]);
+		for (int i = off+7; i < end; i += 2)
 		{
 			path.lineTo(c[i], c[i + 1]);
 		}
@@ -1038,15 +1790,16 @@ public class NavitGraphics
 	}
 	protected void draw_rectangle(Paint paint, int x, int y, int w, int h)
 	{
+		render_sync();
 		//Log.e("NavitGraphics","draw_rectangle");
-		Rect r = new Rect(x, y, x + w, y + h);
 		paint.setStyle(Paint.Style.FILL);
 		paint.setAntiAlias(true);
 		//paint.setStrokeWidth(0);
-		draw_canvas.drawRect(r, paint);
+		draw_canvas.drawRect(x, y, x + w, y + h, paint);
 	}
 	protected void draw_circle(Paint paint, int x, int y, int r)
 	{
+		render_sync();
 		//Log.e("NavitGraphics","draw_circle");
 		//		float fx = x;
 		//		float fy = y;
@@ -1055,6 +1808,23 @@ public class NavitGraphics
 		draw_canvas.drawCircle(x, y, r / 2, paint);
 	}
 	protected void draw_text(Paint paint, int x, int y, String text, int size, int dx, int dy, int bgcolor)
+	{
+		if (queue_render()) {
+			RenderOp op = obtain_render_op(RenderOp.TEXT, paint);
+			op.x = x;
+			op.y = y;
+			op.text = text;
+			op.size = size;
+			op.dx = dx;
+			op.dy = dy;
+			op.bgcolor = bgcolor;
+			post_render(op);
+			return;
+		}
+		draw_text_now(paint, x, y, text, size, dx, dy, bgcolor);
+	}
+
+	private void draw_text_now(Paint paint, int x, int y, String text, int size, int dx, int dy, int bgcolor)
 	{
 		int oldcolor=paint.getColor();
 		Path path=null;
@@ -1062,8 +1832,14 @@ public class NavitGraphics
 		paint.setTextSize(size / 15);
 		paint.setStyle(Paint.Style.FILL);
 
+		if (use_label_cache && label_cache.draw(draw_canvas, paint, x, y, text, dx, dy, bgcolor)) {
+			paint.clearShadowLayer();
+			return;
+		}
+
 		if (dx != 0x10000 || dy != 0) {
-			path = new Path();
+			path = text_path;
+			path.rewind();
 			path.moveTo(x, y);
 			path.rLineTo(dx, dy);
 			paint.setTextAlign(android.graphics.Paint.Align.LEFT);
@@ -1091,52 +1867,140 @@ public class NavitGraphics
 	}
 	protected void draw_image(Paint paint, int x, int y, Bitmap bitmap)
 	{
+		if (queue_render()) {
+			RenderOp op = obtain_render_op(RenderOp.IMAGE, null);
+			op.x = x;
+			op.y = y;
+			op.bitmap = bitmap;
+			post_render(op);
+			return;
+		}
 		//Log.e("NavitGraphics","draw_image");
 		//		float fx = x;
 		//		float fy = y;
 		draw_canvas.drawBitmap(bitmap, x, y, null);
 	}
 
-	/* takes an image and draws it on the screen as a prerendered maptile
-	 * 
-	 * 
-	 * 
+	/* Cache of the matrices used by draw_image_warp, indexed by a hash of the tile transform */
+	private static final int WARP_CACHE_SIZE = 64;
+	private static final int WARP_KEY_SIZE = 11;
+	private final Matrix[] warp_matrices = new Matrix[WARP_CACHE_SIZE];
+	private final int[] warp_keys = new int[WARP_CACHE_SIZE * WARP_KEY_SIZE];
+	private final int[] warp_key = new int[WARP_KEY_SIZE];
+	private final float[] warp_src = new float[8];
+	private final float[] warp_dst = new float[8];
+
+	/**
+	 * @brief Returns the matrix which maps a bitmap of the given size onto the given points.
+	 *
+	 * Map tiles are usually drawn at the same positions in consecutive frames, so the matrices are
+	 * cached and only computed when the tile moved.
+	 */
+	private Matrix get_warp_matrix(int count, int w, int h, int p0x, int p0y, int p1x, int p1y,
+			int p2x, int p2y, int p3x, int p3y)
+	{
+		int[] key = warp_key;
+		int i, hash = 0, slot;
+		key[0] = count;
+		key[1] = w;
+		key[2] = h;
+		key[3] = p0x;
+		key[4] = p0y;
+		key[5] = p1x;
+		key[6] = p1y;
+		key[7] = p2x;
+		key[8] = p2y;
+		key[9] = p3x;
+		key[10] = p3y;
+		for (i = 0; i < WARP_KEY_SIZE; i++)
+			hash = hash * 31 + key[i];
+		slot = ((hash ^ (hash >>> 16)) & 0x7fffffff) % WARP_CACHE_SIZE;
+		Matrix matrix = warp_matrices[slot];
+		if (matrix != null) {
+			for (i = 0; i < WARP_KEY_SIZE && warp_keys[slot * WARP_KEY_SIZE + i] == key[i]; i++)
+				;
+			if (i == WARP_KEY_SIZE)
+				return matrix;
+		} else {
+			matrix = new Matrix();
+			warp_matrices[slot] = matrix;
+			frame_allocations++;
+		}
+		System.arraycopy(key, 0, warp_keys, slot * WARP_KEY_SIZE, WARP_KEY_SIZE);
+
+		float[] src = warp_src;
+		float[] dst = warp_dst;
+		switch (count) {
+		case 1:
+			/* centered at p0, not scaled */
+			matrix.setTranslate(p0x - w / 2, p0y - h / 2);
+			return matrix;
+		case 2:
+			/* p0 top left, p1 bottom right */
+			matrix.setScale((float)(p1x - p0x) / w, (float)(p1y - p0y) / h);
+			matrix.postTranslate(p0x, p0y);
+			return matrix;
+		}
+		/* p0 top left, p1 top right, p2 bottom left, p3 bottom right */
+		src[0] = 0; src[1] = 0;
+		src[2] = w; src[3] = 0;
+		src[4] = 0; src[5] = h;
+		src[6] = w; src[7] = h;
+		dst[0] = p0x; dst[1] = p0y;
+		dst[2] = p1x; dst[3] = p1y;
+		dst[4] = p2x; dst[5] = p2y;
+		dst[6] = p3x; dst[7] = p3y;
+		if (!matrix.setPolyToPoly(src, 0, dst, 0, count)) {
+			Log.e("NavitGraphics", "draw_image_warp: cannot map image onto " + count + " points");
+			/* do not cache the failure */
+			warp_matrices[slot] = null;
+			return null;
+		}
+		return matrix;
+	}
+
+	/**
+	 * @brief Draws an image, such as a prerendered map tile, warped onto up to four points.
+	 *
+	 * With three points, the image is transformed affinely, so it can be rotated, scaled and skewed.
+	 * With four points, it is transformed in perspective, as needed for raster maps in 3D view.
+	 *
 	 * @param paint		Paint object used to draw the image
-	 * @param count		the number of points specified 
+	 * @param count		the number of points specified: 1 to center the image on p0, 2 to stretch it
+	 * 					from p0 (top left) to p1 (bottom right), 3 or 4 as below
 	 * @param p0x and p0y 	specifying the top left point
 	 * @param p1x and p1y 	specifying the top right point
-	 * @param p2x and p2y 	specifying the bottom left point, not yet used but kept 
-	 * 						for compatibility with the linux port
+	 * @param p2x and p2y 	specifying the bottom left point
+	 * @param p3x and p3y 	specifying the bottom right point, only used if count is 4
 	 * @param bitmap	Bitmap object holding the image to draw
-	 * 
-	 * TODO make it work with 4 points specified to make it work for 3D mapview, so it can be used
-	 * 		for small but very detailed maps as well as for large maps with very little detail but large
-	 * 		coverage.
-	 * TODO make it work with rectangular tiles as well ?
 	 */
-	protected void draw_image_warp(Paint paint, int count, int p0x, int p0y, int p1x, int p1y, int p2x, int p2y, Bitmap bitmap)
+	protected void draw_image_warp(Paint paint, int count, int p0x, int p0y, int p1x, int p1y, int p2x, int p2y,
+			int p3x, int p3y, Bitmap bitmap)
 	{
-	
-		float width;
-		float scale;
-		float deltaY;
-		float deltaX;
-		float angle;
-		Matrix matrix;	
-	
-		if (count == 3)
-		{			
-			matrix = new Matrix();
-			deltaX = p1x - p0x;
-			deltaY = p1y - p0y;
-			width = (float) (Math.sqrt((deltaX * deltaX) + (deltaY * deltaY)));			
-			angle = (float) (Math.atan2(deltaY, deltaX) * 180d / Math.PI);
-			scale = width / bitmap.getWidth();
-			matrix.preScale(scale, scale);
-			matrix.postTranslate(p0x, p0y);			
-			matrix.postRotate(angle, p0x, p0y);
-			draw_canvas.drawBitmap(bitmap, matrix, paint);
+		if (count < 1 || count > 4)
+			return;
+		if (queue_render()) {
+			RenderOp op = obtain_render_op(RenderOp.IMAGE_WARP, paint);
+			int[] p = op.points;
+			op.size = count;
+			p[0] = p0x; p[1] = p0y;
+			p[2] = p1x; p[3] = p1y;
+			p[4] = p2x; p[5] = p2y;
+			p[6] = p3x; p[7] = p3y;
+			op.bitmap = bitmap;
+			post_render(op);
+			return;
 		}
+		draw_image_warp_now(paint, count, p0x, p0y, p1x, p1y, p2x, p2y, p3x, p3y, bitmap);
+	}
+
+	private void draw_image_warp_now(Paint paint, int count, int p0x, int p0y, int p1x, int p1y, int p2x,
+			int p2y, int p3x, int p3y, Bitmap bitmap)
+	{
+		Matrix matrix = get_warp_matrix(count, bitmap.getWidth(), bitmap.getHeight(), p0x, p0y, p1x, p1y,
+				p2x, p2y, p3x, p3y);
+		if (matrix != null)
+			draw_canvas.drawBitmap(bitmap, matrix, paint);
 	}
 
 	/* These constants must be synchronized with enum draw_mode_num in graphics.h. */
@@ -1150,19 +2014,39 @@ public class NavitGraphics
 
 		if (mode == draw_mode_end) {
 			if (parent_graphics == null) {
-				view.invalidate();
+				if (double_buffer)
+					swap_buffers();
+				base_dirty = true;
+				if (surface_view != null)
+					request_surface_frame();
+				else
+					view.invalidate();
 			} else {
-				parent_graphics.view.invalidate(get_rect());
+				parent_graphics.invalidate_overlay(get_rect());
 			}
 		}
-		if (mode == draw_mode_begin && parent_graphics != null) {
-			draw_bitmap.eraseColor(0);
+		if (mode == draw_mode_begin) {
+			frame_commands = 0;
+			frame_batches = 0;
+			frame_replay_ns = 0;
+			frame_allocations = 0;
+			render_wait_ns = 0;
+			if (parent_graphics == null) {
+				label_cache.begin_frame();
+				frame_start_ns = System.nanoTime();
+			}
+			if (parent_graphics != null)
+				draw_bitmap.eraseColor(0);
 		}
 
 	}
 	protected void draw_drag(int x, int y)
 	{
 		//Log.e("NavitGraphics","draw_drag");
+		if (parent_graphics == null)
+			base_dirty = true;
+		else if (overlay_disabled == 0)
+			parent_graphics.invalidate_overlay(get_rect());
 		pos_x = x;
 		pos_y = y;
 	}
@@ -1175,7 +2059,7 @@ public class NavitGraphics
 		if (overlay_disabled != disable) {
 			overlay_disabled = disable;
 			if (parent_graphics != null) {
-				parent_graphics.view.invalidate(get_rect());
+				parent_graphics.invalidate_overlay(get_rect());
 			}
 		}
 	}
@@ -1183,7 +2067,10 @@ public class NavitGraphics
 	protected void overlay_resize(int x, int y, int w, int h, int wraparound)
 	{
 		//Log.e("NavitGraphics","overlay_resize");
-		draw_bitmap = Bitmap.createBitmap(w, h, Bitmap.Config.ARGB_8888);
+		if (parent_graphics != null && overlay_disabled == 0)
+			parent_graphics.invalidate_overlay(get_rect());
+		bitmap_pool.release(draw_bitmap);
+		draw_bitmap = bitmap_pool.get(w, h, Bitmap.Config.ARGB_8888);
 		bitmap_w = w;
 		bitmap_h = h;
 		pos_x = x;
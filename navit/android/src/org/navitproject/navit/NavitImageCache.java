@@ -0,0 +1,149 @@
+/**
+ * Navit, a modular navigation system.
+ * Copyright (C) 2005-2008 Navit Team
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * version 2 as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor,
+ * Boston, MA  02110-1301, USA.
+ */
+
+package org.navitproject.navit;
+
+import android.content.res.Resources;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.support.v4.util.LruCache;
+import android.util.Log;
+
+/**
+ * @brief Decodes icons for graphics_android.c and caches them, scaled to the requested size.
+ *
+ * The cache is shared by all {@code NavitGraphics} instances and limited by the number of bytes of
+ * the cached bitmaps. Images are keyed by their file name or resource id and the requested size,
+ * so the same icon used at several sizes is decoded and scaled once per size.
+ */
+public class NavitImageCache {
+	/* Must match IMAGE_W_H_UNSET in graphics.h */
+	private static final int IMAGE_W_H_UNSET = -1;
+
+	private static final LruCache<String, Bitmap> cache = new LruCache<String, Bitmap>(default_size()) {
+		@Override
+		protected int sizeOf(String key, Bitmap bitmap) {
+			return bitmap.getRowBytes() * bitmap.getHeight();
+		}
+	};
+
+	private static int default_size()
+	{
+		/* 1/32 of the heap, but at least 2 MB */
+		return (int)Math.max(Runtime.getRuntime().maxMemory() / 32, 2 * 1024 * 1024);
+	}
+
+	/**
+	 * @brief Returns the image in a file.
+	 *
+	 * @param path The path of the image file
+	 * @param w The requested width, or {@code IMAGE_W_H_UNSET} to use the width of the image
+	 * @param h The requested height, or {@code IMAGE_W_H_UNSET} to use the height of the image
+	 *
+	 * @return The image, or {@code null} if it could not be decoded
+	 */
+	public static Bitmap getFileImage(String path, int w, int h)
+	{
+		String key = path + ":" + w + "x" + h;
+		Bitmap ret = cache.get(key);
+		if (ret != null)
+			return ret;
+		BitmapFactory.Options options = new BitmapFactory.Options();
+		if (w != IMAGE_W_H_UNSET || h != IMAGE_W_H_UNSET) {
+			/* Decode large images at a reduced size right away, but never smaller than requested */
+			options.inJustDecodeBounds = true;
+			BitmapFactory.decodeFile(path, options);
+			options.inSampleSize = sample_size(options.outWidth, options.outHeight, w, h);
+			options.inJustDecodeBounds = false;
+		}
+		ret = scale(BitmapFactory.decodeFile(path, options), w, h);
+		if (ret != null)
+			cache.put(key, ret);
+		return ret;
+	}
+
+	/**
+	 * @brief Returns the image in a drawable resource.
+	 *
+	 * @param res The resources of the application
+	 * @param id The id of the drawable
+	 * @param w The requested width, or {@code IMAGE_W_H_UNSET} to use the width of the image
+	 * @param h The requested height, or {@code IMAGE_W_H_UNSET} to use the height of the image
+	 *
+	 * @return The image, or {@code null} if it could not be decoded
+	 */
+	public static Bitmap getResourceImage(Resources res, int id, int w, int h)
+	{
+		String key = "res:" + id + ":" + w + "x" + h;
+		Bitmap ret = cache.get(key);
+		if (ret != null)
+			return ret;
+		ret = scale(BitmapFactory.decodeResource(res, id), w, h);
+		if (ret != null)
+			cache.put(key, ret);
+		return ret;
+	}
+
+	private static int sample_size(int width, int height, int w, int h)
+	{
+		int ret = 1;
+		if (width <= 0 || height <= 0)
+			return ret;
+		while ((w == IMAGE_W_H_UNSET || width / (ret * 2) >= w)
+				&& (h == IMAGE_W_H_UNSET || height / (ret * 2) >= h))
+			ret *= 2;
+		return ret;
+	}
+
+	private static Bitmap scale(Bitmap bitmap, int w, int h)
+	{
+		if (bitmap == null)
+			return null;
+		int width = (w == IMAGE_W_H_UNSET) ? bitmap.getWidth() : w;
+		int height = (h == IMAGE_W_H_UNSET) ? bitmap.getHeight() : h;
+		if (width == bitmap.getWidth() && height == bitmap.getHeight())
+			return bitmap;
+		Bitmap scaled = Bitmap.createScaledBitmap(bitmap, width, height, true);
+		if (scaled == null) {
+			Log.e("NavitImageCache", "Bitmap scaling to " + width + "x" + height + " failed");
+			return bitmap;
+		}
+		if (scaled != bitmap)
+			bitmap.recycle();
+		return scaled;
+	}
+
+	/** @brief Returns the number of images found in the cache. */
+	public static int getHits()
+	{
+		return cache.hitCount();
+	}
+
+	/** @brief Returns the number of images which had to be decoded. */
+	public static int getMisses()
+	{
+		return cache.missCount();
+	}
+
+	/** @brief Returns the number of bytes used by cached images. */
+	public static int getBytes()
+	{
+		return cache.size();
+	}
+}
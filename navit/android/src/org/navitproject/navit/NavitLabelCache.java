@@ -0,0 +1,221 @@
+/**
+ * Navit, a modular navigation system.
+ * Copyright (C) 2005-2008 Navit Team
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * version 2 as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor,
+ * Boston, MA  02110-1301, USA.
+ */
+
+package org.navitproject.navit;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+
+/**
+ * @brief A cache of pre-rendered text labels.
+ *
+ * Each entry is a bitmap holding a label with its halo, so drawing a label which was already drawn in
+ * an earlier frame is a single bitmap blit. Labels along a street are rendered horizontally and
+ * rotated when blitted, so one bitmap serves all angles. The least recently used labels are
+ * evicted once the bitmaps exceed the size limit. The cache may be used from several threads, as a
+ * double buffered map draws its labels on its render thread.
+ */
+public class NavitLabelCache {
+	/* Room around the text for the halo, which is drawn with a stroke width of 3 */
+	private static final int PADDING = 2;
+
+	private static class Key {
+		String text;
+		int size;
+		int color;
+		int bgcolor;
+		int hash;
+
+		void set(String text, int size, int color, int bgcolor)
+		{
+			this.text = text;
+			this.size = size;
+			this.color = color;
+			this.bgcolor = bgcolor;
+			hash = ((text.hashCode() * 31 + size) * 31 + color) * 31 + bgcolor;
+		}
+
+		@Override
+		public int hashCode()
+		{
+			return hash;
+		}
+
+		@Override
+		public boolean equals(Object o)
+		{
+			if (!(o instanceof Key))
+				return false;
+			Key k = (Key)o;
+			return hash == k.hash && size == k.size && color == k.color && bgcolor == k.bgcolor
+					&& text.equals(k.text);
+		}
+	}
+
+	private static class Label {
+		Bitmap bitmap;
+		/* Distance from the top of the bitmap to the baseline of the text */
+		int baseline;
+	}
+
+	private final LinkedHashMap<Key, Label> labels = new LinkedHashMap<Key, Label>(64, 0.75f, true);
+	private final Key lookup_key = new Key();
+	private final Paint text_paint = new Paint();
+	private final Paint blit_paint = new Paint(Paint.FILTER_BITMAP_FLAG);
+	private final Paint.FontMetricsInt metrics = new Paint.FontMetricsInt();
+	private long max_bytes;
+	private long bytes;
+	private int frame_lookups;
+	private int frame_hits;
+
+	/**
+	 * @brief Creates a new label cache.
+	 *
+	 * @param max_bytes The maximum number of bytes held by label bitmaps
+	 */
+	public NavitLabelCache(long max_bytes)
+	{
+		this.max_bytes = max_bytes;
+	}
+
+	/**
+	 * @brief Draws a label, rendering it first if it is not cached yet.
+	 *
+	 * The text size, typeface and color are taken from {@code paint}. The parameters match those of
+	 * {@code NavitGraphics.draw_text}.
+	 *
+	 * @param canvas The canvas to draw on
+	 * @param paint The paint with the text attributes
+	 * @param x The x coordinate of the start of the baseline
+	 * @param y The y coordinate of the start of the baseline
+	 * @param text The text
+	 * @param dx The x component of the baseline direction, 0x10000 for horizontal text
+	 * @param dy The y component of the baseline direction
+	 * @param bgcolor The color of the halo, 0 for none
+	 *
+	 * @return {@code false} if the label cannot be cached and must be drawn directly
+	 */
+	public synchronized boolean draw(Canvas canvas, Paint paint, int x, int y, String text, int dx, int dy, int bgcolor)
+	{
+		int size = (int)paint.getTextSize();
+		if (size <= 0 || text.length() == 0)
+			return false;
+		frame_lookups++;
+		lookup_key.set(text, size, paint.getColor(), bgcolor);
+		Label label = labels.get(lookup_key);
+		if (label != null) {
+			frame_hits++;
+		} else {
+			label = render(paint, text, bgcolor);
+			if (label == null)
+				return false;
+			Key key = new Key();
+			key.set(text, size, paint.getColor(), bgcolor);
+			labels.put(key, label);
+			bytes += label.bitmap.getRowBytes() * label.bitmap.getHeight();
+			trim();
+		}
+		if (dx != 0x10000 || dy != 0) {
+			canvas.save();
+			canvas.rotate((float)Math.toDegrees(Math.atan2(dy, dx)), x, y);
+			canvas.drawBitmap(label.bitmap, x - PADDING, y - label.baseline, blit_paint);
+			canvas.restore();
+		} else {
+			canvas.drawBitmap(label.bitmap, x - PADDING, y - label.baseline, blit_paint);
+		}
+		return true;
+	}
+
+	private Label render(Paint paint, String text, int bgcolor)
+	{
+		text_paint.set(paint);
+		text_paint.setTextAlign(Paint.Align.LEFT);
+		text_paint.clearShadowLayer();
+		text_paint.getFontMetricsInt(metrics);
+		int w = (int)Math.ceil(text_paint.measureText(text)) + 2 * PADDING;
+		int h = metrics.bottom - metrics.top + 2 * PADDING;
+		/* Very long labels would evict most of the cache, draw those directly */
+		if ((long)w * h * 4 > max_bytes / 4)
+			return null;
+		Label ret = new Label();
+		ret.bitmap = Bitmap.createBitmap(w, h, Bitmap.Config.ARGB_8888);
+		ret.baseline = PADDING - metrics.top;
+		Canvas canvas = new Canvas(ret.bitmap);
+		if (bgcolor != 0) {
+			text_paint.setStrokeWidth(3);
+			text_paint.setColor(bgcolor);
+			text_paint.setStyle(Paint.Style.STROKE);
+			canvas.drawText(text, PADDING, ret.baseline, text_paint);
+			text_paint.setColor(paint.getColor());
+		}
+		text_paint.setStyle(Paint.Style.FILL);
+		canvas.drawText(text, PADDING, ret.baseline, text_paint);
+		return ret;
+	}
+
+	private void trim()
+	{
+		Iterator<Map.Entry<Key, Label>> it = labels.entrySet().iterator();
+		while (bytes > max_bytes && it.hasNext()) {
+			Bitmap bitmap = it.next().getValue().bitmap;
+			it.remove();
+			bytes -= bitmap.getRowBytes() * bitmap.getHeight();
+			bitmap.recycle();
+		}
+	}
+
+	/** @brief Removes all labels from the cache. */
+	public synchronized void clear()
+	{
+		for (Label label : labels.values())
+			label.bitmap.recycle();
+		labels.clear();
+		bytes = 0;
+	}
+
+	/** @brief Starts counting lookups for a new frame. */
+	public synchronized void begin_frame()
+	{
+		frame_lookups = 0;
+		frame_hits = 0;
+	}
+
+	/** @brief Returns the number of labels drawn in the current frame. */
+	public synchronized int getFrameLookups()
+	{
+		return frame_lookups;
+	}
+
+	/** @brief Returns the number of labels drawn from the cache in the current frame. */
+	public synchronized int getFrameHits()
+	{
+		return frame_hits;
+	}
+
+	/** @brief Returns the share of labels drawn from the cache in the current frame, between 0 and 1. */
+	public synchronized float getFrameHitRate()
+	{
+		return frame_lookups == 0 ? 0 : (float)frame_hits / frame_lookups;
+	}
+}
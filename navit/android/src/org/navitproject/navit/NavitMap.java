@@ -6,6 +6,11 @@ public class NavitMap {
 	String fileName;
 	String mapName;
 	String mapPath;
+	/* Cached by NavitMapInventory, -1 until known */
+	private long fileSize = -1;
+	private long lastModified = -1;
+	private boolean hasBoundingBox;
+	double minLat, minLon, maxLat, maxLon;
 
 	public NavitMap(String path, String map_file_name) {
 		mapPath = path;
@@ -30,10 +35,37 @@ public class NavitMap {
 	}
 
 	public long size() {
+		if (fileSize >= 0)
+			return fileSize;
 		File map_file = new File(mapPath + fileName);
 		return map_file.length();
 	}
 
+	/** @brief Returns the modification time of the map file, as of the last scan of the inventory. */
+	public long lastModified() {
+		if (lastModified >= 0)
+			return lastModified;
+		return new File(mapPath + fileName).lastModified();
+	}
+
+	void setFileInfo(long size, long lastModified) {
+		this.fileSize = size;
+		this.lastModified = lastModified;
+	}
+
+	void setBoundingBox(double minLat, double minLon, double maxLat, double maxLon) {
+		this.minLat = minLat;
+		this.minLon = minLon;
+		this.maxLat = maxLat;
+		this.maxLon = maxLon;
+		hasBoundingBox = true;
+	}
+
+	/** @brief Returns true if the area covered by the map is known. */
+	public boolean hasBoundingBox() {
+		return hasBoundingBox;
+	}
+
 	public String getLocation() {
 		return mapPath + fileName;
 	}
@@ -0,0 +1,242 @@
+/**
+ * Navit, a modular navigation system.
+ * Copyright (C) 2005-2008 Navit Team
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * version 2 as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor,
+ * Boston, MA  02110-1301, USA.
+ */
+
+package org.navitproject.navit;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+
+import android.util.Log;
+
+/**
+ * @brief Loads the catalog of downloadable maps from a file, and refreshes that file from the server.
+ *
+ * Catalog format (big endian): the magic {@code NAVITCAT}, int version (1), int number of maps, then for
+ * each map: the name as UTF (parts separated by '|' are translated one by one), the bounding box as
+ * four UTF strings lon1, lat1, lon2, lat2 as passed to the map API, long estimated size in bytes and
+ * byte level in the list.
+ *
+ * Refreshes use a conditional GET with the ETag and the Last-Modified time of the stored catalog, so an
+ * unchanged catalog costs one small request. A new catalog is used from the next start on, so map
+ * indices do not change while the process runs.
+ */
+public class NavitMapCatalog
+{
+	public static final String  CATALOG_URL         = "http://maps.navit-project.org/api/catalog/";
+
+	private static final String TAG                 = "NavitMapCatalog";
+	private static final String MAGIC               = "NAVITCAT";
+	private static final int    VERSION             = 1;
+	private static final long   REFRESH_INTERVAL_MS = 24L * 60 * 60 * 1000;
+	private static final int    MAX_CATALOG_SIZE    = 4 * 1024 * 1024;
+	private static final int    SOCKET_TIMEOUT      = 60000;
+
+	/** @brief Returns the file the catalog is stored in. */
+	public static File getCatalogFile()
+	{
+		return new File(Navit.NAVIT_DATA_SHARE_DIR, "maps_catalog.bin");
+	}
+
+	private static File getStateFile(File catalog)
+	{
+		return new File(catalog.getPath() + ".state");
+	}
+
+	/**
+	 * @brief Loads a catalog file.
+	 *
+	 * @return The maps, or null if there is no valid catalog
+	 */
+	public static NavitMapDownloader.osm_map_values[] load(File file)
+	{
+		if (!file.exists())
+			return null;
+		try {
+			InputStream in = new BufferedInputStream(new FileInputStream(file));
+			try {
+				return parse(in);
+			} finally {
+				in.close();
+			}
+		} catch (IOException e) {
+			Log.e(TAG, "Invalid map catalog " + file + ": " + e);
+			return null;
+		}
+	}
+
+	private static NavitMapDownloader.osm_map_values[] parse(InputStream stream) throws IOException
+	{
+		DataInputStream in = new DataInputStream(stream);
+		byte[] magic = new byte[MAGIC.length()];
+		in.readFully(magic);
+		if (!MAGIC.equals(new String(magic, "US-ASCII")) || in.readInt() != VERSION)
+			throw new IOException("unsupported format");
+		int count = in.readInt();
+		if (count <= 0 || count > MAX_CATALOG_SIZE / 16)
+			throw new IOException("invalid number of maps " + count);
+		NavitMapDownloader.osm_map_values[] ret = new NavitMapDownloader.osm_map_values[count];
+		for (int i = 0; i < count; i++) {
+			String name = in.readUTF();
+			String lon1 = in.readUTF();
+			String lat1 = in.readUTF();
+			String lon2 = in.readUTF();
+			String lat2 = in.readUTF();
+			long size = in.readLong();
+			int level = in.readByte();
+			try {
+				ret[i] = new NavitMapDownloader.osm_map_values(name, lon1, lat1, lon2, lat2, size, level);
+			} catch (NumberFormatException e) {
+				throw new IOException("invalid bounding box of " + name);
+			}
+		}
+		return ret;
+	}
+
+	/**
+	 * @brief Fetches a new catalog if the server has one.
+	 *
+	 * @param file The catalog file
+	 * @param force true to ask the server even if the catalog was checked less than a day ago
+	 *
+	 * @return true if a new catalog was stored
+	 */
+	public static boolean refresh(File file, boolean force)
+	{
+		File state_file = getStateFile(file);
+		String etag = "";
+		long last_modified = 0;
+		long checked = 0;
+		if (file.exists() && state_file.exists()) {
+			try {
+				DataInputStream in = new DataInputStream(new FileInputStream(state_file));
+				try {
+					etag = in.readUTF();
+					last_modified = in.readLong();
+					checked = in.readLong();
+				} finally {
+					in.close();
+				}
+			} catch (IOException e) {
+				etag = "";
+				last_modified = 0;
+			}
+		}
+		long now = System.currentTimeMillis();
+		if (!force && now - checked < REFRESH_INTERVAL_MS && now >= checked)
+			return false;
+
+		HttpURLConnection c = null;
+		boolean ret = false;
+		try {
+			c = (HttpURLConnection) new URL(CATALOG_URL).openConnection();
+			c.setConnectTimeout(SOCKET_TIMEOUT);
+			c.setReadTimeout(SOCKET_TIMEOUT);
+			if (etag.length() > 0)
+				c.setRequestProperty("If-None-Match", etag);
+			if (last_modified > 0)
+				c.setIfModifiedSince(last_modified);
+			int response = c.getResponseCode();
+			if (response == HttpURLConnection.HTTP_NOT_MODIFIED) {
+				Log.d(TAG, "Map catalog is up to date");
+			} else if (response == HttpURLConnection.HTTP_OK) {
+				byte[] data = readAll(c.getInputStream());
+				// only store a catalog we can read
+				NavitMapDownloader.osm_map_values[] maps = parse(new ByteArrayInputStream(data));
+				File tmp = new File(file.getPath() + ".tmp");
+				FileOutputStream out = new FileOutputStream(tmp);
+				try {
+					out.write(data);
+				} finally {
+					out.close();
+				}
+				if (!tmp.renameTo(file)) {
+					file.delete();
+					if (!tmp.renameTo(file))
+						throw new IOException("cannot replace " + file);
+				}
+				etag = c.getHeaderField("ETag");
+				if (etag == null)
+					etag = "";
+				last_modified = c.getLastModified();
+				Log.d(TAG, "Stored map catalog with " + maps.length + " maps");
+				ret = true;
+			} else {
+				Log.d(TAG, "No map catalog on the server, response " + response);
+			}
+		} catch (IOException e) {
+			Log.e(TAG, "Could not refresh map catalog: " + e);
+		} finally {
+			if (c != null)
+				c.disconnect();
+		}
+
+		try {
+			DataOutputStream out = new DataOutputStream(new FileOutputStream(state_file));
+			try {
+				out.writeUTF(etag);
+				out.writeLong(last_modified);
+				out.writeLong(now);
+			} finally {
+				out.close();
+			}
+		} catch (IOException e) {
+			Log.e(TAG, "Could not write map catalog state: " + e);
+		}
+		return ret;
+	}
+
+	/**
+	 * @brief Refreshes the catalog in a background thread, if it was not checked for a day.
+	 */
+	public static void refreshInBackground()
+	{
+		new Thread("NavitMapCatalog") {
+			public void run() {
+				refresh(getCatalogFile(), false);
+			}
+		}.start();
+	}
+
+	private static byte[] readAll(InputStream in) throws IOException
+	{
+		try {
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			byte[] buffer = new byte[16 * 1024];
+			int len;
+			while ((len = in.read(buffer)) != -1) {
+				out.write(buffer, 0, len);
+				if (out.size() > MAX_CATALOG_SIZE)
+					throw new IOException("catalog too large");
+			}
+			return out.toByteArray();
+		} finally {
+			in.close();
+		}
+	}
+}
@@ -0,0 +1,448 @@
+/**
+ * Navit, a modular navigation system.
+ * Copyright (C) 2005-2008 Navit Team
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * version 2 as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor,
+ * Boston, MA  02110-1301, USA.
+ */
+
+package org.navitproject.navit;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+
+import android.util.Log;
+
+/**
+ * @brief Updates an existing map file by downloading only the blocks which changed.
+ *
+ * This works like zsync: next to each map file, the server publishes a block index (the map URL with
+ * {@link #INDEX_SUFFIX} appended) with a weak rolling checksum and an MD5 digest of each block of the
+ * new file. The old file is scanned with the rolling checksum to find blocks which are still present,
+ * possibly at a different offset. These are copied locally, the remaining blocks are fetched with
+ * range requests, and the result replaces the old file in a single rename.
+ *
+ * Index format (big endian): the magic {@code NAVITIDX}, int version (1), int block size, long file
+ * length, int block count, then for each block an int weak checksum and the 16 byte MD5 digest. The
+ * last block may be shorter than the block size. The weak checksum is the rsync one over the unsigned
+ * bytes x[0..n-1] of a block: {@code a = sum(x[i])}, {@code b = sum((n - i) * x[i])},
+ * {@code weak = (a & 0xffff) | (b << 16)}.
+ */
+public class NavitMapDeltaUpdater
+{
+	public static final String INDEX_SUFFIX = ".idx";
+
+	private static final String TAG = "NavitMapDeltaUpdater";
+	private static final String INDEX_MAGIC = "NAVITIDX";
+	private static final int INDEX_VERSION = 1;
+	private static final int MAX_BLOCK_SIZE = 1024 * 1024;
+	/* Bytes of the old file read at once while it is scanned, on top of two blocks */
+	private static final int SCAN_BUFFER_SIZE = 1024 * 1024;
+	/* The bitset of weak checksums has at most 2^MAX_FILTER_SHIFT bits (2 MB) */
+	private static final int MAX_FILTER_SHIFT = 24;
+	/* If more than this share of the file has to be fetched, a full download is just as good */
+	private static final float MAX_FETCH_RATIO = 0.6f;
+	private static final int SOCKET_CONNECT_TIMEOUT = 60000;
+	private static final int SOCKET_READ_TIMEOUT = 120000;
+
+	private final NavitMapDownloader downloader;
+	private final String map_name;
+
+	/* The block index of the new map file */
+	private int block_size;
+	private long length;
+	private int[] weak;
+	private byte[] strong;
+
+	public NavitMapDeltaUpdater(NavitMapDownloader downloader, String map_name)
+	{
+		this.downloader = downloader;
+		this.map_name = map_name;
+	}
+
+	/**
+	 * @brief Tries to bring the existing map file up to date.
+	 *
+	 * @return true if the map file was updated, false if a full download is needed
+	 */
+	public boolean update()
+	{
+		File map_file = downloader.getMapFile();
+		if (!map_file.exists())
+			return false;
+		File tmp_file = new File(map_file.getPath() + ".delta");
+		try {
+			URL url = resolveMapURL(downloader.getDownloadURL());
+			if (url == null || !readIndex(new URL(url.toString() + INDEX_SUFFIX)))
+				return false;
+
+			long[] source = findBlocks(map_file);
+			long fetch_bytes = 0;
+			for (int i = 0; i < source.length; i++) {
+				if (source[i] < 0)
+					fetch_bytes += blockLength(i);
+			}
+			Log.d(TAG, map_name + ": " + fetch_bytes + " of " + length + " bytes changed");
+			if (fetch_bytes > length * MAX_FETCH_RATIO) {
+				Log.d(TAG, "Too many changes, using a full download");
+				return false;
+			}
+			if (!downloader.checkFreeSpace(length))
+				return false;
+			if (!buildFile(map_file, tmp_file, source, url, fetch_bytes))
+				return false;
+			if (!tmp_file.renameTo(map_file)) {
+				map_file.delete();
+				if (!tmp_file.renameTo(map_file))
+					return false;
+			}
+			return true;
+		} catch (IOException e) {
+			Log.e(TAG, "Delta update of " + map_name + " failed: " + e);
+			return false;
+		} finally {
+			tmp_file.delete();
+		}
+	}
+
+	/**
+	 * @brief Finds the URL the map is served from, following the redirect of the map API.
+	 *
+	 * @return The URL of the map file, or null if the server does not redirect to a file
+	 */
+	private URL resolveMapURL(URL url) throws IOException
+	{
+		if (url == null)
+			return null;
+		HttpURLConnection c = (HttpURLConnection) url.openConnection();
+		try {
+			c.setInstanceFollowRedirects(false);
+			c.setConnectTimeout(SOCKET_CONNECT_TIMEOUT);
+			c.setReadTimeout(SOCKET_READ_TIMEOUT);
+			int response = c.getResponseCode();
+			String location = c.getHeaderField("Location");
+			if (response / 100 != 3 || location == null)
+				return null;
+			return new URL(url, location);
+		} finally {
+			c.disconnect();
+		}
+	}
+
+	private boolean readIndex(URL url) throws IOException
+	{
+		HttpURLConnection c = (HttpURLConnection) url.openConnection();
+		try {
+			c.setConnectTimeout(SOCKET_CONNECT_TIMEOUT);
+			c.setReadTimeout(SOCKET_READ_TIMEOUT);
+			if (c.getResponseCode() != HttpURLConnection.HTTP_OK) {
+				Log.d(TAG, "No block index at " + url);
+				return false;
+			}
+			DataInputStream in = new DataInputStream(new BufferedInputStream(c.getInputStream()));
+			try {
+				byte[] magic = new byte[INDEX_MAGIC.length()];
+				in.readFully(magic);
+				if (!INDEX_MAGIC.equals(new String(magic, "US-ASCII")) || in.readInt() != INDEX_VERSION) {
+					Log.e(TAG, "Unsupported block index at " + url);
+					return false;
+				}
+				block_size = in.readInt();
+				length = in.readLong();
+				int count = in.readInt();
+				if (block_size <= 0 || block_size > MAX_BLOCK_SIZE || length < 0
+				        || count != (int) ((length + block_size - 1) / block_size)) {
+					Log.e(TAG, "Invalid block index at " + url);
+					return false;
+				}
+				weak = new int[count];
+				strong = new byte[count * 16];
+				for (int i = 0; i < count; i++) {
+					weak[i] = in.readInt();
+					in.readFully(strong, i * 16, 16);
+				}
+			} finally {
+				in.close();
+			}
+			return true;
+		} finally {
+			c.disconnect();
+		}
+	}
+
+	private int blockLength(int block)
+	{
+		return (int) Math.min(block_size, length - (long) block * block_size);
+	}
+
+	private static MessageDigest md5()
+	{
+		try {
+			return MessageDigest.getInstance("MD5");
+		} catch (NoSuchAlgorithmException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	private boolean strongMatches(int block, byte[] digest)
+	{
+		for (int i = 0; i < 16; i++) {
+			if (strong[block * 16 + i] != digest[i])
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * @brief Looks for the blocks of the new file in the old one.
+	 *
+	 * The old file is scanned through a large window, so rolling the checksum by one byte is a few
+	 * array accesses. As in rsync, most offsets are rejected by a bitset of the weak checksums, the
+	 * candidates of the remaining ones are found by a binary search over the sorted weak checksums,
+	 * and only these are compared by their MD5 digest. Nothing is allocated per offset.
+	 *
+	 * @return For each block, its offset in the old file, or -1 if it has to be fetched
+	 */
+	private long[] findBlocks(File old_file) throws IOException
+	{
+		int count = weak.length;
+		long[] ret = new long[count];
+		Arrays.fill(ret, -1);
+		/* Only full blocks can be found by the rolling checksum, a short last block is always fetched */
+		int full_blocks = (int) (length / block_size);
+		if (full_blocks == 0 || old_file.length() < block_size)
+			return ret;
+
+		/* The weak checksum of each block in the upper half, the block in the lower half, sorted */
+		long[] candidates = new long[full_blocks];
+		for (int i = 0; i < full_blocks; i++)
+			candidates[i] = ((long) weak[i] << 32) | i;
+		Arrays.sort(candidates);
+		/* At least 16 bits per block, so few offsets without a candidate pass the filter */
+		int filter_shift = 16;
+		while (filter_shift < MAX_FILTER_SHIFT && (1 << filter_shift) < full_blocks * 16)
+			filter_shift++;
+		long[] filter = new long[1 << (filter_shift - 6)];
+		for (int i = 0; i < full_blocks; i++) {
+			int bit = filterBit(weak[i], filter_shift);
+			filter[bit >>> 6] |= 1L << bit;
+		}
+
+		MessageDigest md = md5();
+		int n = block_size;
+		/* buffer[pos, end) holds the old file from offset on, always at least one block ahead */
+		byte[] buffer = new byte[2 * n + SCAN_BUFFER_SIZE];
+		InputStream in = new FileInputStream(old_file);
+		try {
+			int end = read(in, buffer, 0);
+			if (end < n)
+				return ret;
+			int pos = 0;
+			long offset = 0;
+			int a = 0, b = 0;
+			for (int i = 0; i < n; i++) {
+				a += buffer[i] & 0xff;
+				b += (n - i) * (buffer[i] & 0xff);
+			}
+			int found = 0;
+			while (!downloader.isStopped()) {
+				boolean matched = false;
+				int w = (a & 0xffff) | (b << 16);
+				int bit = filterBit(w, filter_shift);
+				if ((filter[bit >>> 6] & (1L << bit)) != 0) {
+					int k = firstCandidate(candidates, w);
+					if (k < full_blocks && (int) (candidates[k] >> 32) == w) {
+						md.reset();
+						md.update(buffer, pos, n);
+						byte[] digest = md.digest();
+						for (; k < full_blocks && (int) (candidates[k] >> 32) == w; k++) {
+							int block = (int) candidates[k];
+							if (ret[block] < 0 && strongMatches(block, digest)) {
+								ret[block] = offset;
+								found++;
+								matched = true;
+							}
+						}
+					}
+				}
+				if (matched && found == full_blocks)
+					break;
+				int step = matched ? n : 1;
+				if (pos + step + n > end) {
+					System.arraycopy(buffer, pos, buffer, 0, end - pos);
+					end -= pos;
+					pos = 0;
+					end = read(in, buffer, end);
+					if (step + n > end)
+						break;
+				}
+				if (matched) {
+					pos += n;
+					offset += n;
+					a = 0;
+					b = 0;
+					for (int i = 0; i < n; i++) {
+						a += buffer[pos + i] & 0xff;
+						b += (n - i) * (buffer[pos + i] & 0xff);
+					}
+				} else {
+					int out = buffer[pos] & 0xff;
+					a += (buffer[pos + n] & 0xff) - out;
+					b += a - n * out;
+					pos++;
+					offset++;
+				}
+			}
+		} finally {
+			in.close();
+		}
+		return ret;
+	}
+
+	private static int filterBit(int weak, int shift)
+	{
+		return (weak * 0x9e3779b1) >>> (32 - shift);
+	}
+
+	/** @brief Returns the index of the first candidate with the given weak checksum, or where it would be. */
+	private static int firstCandidate(long[] candidates, int weak)
+	{
+		long key = (long) weak << 32;
+		int low = 0, high = candidates.length;
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			if (candidates[mid] < key)
+				low = mid + 1;
+			else
+				high = mid;
+		}
+		return low;
+	}
+
+	/**
+	 * @brief Reads from a stream into a buffer until the buffer is full or the stream ends.
+	 *
+	 * @return The end of the data in the buffer
+	 */
+	private static int read(InputStream in, byte[] buffer, int pos) throws IOException
+	{
+		while (pos < buffer.length) {
+			int len = in.read(buffer, pos, buffer.length - pos);
+			if (len < 0)
+				break;
+			pos += len;
+		}
+		return pos;
+	}
+
+	/**
+	 * @brief Writes the new file from the blocks found in the old one and those fetched from the server.
+	 */
+	private boolean buildFile(File old_file, File new_file, long[] source, URL url, long fetch_bytes)
+	        throws IOException
+	{
+		byte[] buffer = new byte[block_size];
+		RandomAccessFile in = new RandomAccessFile(old_file, "r");
+		RandomAccessFile out = new RandomAccessFile(new_file, "rw");
+		try {
+			out.setLength(length);
+			for (int i = 0; i < source.length; i++) {
+				if (source[i] >= 0) {
+					in.seek(source[i]);
+					in.readFully(buffer, 0, block_size);
+					out.seek((long) i * block_size);
+					out.write(buffer, 0, block_size);
+				}
+			}
+			MessageDigest md = md5();
+			long fetched = 0;
+			int i = 0;
+			while (i < source.length) {
+				if (source[i] >= 0) {
+					i++;
+					continue;
+				}
+				/* fetch consecutive missing blocks with a single request */
+				int first = i;
+				while (i < source.length && source[i] < 0)
+					i++;
+				if (!fetchBlocks(url, first, i, out, buffer, md))
+					return false;
+				for (int block = first; block < i; block++)
+					fetched += blockLength(block);
+				downloader.updateProgress(fetched, fetch_bytes, Navit.T("downloading") + ": " + map_name);
+			}
+			return true;
+		} finally {
+			in.close();
+			out.close();
+		}
+	}
+
+	private boolean fetchBlocks(URL url, int first, int end, RandomAccessFile out, byte[] buffer, MessageDigest md)
+	        throws IOException
+	{
+		long start = (long) first * block_size;
+		long stop = Math.min((long) end * block_size, length);
+		HttpURLConnection c = (HttpURLConnection) url.openConnection();
+		try {
+			c.setConnectTimeout(SOCKET_CONNECT_TIMEOUT);
+			c.setReadTimeout(SOCKET_READ_TIMEOUT);
+			c.setRequestProperty("Range", "bytes=" + start + "-" + (stop - 1));
+			c.setRequestProperty("Accept-Encoding", "identity");
+			if (c.getResponseCode() != HttpURLConnection.HTTP_PARTIAL) {
+				Log.e(TAG, "Server did not honour range request, response " + c.getResponseCode());
+				return false;
+			}
+			InputStream in = new BufferedInputStream(c.getInputStream(), 1024 * 64);
+			try {
+				out.seek(start);
+				for (int block = first; block < end; block++) {
+					if (downloader.isStopped())
+						return false;
+					int len = blockLength(block);
+					int pos = 0;
+					while (pos < len) {
+						int read = in.read(buffer, pos, len - pos);
+						if (read < 0)
+							return false;
+						pos += read;
+					}
+					md.reset();
+					md.update(buffer, 0, len);
+					if (!strongMatches(block, md.digest())) {
+						Log.e(TAG, "Block " + block + " does not match the index");
+						return false;
+					}
+					out.write(buffer, 0, len);
+				}
+			} finally {
+				in.close();
+			}
+			return true;
+		} finally {
+			c.disconnect();
+		}
+	}
+}
@@ -26,15 +26,24 @@ import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.FilenameFilter;
+import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.io.SequenceInputStream;
 import java.net.HttpURLConnection;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.net.URLConnection;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.ZipException;
 
 import android.location.Location;
 import android.os.Bundle;
@@ -54,251 +63,304 @@ public class NavitMapDownloader extends Thread
 		String  lat1;
 		String  lon2;
 		String  lat2;
-		String  map_name                     = "";
+		/* The untranslated name, parts separated by '|' are translated one by one, see getMapName() */
+		String  name                         = "";
+		private String map_name;
 		long    est_size_bytes               = 0;
 		int     level                        = 0;
+		/* The bounding box, parsed once for the spatial queries */
+		double  min_lon;
+		double  min_lat;
+		double  max_lon;
+		double  max_lat;
 
 
 		public osm_map_values(String mapname, String lon_1, String lat_1, String lon_2, String lat_2,
 				long bytes_est, int level)
 		{
-			this.map_name = mapname;
+			this.name = mapname;
 			this.lon1 = lon_1;
 			this.lat1 = lat_1;
 			this.lon2 = lon_2;
 			this.lat2 = lat_2;
 			this.est_size_bytes = bytes_est;
 			this.level = level;
+			this.min_lon = Double.parseDouble(lon_1);
+			this.min_lat = Double.parseDouble(lat_1);
+			this.max_lon = Double.parseDouble(lon_2);
+			this.max_lat = Double.parseDouble(lat_2);
 		}
 		
+		/** @brief Returns the translated name, which is also the base name of the map file. */
+		public String getMapName() {
+			if (map_name == null) {
+				StringBuilder ret = new StringBuilder();
+				for (String part : name.split("\\|"))
+					ret.append(Navit.T(part));
+				map_name = ret.toString();
+			}
+			return map_name;
+		}
+
 		public boolean isInMap(Location location) {
-			double longitude_1 = Double.valueOf(this.lon1);
-			double latitude_1 = Double.valueOf(this.lat1);
-			double longitude_2 = Double.valueOf(this.lon2);
-			double latitude_2 = Double.valueOf(this.lat2);
+			return contains(location.getLatitude(), location.getLongitude());
+		}
 
-			if (location.getLongitude() < longitude_1)
-				return false;
-			if (location.getLongitude() > longitude_2)
-				return false;
-			if (location.getLatitude() < latitude_1)
-				return false;
-			if (location.getLatitude() > latitude_2)
-				return false;
+		public boolean contains(double lat, double lon) {
+			return lon >= min_lon && lon <= max_lon && lat >= min_lat && lat <= max_lat;
+		}
 
-			return true;
+		public boolean intersects(double lat_1, double lon_1, double lat_2, double lon_2) {
+			return lon_2 >= min_lon && lon_1 <= max_lon && lat_2 >= min_lat && lat_1 <= max_lat;
 		}
 	}
 	
 	//
-	// define the maps here
+	// define the maps here, used until a catalog was fetched from the server
 	// size estimations updated 2017-06-22
 	//
-	public static final osm_map_values[] osm_maps = {
-		new osm_map_values(Navit.T("Whole Planet"), "-180", "-90", "180", "90", 23992258630L, 0),
-		new osm_map_values(Navit.T("Africa"), "-30.89", "-36.17", "61.68", "38.40", 2070076339L, 0),
-		new osm_map_values(Navit.T("Angola"), "11.4", "-18.1", "24.2", "-5.3", 127557789L, 1),
-		new osm_map_values(Navit.T("Burundi"), "28.9", "-4.5", "30.9", "-2.2", 124049667L, 1),
-		new osm_map_values(Navit.T("Canary Islands"), "-18.69", "26.52", "-12.79", "29.99", 133565815L, 1),
-		new osm_map_values(Navit.T("Congo, Democratic Republic of the"), "11.7", "-13.6", "31.5", "5.7", 244228485L, 1),
-		new osm_map_values(Navit.T("Ethiopia"), "32.89", "3.33", "48.07", "14.97", 153067406L, 1),
-		new osm_map_values(Navit.T("Guinea"), "-15.47", "7.12", "-7.58", "12.74", 188047126L, 1),
-		new osm_map_values(Navit.T("Cote d'Ivoire"), "-8.72", "4.09", "-2.43", "10.80", 132187496L, 1),
-		new osm_map_values(Navit.T("Kenya"), "33.8", "-5.2", "42.4", "4.9", 190073089L, 1),
-		new osm_map_values(Navit.T("Lesotho"), "26.9", "-30.7", "29.6", "-28.4", 196189429L, 1),
-		new osm_map_values(Navit.T("Liberia"), "-15.00", "-0.73", "-7.20", "8.65", 156257253L, 1),
-		new osm_map_values(Navit.T("Libya"), "9.32", "19.40", "25.54", "33.63", 126046917L, 1),
-		new osm_map_values(Navit.T("Madagascar"), "42.25", "-26.63", "51.20", "-11.31", 145210721L, 1),
-		new osm_map_values(Navit.T("Namibia")+"+"+Navit.T("Botswana"), "11.4", "-29.1", "29.5", "-16.9", 248970987L, 1),
-		new osm_map_values(Navit.T("Reunion"), "55.2", "-21.4", "55.9", "-20.9", 126008774L, 1),
-		new osm_map_values(Navit.T("Rwanda"), "28.8", "-2.9", "30.9", "-1.0", 128267595L, 1),
-		new osm_map_values(Navit.T("South Africa")+"+"+Navit.T("Lesotho"), "15.93", "-36.36", "33.65", "-22.08", 307280006L, 1),
-		new osm_map_values(Navit.T("Tanzania, United Republic of"), "29.19", "-11.87", "40.74", "-0.88", 253621029L, 1),
-		new osm_map_values(Navit.T("Uganda"), "29.3", "-1.6", "35.1", "4.3", 179134521L, 1),
-		new osm_map_values(Navit.T("Asia"), "23.8", "0.1", "195.0", "82.4", 5113673780L, 0),
-		new osm_map_values(Navit.T("Azerbaijan"), "44.74", "38.34", "51.69", "42.37", 138346406L, 1),
-		new osm_map_values(Navit.T("China"), "67.3", "5.3", "135.0", "54.5", 1718108758L, 1),
-		new osm_map_values(Navit.T("Cyprus"), "32.0", "34.5", "34.9", "35.8", 118472448L, 1),
-		new osm_map_values(Navit.T("India")+"+"+Navit.T("Nepal"), "67.9", "5.5", "89.6", "36.0", 601877877L, 1),
-		new osm_map_values(Navit.T("Indonesia"), "93.7", "-17.3", "155.5", "7.6", 420741405L, 1),
-		new osm_map_values(Navit.T("Iran, Islamic Republic of"), "43.5", "24.4", "63.6", "40.4", 242016066L, 1),
-		new osm_map_values(Navit.T("Iraq"), "38.7", "28.5", "49.2", "37.4", 160751805L, 1),
-		new osm_map_values(Navit.T("Israel"), "33.99", "29.8", "35.95", "33.4", 155685778L, 1),
-		new osm_map_values(Navit.T("Japan")+"+"+Navit.T("Korea"), "123.6", "25.2", "151.3", "47.1", 1029080156L, 1),
-		new osm_map_values(Navit.T("Kazakhstan"), "46.44", "40.89", "87.36", "55.45", 407633007L, 1),
-		new osm_map_values(Navit.T("Kyrgyzstan"), "69.23", "39.13", "80.33", "43.29", 147997835L, 1),
-		new osm_map_values(Navit.T("Malaysia")+"+"+Navit.T("Singapore"), "94.3", "-5.9", "108.6", "6.8", 168816435L, 1),
-		new osm_map_values(Navit.T("Mongolia"), "87.5", "41.4", "120.3", "52.7", 153534851L, 1),
-		new osm_map_values(Navit.T("Pakistan"), "60.83", "23.28", "77.89", "37.15", 217644321L, 1),
-		new osm_map_values(Navit.T("Philippines"), "115.58", "4.47", "127.85", "21.60", 281428307L, 1),
-		new osm_map_values(Navit.T("Saudi Arabia"), "33.2", "16.1", "55.9", "33.5", 242648303L, 1),
-		new osm_map_values(Navit.T("Taiwan"), "119.1", "21.5", "122.5", "25.2", 1029080156L, 1),
-		new osm_map_values(Navit.T("Thailand"), "97.5", "5.7", "105.2", "19.7", 185135492L, 1),
-		new osm_map_values(Navit.T("Turkey"), "25.1", "35.8", "46.4", "42.8", 331087441L, 1),
-		new osm_map_values(Navit.T("Turkmenistan"), "51.78", "35.07", "66.76", "42.91", 131045087L, 1),
-		new osm_map_values(Navit.T("UAE+Other"), "51.5", "22.6", "56.7", "26.5", 128934674L, 1),
-		new osm_map_values(Navit.T("Australia")+"+"+Navit.T("Oceania"), "89.84", "-57.39", "179.79", "7.26", 782722650L, 0),
-		new osm_map_values(Navit.T("Australia"), "110.5", "-44.2", "154.9", "-9.2", 348652900L, 0),
-		new osm_map_values(Navit.T("Tasmania"), "144.0", "-45.1", "155.3", "-24.8", 253231890L, 1),
-		new osm_map_values(Navit.T("Victoria")+"+"+Navit.T("New South Wales"), "140.7", "-39.4", "153.7", "-26.9", 241500829L, 1),
-		new osm_map_values(Navit.T("New Caledonia"), "157.85", "-25.05", "174.15", "-16.85", 115512336L, 1),
-		new osm_map_values(Navit.T("New Zealand"), "165.2", "-47.6", "179.1", "-33.7", 239264192L, 1),
-		new osm_map_values(Navit.T("Europe"), "-12.97", "33.59", "34.15", "72.10", 11984126789L, 0),
-		new osm_map_values(Navit.T("Western Europe"), "-17.6", "34.5", "42.9", "70.9", 12648810717L, 1),
-		new osm_map_values(Navit.T("Austria"), "9.4", "46.32", "17.21", "49.1", 898273634L, 1),
-		new osm_map_values(Navit.T("Azores"), "-31.62", "36.63", "-24.67", "40.13", 112687225L, 1),
-		new osm_map_values(Navit.T("BeNeLux"), "2.08", "48.87", "7.78", "54.52", 1771971595L, 1),
-		new osm_map_values(Navit.T("Netherlands"), "3.07", "50.75", "7.23", "53.73", 1191828033L, 1),
-		new osm_map_values(Navit.T("Denmark"), "7.65", "54.32", "15.58", "58.07", 365606979L, 1),
-		new osm_map_values(Navit.T("Faroe Islands"), "-7.8", "61.3", "-6.1", "62.5", 109377568L, 1),
-		new osm_map_values(Navit.T("France"), "-5.45", "42.00", "8.44", "51.68", 3907969744L, 1),
-		new osm_map_values(Navit.T("Alsace"), "6.79", "47.27", "8.48", "49.17", 354249349L, 2),
-		new osm_map_values(Navit.T("Aquitaine"), "-2.27", "42.44", "1.50", "45.76", 443715019L, 2),
-		new osm_map_values(Navit.T("Auvergne"), "2.01", "44.57", "4.54", "46.85", 287663213L, 2),
-		new osm_map_values(Navit.T("Basse-Normandie"), "-2.09", "48.13", "1.03", "49.98", 262352354L, 2),
-		new osm_map_values(Navit.T("Bourgogne"), "2.80", "46.11", "5.58", "48.45", 298868796L, 2),
-		new osm_map_values(Navit.T("Bretagne"), "-5.58", "46.95", "-0.96", "48.99", 382770794L, 2),
-		new osm_map_values(Navit.T("Centre"), "0.01", "46.29", "3.18", "48.99", 474224721L, 2),
-		new osm_map_values(Navit.T("Champagne-Ardenne"), "3.34", "47.53", "5.94", "50.28", 269947824L, 2),
-		new osm_map_values(Navit.T("Corse"), "8.12", "41.32", "9.95", "43.28", 129902146L, 2),
-		new osm_map_values(Navit.T("Franche-Comte"), "5.20", "46.21", "7.83", "48.07", 324476070L, 2),
-		new osm_map_values(Navit.T("Haute-Normandie"), "-0.15", "48.62", "1.85", "50.18", 202782876L, 2),
-		new osm_map_values(Navit.T("Ile-de-France"), "1.40", "48.07", "3.61", "49.29", 311052699L, 2),
-		new osm_map_values(Navit.T("Languedoc-Roussillon"), "1.53", "42.25", "4.89", "45.02", 380145667L, 2),
-		new osm_map_values(Navit.T("Limousin"), "0.58", "44.87", "2.66", "46.50", 206696539L, 2),
-		new osm_map_values(Navit.T("Lorraine"), "4.84", "47.77", "7.72", "49.73", 330777318L, 2),
-		new osm_map_values(Navit.T("Midi-Pyrenees"), "-0.37", "42.18", "3.50", "45.10", 462618363L, 2),
-		new osm_map_values(Navit.T("Nord-pas-de-Calais"), "1.42", "49.92", "4.49", "51.31", 368467511L, 2),
-		new osm_map_values(Navit.T("Pays-de-la-Loire"), "-2.88", "46.20", "0.97", "48.62", 499471143L, 2),
-		new osm_map_values(Navit.T("Picardie"), "1.25", "48.79", "4.31", "50.43", 374308041L, 2),
-		new osm_map_values(Navit.T("Poitou-Charentes"), "-1.69", "45.04", "1.26", "47.23", 342125526L, 2),
-		new osm_map_values(Navit.T("Provence-Alpes-Cote-d-Azur"), "4.21", "42.91", "7.99", "45.18", 390306134L, 2),
-		new osm_map_values(Navit.T("Rhone-Alpes"), "3.65", "44.07", "7.88", "46.64", 510797942L, 2),
-		new osm_map_values(Navit.T("Germany"), "5.18", "46.84", "15.47", "55.64", 3521359466L, 1),
-		new osm_map_values(Navit.T("Baden-Wuerttemberg"), "7.32", "47.14", "10.57", "49.85", 674361124L, 2),
-		new osm_map_values(Navit.T("Bayern"), "8.92", "47.22", "13.90", "50.62", 860161150L, 2),
-		new osm_map_values(Navit.T("Mittelfranken"), "9.86", "48.78", "11.65", "49.84", 203055195L, 2),
-		new osm_map_values(Navit.T("Niederbayern"), "11.55", "47.75", "14.12", "49.42", 312924770L, 2),
-		new osm_map_values(Navit.T("Oberbayern"), "10.67", "47.05", "13.57", "49.14", 382734883L, 2),
-		new osm_map_values(Navit.T("Oberfranken"), "10.31", "49.54", "12.49", "50.95", 235258691L, 2),
-		new osm_map_values(Navit.T("Oberpfalz"), "11.14", "48.71", "13.47", "50.43", 264536012L, 2),
-		new osm_map_values(Navit.T("Schwaben"), "9.27", "47.10", "11.36", "49.09", 321141607L, 2),
-		new osm_map_values(Navit.T("Unterfranken"), "8.59", "49.16", "10.93", "50.67", 303720890L, 2),
-		new osm_map_values(Navit.T("Berlin"), "13.03", "52.28", "13.81", "52.73", 169019946L, 2),
-		new osm_map_values(Navit.T("Brandenburg"), "11.17", "51.30", "14.83", "53.63", 323497599L, 2),
-		new osm_map_values(Navit.T("Bremen"), "8.43", "52.96", "9.04", "53.66", 150963608L, 2),
-		new osm_map_values(Navit.T("Hamburg"), "9.56", "53.34", "10.39", "53.80", 156284421L, 2),
-		new osm_map_values(Navit.T("Hessen"), "7.72", "49.34", "10.29", "51.71", 432279328L, 2),
-		new osm_map_values(Navit.T("Mecklenburg-Vorpommern"), "10.54", "53.05", "14.48", "55.05", 213183908L, 2),
-		new osm_map_values(Navit.T("Niedersachsen"), "6.40", "51.24", "11.69", "54.22", 819766939L, 2),
-		new osm_map_values(Navit.T("Nordrhein-westfalen"), "5.46", "50.26", "9.52", "52.59", 967053517L, 2),
-		new osm_map_values(Navit.T("Rheinland-Pfalz"), "6.06", "48.91", "8.56", "51.00", 442868899L, 2),
-		new osm_map_values(Navit.T("Saarland"), "6.30", "49.06", "7.46", "49.69", 157721162L, 2),
-		new osm_map_values(Navit.T("Sachsen-Anhalt"), "10.50", "50.88", "13.26", "53.11", 287785088L, 2),
-		new osm_map_values(Navit.T("Sachsen"), "11.82", "50.11", "15.10", "51.73", 342620834L, 2),
-		new osm_map_values(Navit.T("Schleswig-Holstein"), "7.41", "53.30", "11.98", "55.20", 280293910L, 2),
-		new osm_map_values(Navit.T("Thueringen"), "9.81", "50.15", "12.72", "51.70", 269428239L, 2),
-		new osm_map_values(Navit.T("Germany")+"+"+Navit.T("Austria")+"+"+Navit.T("Switzerland"), "3.4", "44.5", "18.6", "55.1", 5746126429L, 1),
-		new osm_map_values(Navit.T("Iceland"), "-25.3", "62.8", "-11.4", "67.5", 124837162L, 1),
-		new osm_map_values(Navit.T("Ireland"), "-11.17", "51.25", "-5.23", "55.9", 234750271L, 1),
-		new osm_map_values(Navit.T("Italy"), "6.52", "36.38", "18.96", "47.19", 1610171395L, 1),
-		new osm_map_values(Navit.T("Spain")+"+"+Navit.T("Portugal"), "-11.04", "34.87", "4.62", "44.41", 1039624918L, 1),
-		new osm_map_values(Navit.T("Mallorca"), "2.2", "38.8", "4.7", "40.2", 137200636L, 2),
-		new osm_map_values(Navit.T("Galicia"), "-10.0", "41.7", "-6.3", "44.1", 174549553L, 2),
-		new osm_map_values(Navit.T("Scandinavia"), "4.0", "54.4", "32.1", "71.5", 1398661090L, 1),
-		new osm_map_values(Navit.T("Finland"), "18.6", "59.2", "32.3", "70.3", 460997178L, 1),
-		new osm_map_values(Navit.T("Denmark"), "7.49", "54.33", "13.05", "57.88", 321870414L, 1),
-		new osm_map_values(Navit.T("Switzerland"), "5.79", "45.74", "10.59", "47.84", 552565332L, 1),
-		new osm_map_values(Navit.T("United Kingdom"), "-9.7", "49.6", "2.2", "61.2", 901724648L, 1),
-		new osm_map_values(Navit.T("England"), "-7.80", "48.93", "2.41", "56.14", 937728414L, 1),
-		new osm_map_values(Navit.T("Buckinghamshire"), "-1.19", "51.44", "-0.43", "52.25", 142256978L, 2),
-		new osm_map_values(Navit.T("Cambridgeshire"), "-0.55", "51.96", "0.56", "52.79", 142334001L, 2),
-		new osm_map_values(Navit.T("Cumbria"), "-3.96", "53.85", "-2.11", "55.24", 144422460L, 2),
-		new osm_map_values(Navit.T("East yorkshire with hull"), "-1.16", "53.50", "0.54", "54.26", 141518744L, 2),
-		new osm_map_values(Navit.T("Essex"), "-0.07", "51.40", "1.36", "52.14", 162542730L, 2),
-		new osm_map_values(Navit.T("Herefordshire"), "-3.19", "51.78", "-2.29", "52.45", 129368660L, 2),
-		new osm_map_values(Navit.T("Kent"), "-0.02", "50.81", "1.65", "51.53", 145482562L, 2),
-		new osm_map_values(Navit.T("Lancashire"), "-3.20", "53.43", "-2.00", "54.29", 148964975L, 2),
-		new osm_map_values(Navit.T("Leicestershire"), "-1.65", "52.34", "-0.61", "53.03", 154199956L, 2),
-		new osm_map_values(Navit.T("Norfolk"),  "0.10", "52.30", "2.04", "53.41", 146017009L, 2),
-		new osm_map_values(Navit.T("Nottinghamshire"), "-1.39", "52.73", "-0.62", "53.55", 147986548L, 2),
-		new osm_map_values(Navit.T("Oxfordshire"), "-1.77", "51.41", "-0.82", "52.22", 142240992L, 2),
-		new osm_map_values(Navit.T("Shropshire"), "-3.29", "52.26", "-2.18", "53.05", 136909363L, 2),
-		new osm_map_values(Navit.T("Somerset"), "-3.89", "50.77", "-2.20", "51.40", 145186096L, 2),
-		new osm_map_values(Navit.T("South yorkshire"), "-1.88", "53.25", "-0.80", "53.71", 145902650L, 2),
-		new osm_map_values(Navit.T("Suffolk"), "0.29", "51.88", "1.81", "52.60", 143799697L, 2),
-		new osm_map_values(Navit.T("Surrey"), "-0.90", "51.02", "0.10", "51.52", 157987139L, 2),
-		new osm_map_values(Navit.T("Wiltshire"),  "-2.41", "50.90", "-1.44", "51.76", 138652346L, 2),
-		new osm_map_values(Navit.T("Scotland"), "-8.13", "54.49", "-0.15", "61.40", 258853845L, 2),
-		new osm_map_values(Navit.T("Wales"), "-5.56", "51.28", "-2.60", "53.60", 193593409L, 2),
-		new osm_map_values(Navit.T("Albania"), "19.09", "39.55", "21.12", "42.72", 146199817L, 1),
-		new osm_map_values(Navit.T("Belarus"), "23.12", "51.21", "32.87", "56.23", 324470696L, 1),
-		new osm_map_values(Navit.T("Russian Federation"), "27.9", "41.5", "190.4", "77.6", 2148314279L, 1),
-		new osm_map_values(Navit.T("Bulgaria"), "24.7", "42.1", "24.8", "42.1", 109869373L, 1),
-		new osm_map_values(Navit.T("Bosnia and Herzegovina"), "15.69", "42.52", "19.67", "45.32", 187122485L, 1),
-		new osm_map_values(Navit.T("Czech Republic"), "11.91", "48.48", "19.02", "51.17", 904838442L, 1),
-		new osm_map_values(Navit.T("Croatia"), "13.4", "42.1", "19.4", "46.9", 460854751L, 1),
-		new osm_map_values(Navit.T("Estonia"), "21.5", "57.5", "28.2", "59.6", 173378927L, 1),
-		new osm_map_values(Navit.T("Greece"), "28.9", "37.8", "29.0", "37.8", 109435051L, 1),
-		new osm_map_values(Navit.T("Crete"), "23.3", "34.5", "26.8", "36.0", 115985063L, 1),
-		new osm_map_values(Navit.T("Hungary"), "16.08", "45.57", "23.03", "48.39", 350318541L, 1),
-		new osm_map_values(Navit.T("Latvia"), "20.7", "55.6", "28.3", "58.1", 188188140L, 1),
-		new osm_map_values(Navit.T("Lithuania"), "20.9", "53.8", "26.9", "56.5", 217852597L, 1),
-		new osm_map_values(Navit.T("Poland"), "13.6", "48.8", "24.5", "55.0", 1464968657L, 1),
-		new osm_map_values(Navit.T("Romania"), "20.3", "43.5", "29.9", "48.4", 347931565L, 1),
-		new osm_map_values(Navit.T("Ukraine"),  "22.0", "44.3", "40.4", "52.4", 793611912L, 1),
-		new osm_map_values(Navit.T("North America"), "-178.1", "6.5", "-10.4", "84.0", 5601866516L, 0),
-		new osm_map_values(Navit.T("Alaska"), "-179.5", "49.5", "-129", "71.6", 207746039L, 1),
-		new osm_map_values(Navit.T("Canada"), "-141.3", "41.5", "-52.2", "70.2", 2635719651L, 1),
-		new osm_map_values(Navit.T("Hawaii"), "-161.07", "18.49", "-154.45", "22.85", 115016656L, 1),
-		new osm_map_values(Navit.T("USA")+Navit.T(" (except Alaska and Hawaii)"), "-125.4", "24.3", "-66.5", "49.3", 4060487198L, 1),
-		new osm_map_values(Navit.T("Midwest"), "-104.11", "35.92", "-80.46", "49.46", 1145596450L, 2),
-		new osm_map_values(Navit.T("Michigan"), "-90.47", "41.64", "-79.00", "49.37", 538247019L, 2),
-		new osm_map_values(Navit.T("Ohio"), "-84.87", "38.05", "-79.85", "43.53", 277022336L, 2),
-		new osm_map_values(Navit.T("Northeast"), "-80.58", "38.72", "-66.83", "47.53", 1017160709L, 2),
-		new osm_map_values(Navit.T("Massachusetts"), "-73.56", "40.78", "-68.67", "42.94", 340055487L, 2),
-		new osm_map_values(Navit.T("Vermont"), "-73.49", "42.68", "-71.41", "45.07", 139626067L, 2),
-		new osm_map_values(Navit.T("Pacific"), "-180.05", "15.87", "-129.75", "73.04", 207090640L, 2),
-		new osm_map_values(Navit.T("South"),  "-106.70", "23.98", "-71.46", "40.70", 1747935356L, 2),
-		new osm_map_values(Navit.T("Arkansas"), "-94.67", "32.95", "-89.59", "36.60", 155658661L, 2),
-		new osm_map_values(Navit.T("District of Columbia"), "-77.17", "38.74", "-76.86", "39.05", 129235755L, 2),
-		new osm_map_values(Navit.T("Florida"), "-88.75", "23.63", "-77.67", "31.05", 224022108L, 2),
-		new osm_map_values(Navit.T("Louisiana"), "-94.09", "28.09", "-88.62", "33.07", 210120605L, 2),
-		new osm_map_values(Navit.T("Maryland"), "-79.54", "37.83", "-74.99", "40.22", 276462622L, 2),
-		new osm_map_values(Navit.T("Mississippi"), "-91.71", "29.99", "-88.04", "35.05", 177858031L, 2),
-		new osm_map_values(Navit.T("Oklahoma"), "-103.41", "33.56", "-94.38", "37.38", 200061473L, 2),
-		new osm_map_values(Navit.T("Texas"), "-106.96", "25.62", "-92.97", "36.58", 430089141L, 2),
-		new osm_map_values(Navit.T("Virginia"), "-83.73", "36.49", "-74.25", "39.52", 384187569L, 2),
-		new osm_map_values(Navit.T("West Virginia"), "-82.70", "37.15", "-77.66", "40.97", 220552071L, 2),
-		new osm_map_values(Navit.T("West"), "-133.11", "31.28", "-101.99", "49.51", 1152909162L, 2),
-		new osm_map_values(Navit.T("Arizona"), "-114.88", "30.01", "-108.99", "37.06", 182826833L, 2),
-		new osm_map_values(Navit.T("California"), "-125.94", "32.43", "-114.08", "42.07", 586923326L, 2),
-		new osm_map_values(Navit.T("Colorado"), "-109.11", "36.52", "-100.41", "41.05", 228623724L, 2),
-		new osm_map_values(Navit.T("Idaho"), "-117.30", "41.93", "-110.99", "49.18", 170684507L, 2),
-		new osm_map_values(Navit.T("Montana"), "-116.10", "44.31", "-102.64", "49.74", 176229800L, 2),
-		new osm_map_values(Navit.T("New Mexico"), "-109.10", "26.98", "-96.07", "37.05", 361793070L, 2),
-		new osm_map_values(Navit.T("Nevada"), "-120.2", "35.0", "-113.8", "42.1", 200614482L, 2),
-		new osm_map_values(Navit.T("Oregon"),  "-124.8", "41.8", "-116.3", "46.3", 211462685L, 2),
-		new osm_map_values(Navit.T("Utah"), "-114.11", "36.95", "-108.99", "42.05", 151590197L, 2),
-		new osm_map_values(Navit.T("Washington State"), "-125.0", "45.5", "-116.9", "49.0", 222553768L, 2),
-		new osm_map_values(Navit.T("South+Middle America"), "-83.5", "-56.3", "-30.8", "13.7", 958895383L, 0),
-		new osm_map_values(Navit.T("Argentina"), "-73.9", "-57.3", "-51.6", "-21.0", 376857648L, 1),
-		new osm_map_values(Navit.T("Argentina")+"+"+Navit.T("Chile"), "-77.2", "-56.3", "-52.7", "-16.1", 420275812L, 1),
-		new osm_map_values(Navit.T("Bolivia"), "-70.5", "-23.1", "-57.3", "-9.3", 175937824L, 1),
-		new osm_map_values(Navit.T("Brazil"), "-71.4", "-34.7", "-32.8", "5.4", 664872975L, 1),
-		new osm_map_values(Navit.T("Chile"), "-81.77", "-58.50", "-65.46", "-17.41", 241657330L, 1),
-		new osm_map_values(Navit.T("Cuba"), "-85.3", "19.6", "-74.0", "23.6", 129043575L, 1),
-		new osm_map_values(Navit.T("Colombia"), "-79.1", "-4.0", "-66.7", "12.6", 212016580L, 1),
-		new osm_map_values(Navit.T("Ecuador"), "-82.6", "-5.4", "-74.4", "2.3", 158857591L, 1),
-		new osm_map_values(Navit.T("Guyana")+"+"+Navit.T("Suriname")+"+"+Navit.T("Guyane Francaise"), "-62.0", "1.0", "-51.2", "8.9", 123000072L, 1),
-		new osm_map_values(Navit.T("Haiti")+"+"+Navit.T("Dominican Republic"), "-74.8", "17.3", "-68.2", "20.1", 149925689L, 1),
-		new osm_map_values(Navit.T("Jamaica"), "-78.6", "17.4", "-75.9", "18.9", 113961998L, 1),
-		new osm_map_values(Navit.T("Mexico"), "-117.6", "14.1", "-86.4", "32.8", 551307973L, 1),
-		new osm_map_values(Navit.T("Paraguay"), "-63.8", "-28.1", "-53.6", "-18.8", 159498397L, 1),
-		new osm_map_values(Navit.T("Peru"), "-82.4", "-18.1", "-67.5", "0.4", 212490557L, 1),
-		new osm_map_values(Navit.T("Uruguay"), "-59.2", "-36.5", "-51.7", "-29.7", 157482719L, 1),
-		new osm_map_values(Navit.T("Venezuela"), "-73.6", "0.4", "-59.7", "12.8", 167295729L, 1)
-	};
+	private static osm_map_values[] builtinMaps() {
+		return new osm_map_values[] {
+			new osm_map_values("Whole Planet", "-180", "-90", "180", "90", 23992258630L, 0),
+			new osm_map_values("Africa", "-30.89", "-36.17", "61.68", "38.40", 2070076339L, 0),
+			new osm_map_values("Angola", "11.4", "-18.1", "24.2", "-5.3", 127557789L, 1),
+			new osm_map_values("Burundi", "28.9", "-4.5", "30.9", "-2.2", 124049667L, 1),
+			new osm_map_values("Canary Islands", "-18.69", "26.52", "-12.79", "29.99", 133565815L, 1),
+			new osm_map_values("Congo, Democratic Republic of the", "11.7", "-13.6", "31.5", "5.7", 244228485L, 1),
+			new osm_map_values("Ethiopia", "32.89", "3.33", "48.07", "14.97", 153067406L, 1),
+			new osm_map_values("Guinea", "-15.47", "7.12", "-7.58", "12.74", 188047126L, 1),
+			new osm_map_values("Cote d'Ivoire", "-8.72", "4.09", "-2.43", "10.80", 132187496L, 1),
+			new osm_map_values("Kenya", "33.8", "-5.2", "42.4", "4.9", 190073089L, 1),
+			new osm_map_values("Lesotho", "26.9", "-30.7", "29.6", "-28.4", 196189429L, 1),
+			new osm_map_values("Liberia", "-15.00", "-0.73", "-7.20", "8.65", 156257253L, 1),
+			new osm_map_values("Libya", "9.32", "19.40", "25.54", "33.63", 126046917L, 1),
+			new osm_map_values("Madagascar", "42.25", "-26.63", "51.20", "-11.31", 145210721L, 1),
+			new osm_map_values("Namibia|+|Botswana", "11.4", "-29.1", "29.5", "-16.9", 248970987L, 1),
+			new osm_map_values("Reunion", "55.2", "-21.4", "55.9", "-20.9", 126008774L, 1),
+			new osm_map_values("Rwanda", "28.8", "-2.9", "30.9", "-1.0", 128267595L, 1),
+			new osm_map_values("South Africa|+|Lesotho", "15.93", "-36.36", "33.65", "-22.08", 307280006L, 1),
+			new osm_map_values("Tanzania, United Republic of", "29.19", "-11.87", "40.74", "-0.88", 253621029L, 1),
+			new osm_map_values("Uganda", "29.3", "-1.6", "35.1", "4.3", 179134521L, 1),
+			new osm_map_values("Asia", "23.8", "0.1", "195.0", "82.4", 5113673780L, 0),
+			new osm_map_values("Azerbaijan", "44.74", "38.34", "51.69", "42.37", 138346406L, 1),
+			new osm_map_values("China", "67.3", "5.3", "135.0", "54.5", 1718108758L, 1),
+			new osm_map_values("Cyprus", "32.0", "34.5", "34.9", "35.8", 118472448L, 1),
+			new osm_map_values("India|+|Nepal", "67.9", "5.5", "89.6", "36.0", 601877877L, 1),
+			new osm_map_values("Indonesia", "93.7", "-17.3", "155.5", "7.6", 420741405L, 1),
+			new osm_map_values("Iran, Islamic Republic of", "43.5", "24.4", "63.6", "40.4", 242016066L, 1),
+			new osm_map_values("Iraq", "38.7", "28.5", "49.2", "37.4", 160751805L, 1),
+			new osm_map_values("Israel", "33.99", "29.8", "35.95", "33.4", 155685778L, 1),
+			new osm_map_values("Japan|+|Korea", "123.6", "25.2", "151.3", "47.1", 1029080156L, 1),
+			new osm_map_values("Kazakhstan", "46.44", "40.89", "87.36", "55.45", 407633007L, 1),
+			new osm_map_values("Kyrgyzstan", "69.23", "39.13", "80.33", "43.29", 147997835L, 1),
+			new osm_map_values("Malaysia|+|Singapore", "94.3", "-5.9", "108.6", "6.8", 168816435L, 1),
+			new osm_map_values("Mongolia", "87.5", "41.4", "120.3", "52.7", 153534851L, 1),
+			new osm_map_values("Pakistan", "60.83", "23.28", "77.89", "37.15", 217644321L, 1),
+			new osm_map_values("Philippines", "115.58", "4.47", "127.85", "21.60", 281428307L, 1),
+			new osm_map_values("Saudi Arabia", "33.2", "16.1", "55.9", "33.5", 242648303L, 1),
+			new osm_map_values("Taiwan", "119.1", "21.5", "122.5", "25.2", 1029080156L, 1),
+			new osm_map_values("Thailand", "97.5", "5.7", "105.2", "19.7", 185135492L, 1),
+			new osm_map_values("Turkey", "25.1", "35.8", "46.4", "42.8", 331087441L, 1),
+			new osm_map_values("Turkmenistan", "51.78", "35.07", "66.76", "42.91", 131045087L, 1),
+			new osm_map_values("UAE+Other", "51.5", "22.6", "56.7", "26.5", 128934674L, 1),
+			new osm_map_values("Australia|+|Oceania", "89.84", "-57.39", "179.79", "7.26", 782722650L, 0),
+			new osm_map_values("Australia", "110.5", "-44.2", "154.9", "-9.2", 348652900L, 0),
+			new osm_map_values("Tasmania", "144.0", "-45.1", "155.3", "-24.8", 253231890L, 1),
+			new osm_map_values("Victoria|+|New South Wales", "140.7", "-39.4", "153.7", "-26.9", 241500829L, 1),
+			new osm_map_values("New Caledonia", "157.85", "-25.05", "174.15", "-16.85", 115512336L, 1),
+			new osm_map_values("New Zealand", "165.2", "-47.6", "179.1", "-33.7", 239264192L, 1),
+			new osm_map_values("Europe", "-12.97", "33.59", "34.15", "72.10", 11984126789L, 0),
+			new osm_map_values("Western Europe", "-17.6", "34.5", "42.9", "70.9", 12648810717L, 1),
+			new osm_map_values("Austria", "9.4", "46.32", "17.21", "49.1", 898273634L, 1),
+			new osm_map_values("Azores", "-31.62", "36.63", "-24.67", "40.13", 112687225L, 1),
+			new osm_map_values("BeNeLux", "2.08", "48.87", "7.78", "54.52", 1771971595L, 1),
+			new osm_map_values("Netherlands", "3.07", "50.75", "7.23", "53.73", 1191828033L, 1),
+			new osm_map_values("Denmark", "7.65", "54.32", "15.58", "58.07", 365606979L, 1),
+			new osm_map_values("Faroe Islands", "-7.8", "61.3", "-6.1", "62.5", 109377568L, 1),
+			new osm_map_values("France", "-5.45", "42.00", "8.44", "51.68", 3907969744L, 1),
+			new osm_map_values("Alsace", "6.79", "47.27", "8.48", "49.17", 354249349L, 2),
+			new osm_map_values("Aquitaine", "-2.27", "42.44", "1.50", "45.76", 443715019L, 2),
+			new osm_map_values("Auvergne", "2.01", "44.57", "4.54", "46.85", 287663213L, 2),
+			new osm_map_values("Basse-Normandie", "-2.09", "48.13", "1.03", "49.98", 262352354L, 2),
+			new osm_map_values("Bourgogne", "2.80", "46.11", "5.58", "48.45", 298868796L, 2),
+			new osm_map_values("Bretagne", "-5.58", "46.95", "-0.96", "48.99", 382770794L, 2),
+			new osm_map_values("Centre", "0.01", "46.29", "3.18", "48.99", 474224721L, 2),
+			new osm_map_values("Champagne-Ardenne", "3.34", "47.53", "5.94", "50.28", 269947824L, 2),
+			new osm_map_values("Corse", "8.12", "41.32", "9.95", "43.28", 129902146L, 2),
+			new osm_map_values("Franche-Comte", "5.20", "46.21", "7.83", "48.07", 324476070L, 2),
+			new osm_map_values("Haute-Normandie", "-0.15", "48.62", "1.85", "50.18", 202782876L, 2),
+			new osm_map_values("Ile-de-France", "1.40", "48.07", "3.61", "49.29", 311052699L, 2),
+			new osm_map_values("Languedoc-Roussillon", "1.53", "42.25", "4.89", "45.02", 380145667L, 2),
+			new osm_map_values("Limousin", "0.58", "44.87", "2.66", "46.50", 206696539L, 2),
+			new osm_map_values("Lorraine", "4.84", "47.77", "7.72", "49.73", 330777318L, 2),
+			new osm_map_values("Midi-Pyrenees", "-0.37", "42.18", "3.50", "45.10", 462618363L, 2),
+			new osm_map_values("Nord-pas-de-Calais", "1.42", "49.92", "4.49", "51.31", 368467511L, 2),
+			new osm_map_values("Pays-de-la-Loire", "-2.88", "46.20", "0.97", "48.62", 499471143L, 2),
+			new osm_map_values("Picardie", "1.25", "48.79", "4.31", "50.43", 374308041L, 2),
+			new osm_map_values("Poitou-Charentes", "-1.69", "45.04", "1.26", "47.23", 342125526L, 2),
+			new osm_map_values("Provence-Alpes-Cote-d-Azur", "4.21", "42.91", "7.99", "45.18", 390306134L, 2),
+			new osm_map_values("Rhone-Alpes", "3.65", "44.07", "7.88", "46.64", 510797942L, 2),
+			new osm_map_values("Germany", "5.18", "46.84", "15.47", "55.64", 3521359466L, 1),
+			new osm_map_values("Baden-Wuerttemberg", "7.32", "47.14", "10.57", "49.85", 674361124L, 2),
+			new osm_map_values("Bayern", "8.92", "47.22", "13.90", "50.62", 860161150L, 2),
+			new osm_map_values("Mittelfranken", "9.86", "48.78", "11.65", "49.84", 203055195L, 2),
+			new osm_map_values("Niederbayern", "11.55", "47.75", "14.12", "49.42", 312924770L, 2),
+			new osm_map_values("Oberbayern", "10.67", "47.05", "13.57", "49.14", 382734883L, 2),
+			new osm_map_values("Oberfranken", "10.31", "49.54", "12.49", "50.95", 235258691L, 2),
+			new osm_map_values("Oberpfalz", "11.14", "48.71", "13.47", "50.43", 264536012L, 2),
+			new osm_map_values("Schwaben", "9.27", "47.10", "11.36", "49.09", 321141607L, 2),
+			new osm_map_values("Unterfranken", "8.59", "49.16", "10.93", "50.67", 303720890L, 2),
+			new osm_map_values("Berlin", "13.03", "52.28", "13.81", "52.73", 169019946L, 2),
+			new osm_map_values("Brandenburg", "11.17", "51.30", "14.83", "53.63", 323497599L, 2),
+			new osm_map_values("Bremen", "8.43", "52.96", "9.04", "53.66", 150963608L, 2),
+			new osm_map_values("Hamburg", "9.56", "53.34", "10.39", "53.80", 156284421L, 2),
+			new osm_map_values("Hessen", "7.72", "49.34", "10.29", "51.71", 432279328L, 2),
+			new osm_map_values("Mecklenburg-Vorpommern", "10.54", "53.05", "14.48", "55.05", 213183908L, 2),
+			new osm_map_values("Niedersachsen", "6.40", "51.24", "11.69", "54.22", 819766939L, 2),
+			new osm_map_values("Nordrhein-westfalen", "5.46", "50.26", "9.52", "52.59", 967053517L, 2),
+			new osm_map_values("Rheinland-Pfalz", "6.06", "48.91", "8.56", "51.00", 442868899L, 2),
+			new osm_map_values("Saarland", "6.30", "49.06", "7.46", "49.69", 157721162L, 2),
+			new osm_map_values("Sachsen-Anhalt", "10.50", "50.88", "13.26", "53.11", 287785088L, 2),
+			new osm_map_values("Sachsen", "11.82", "50.11", "15.10", "51.73", 342620834L, 2),
+			new osm_map_values("Schleswig-Holstein", "7.41", "53.30", "11.98", "55.20", 280293910L, 2),
+			new osm_map_values("Thueringen", "9.81", "50.15", "12.72", "51.70", 269428239L, 2),
+			new osm_map_values("Germany|+|Austria|+|Switzerland", "3.4", "44.5", "18.6", "55.1", 5746126429L, 1),
+			new osm_map_values("Iceland", "-25.3", "62.8", "-11.4", "67.5", 124837162L, 1),
+			new osm_map_values("Ireland", "-11.17", "51.25", "-5.23", "55.9", 234750271L, 1),
+			new osm_map_values("Italy", "6.52", "36.38", "18.96", "47.19", 1610171395L, 1),
+			new osm_map_values("Spain|+|Portugal", "-11.04", "34.87", "4.62", "44.41", 1039624918L, 1),
+			new osm_map_values("Mallorca", "2.2", "38.8", "4.7", "40.2", 137200636L, 2),
+			new osm_map_values("Galicia", "-10.0", "41.7", "-6.3", "44.1", 174549553L, 2),
+			new osm_map_values("Scandinavia", "4.0", "54.4", "32.1", "71.5", 1398661090L, 1),
+			new osm_map_values("Finland", "18.6", "59.2", "32.3", "70.3", 460997178L, 1),
+			new osm_map_values("Denmark", "7.49", "54.33", "13.05", "57.88", 321870414L, 1),
+			new osm_map_values("Switzerland", "5.79", "45.74", "10.59", "47.84", 552565332L, 1),
+			new osm_map_values("United Kingdom", "-9.7", "49.6", "2.2", "61.2", 901724648L, 1),
+			new osm_map_values("England", "-7.80", "48.93", "2.41", "56.14", 937728414L, 1),
+			new osm_map_values("Buckinghamshire", "-1.19", "51.44", "-0.43", "52.25", 142256978L, 2),
+			new osm_map_values("Cambridgeshire", "-0.55", "51.96", "0.56", "52.79", 142334001L, 2),
+			new osm_map_values("Cumbria", "-3.96", "53.85", "-2.11", "55.24", 144422460L, 2),
+			new osm_map_values("East yorkshire with hull", "-1.16", "53.50", "0.54", "54.26", 141518744L, 2),
+			new osm_map_values("Essex", "-0.07", "51.40", "1.36", "52.14", 162542730L, 2),
+			new osm_map_values("Herefordshire", "-3.19", "51.78", "-2.29", "52.45", 129368660L, 2),
+			new osm_map_values("Kent", "-0.02", "50.81", "1.65", "51.53", 145482562L, 2),
+			new osm_map_values("Lancashire", "-3.20", "53.43", "-2.00", "54.29", 148964975L, 2),
+			new osm_map_values("Leicestershire", "-1.65", "52.34", "-0.61", "53.03", 154199956L, 2),
+			new osm_map_values("Norfolk",  "0.10", "52.30", "2.04", "53.41", 146017009L, 2),
+			new osm_map_values("Nottinghamshire", "-1.39", "52.73", "-0.62", "53.55", 147986548L, 2),
+			new osm_map_values("Oxfordshire", "-1.77", "51.41", "-0.82", "52.22", 142240992L, 2),
+			new osm_map_values("Shropshire", "-3.29", "52.26", "-2.18", "53.05", 136909363L, 2),
+			new osm_map_values("Somerset", "-3.89", "50.77", "-2.20", "51.40", 145186096L, 2),
+			new osm_map_values("South yorkshire", "-1.88", "53.25", "-0.80", "53.71", 145902650L, 2),
+			new osm_map_values("Suffolk", "0.29", "51.88", "1.81", "52.60", 143799697L, 2),
+			new osm_map_values("Surrey", "-0.90", "51.02", "0.10", "51.52", 157987139L, 2),
+			new osm_map_values("Wiltshire",  "-2.41", "50.90", "-1.44", "51.76", 138652346L, 2),
+			new osm_map_values("Scotland", "-8.13", "54.49", "-0.15", "61.40", 258853845L, 2),
+			new osm_map_values("Wales", "-5.56", "51.28", "-2.60", "53.60", 193593409L, 2),
+			new osm_map_values("Albania", "19.09", "39.55", "21.12", "42.72", 146199817L, 1),
+			new osm_map_values("Belarus", "23.12", "51.21", "32.87", "56.23", 324470696L, 1),
+			new osm_map_values("Russian Federation", "27.9", "41.5", "190.4", "77.6", 2148314279L, 1),
+			new osm_map_values("Bulgaria", "24.7", "42.1", "24.8", "42.1", 109869373L, 1),
+			new osm_map_values("Bosnia and Herzegovina", "15.69", "42.52", "19.67", "45.32", 187122485L, 1),
+			new osm_map_values("Czech Republic", "11.91", "48.48", "19.02", "51.17", 904838442L, 1),
+			new osm_map_values("Croatia", "13.4", "42.1", "19.4", "46.9", 460854751L, 1),
+			new osm_map_values("Estonia", "21.5", "57.5", "28.2", "59.6", 173378927L, 1),
+			new osm_map_values("Greece", "28.9", "37.8", "29.0", "37.8", 109435051L, 1),
+			new osm_map_values("Crete", "23.3", "34.5", "26.8", "36.0", 115985063L, 1),
+			new osm_map_values("Hungary", "16.08", "45.57", "23.03", "48.39", 350318541L, 1),
+			new osm_map_values("Latvia", "20.7", "55.6", "28.3", "58.1", 188188140L, 1),
+			new osm_map_values("Lithuania", "20.9", "53.8", "26.9", "56.5", 217852597L, 1),
+			new osm_map_values("Poland", "13.6", "48.8", "24.5", "55.0", 1464968657L, 1),
+			new osm_map_values("Romania", "20.3", "43.5", "29.9", "48.4", 347931565L, 1),
+			new osm_map_values("Ukraine",  "22.0", "44.3", "40.4", "52.4", 793611912L, 1),
+			new osm_map_values("North America", "-178.1", "6.5", "-10.4", "84.0", 5601866516L, 0),
+			new osm_map_values("Alaska", "-179.5", "49.5", "-129", "71.6", 207746039L, 1),
+			new osm_map_values("Canada", "-141.3", "41.5", "-52.2", "70.2", 2635719651L, 1),
+			new osm_map_values("Hawaii", "-161.07", "18.49", "-154.45", "22.85", 115016656L, 1),
+			new osm_map_values("USA| (except Alaska and Hawaii)", "-125.4", "24.3", "-66.5", "49.3", 4060487198L, 1),
+			new osm_map_values("Midwest", "-104.11", "35.92", "-80.46", "49.46", 1145596450L, 2),
+			new osm_map_values("Michigan", "-90.47", "41.64", "-79.00", "49.37", 538247019L, 2),
+			new osm_map_values("Ohio", "-84.87", "38.05", "-79.85", "43.53", 277022336L, 2),
+			new osm_map_values("Northeast", "-80.58", "38.72", "-66.83", "47.53", 1017160709L, 2),
+			new osm_map_values("Massachusetts", "-73.56", "40.78", "-68.67", "42.94", 340055487L, 2),
+			new osm_map_values("Vermont", "-73.49", "42.68", "-71.41", "45.07", 139626067L, 2),
+			new osm_map_values("Pacific", "-180.05", "15.87", "-129.75", "73.04", 207090640L, 2),
+			new osm_map_values("South",  "-106.70", "23.98", "-71.46", "40.70", 1747935356L, 2),
+			new osm_map_values("Arkansas", "-94.67", "32.95", "-89.59", "36.60", 155658661L, 2),
+			new osm_map_values("District of Columbia", "-77.17", "38.74", "-76.86", "39.05", 129235755L, 2),
+			new osm_map_values("Florida", "-88.75", "23.63", "-77.67", "31.05", 224022108L, 2),
+			new osm_map_values("Louisiana", "-94.09", "28.09", "-88.62", "33.07", 210120605L, 2),
+			new osm_map_values("Maryland", "-79.54", "37.83", "-74.99", "40.22", 276462622L, 2),
+			new osm_map_values("Mississippi", "-91.71", "29.99", "-88.04", "35.05", 177858031L, 2),
+			new osm_map_values("Oklahoma", "-103.41", "33.56", "-94.38", "37.38", 200061473L, 2),
+			new osm_map_values("Texas", "-106.96", "25.62", "-92.97", "36.58", 430089141L, 2),
+			new osm_map_values("Virginia", "-83.73", "36.49", "-74.25", "39.52", 384187569L, 2),
+			new osm_map_values("West Virginia", "-82.70", "37.15", "-77.66", "40.97", 220552071L, 2),
+			new osm_map_values("West", "-133.11", "31.28", "-101.99", "49.51", 1152909162L, 2),
+			new osm_map_values("Arizona", "-114.88", "30.01", "-108.99", "37.06", 182826833L, 2),
+			new osm_map_values("California", "-125.94", "32.43", "-114.08", "42.07", 586923326L, 2),
+			new osm_map_values("Colorado", "-109.11", "36.52", "-100.41", "41.05", 228623724L, 2),
+			new osm_map_values("Idaho", "-117.30", "41.93", "-110.99", "49.18", 170684507L, 2),
+			new osm_map_values("Montana", "-116.10", "44.31", "-102.64", "49.74", 176229800L, 2),
+			new osm_map_values("New Mexico", "-109.10", "26.98", "-96.07", "37.05", 361793070L, 2),
+			new osm_map_values("Nevada", "-120.2", "35.0", "-113.8", "42.1", 200614482L, 2),
+			new osm_map_values("Oregon",  "-124.8", "41.8", "-116.3", "46.3", 211462685L, 2),
+			new osm_map_values("Utah", "-114.11", "36.95", "-108.99", "42.05", 151590197L, 2),
+			new osm_map_values("Washington State", "-125.0", "45.5", "-116.9", "49.0", 222553768L, 2),
+			new osm_map_values("South+Middle America", "-83.5", "-56.3", "-30.8", "13.7", 958895383L, 0),
+			new osm_map_values("Argentina", "-73.9", "-57.3", "-51.6", "-21.0", 376857648L, 1),
+			new osm_map_values("Argentina|+|Chile", "-77.2", "-56.3", "-52.7", "-16.1", 420275812L, 1),
+			new osm_map_values("Bolivia", "-70.5", "-23.1", "-57.3", "-9.3", 175937824L, 1),
+			new osm_map_values("Brazil", "-71.4", "-34.7", "-32.8", "5.4", 664872975L, 1),
+			new osm_map_values("Chile", "-81.77", "-58.50", "-65.46", "-17.41", 241657330L, 1),
+			new osm_map_values("Cuba", "-85.3", "19.6", "-74.0", "23.6", 129043575L, 1),
+			new osm_map_values("Colombia", "-79.1", "-4.0", "-66.7", "12.6", 212016580L, 1),
+			new osm_map_values("Ecuador", "-82.6", "-5.4", "-74.4", "2.3", 158857591L, 1),
+			new osm_map_values("Guyana|+|Suriname|+|Guyane Francaise", "-62.0", "1.0", "-51.2", "8.9", 123000072L, 1),
+			new osm_map_values("Haiti|+|Dominican Republic", "-74.8", "17.3", "-68.2", "20.1", 149925689L, 1),
+			new osm_map_values("Jamaica", "-78.6", "17.4", "-75.9", "18.9", 113961998L, 1),
+			new osm_map_values("Mexico", "-117.6", "14.1", "-86.4", "32.8", 551307973L, 1),
+			new osm_map_values("Paraguay", "-63.8", "-28.1", "-53.6", "-18.8", 159498397L, 1),
+			new osm_map_values("Peru", "-82.4", "-18.1", "-67.5", "0.4", 212490557L, 1),
+			new osm_map_values("Uruguay", "-59.2", "-36.5", "-51.7", "-29.7", 157482719L, 1),
+			new osm_map_values("Venezuela", "-73.6", "0.4", "-59.7", "12.8", 167295729L, 1)
+		};
+	}
+
+	private static osm_map_values[] osm_maps;
+	private static NavitMapIndex map_index;
+
+	/**
+	 * @brief Returns the catalog of downloadable maps, loading it when first used.
+	 *
+	 * The catalog fetched from the server is used if there is one, the built-in list otherwise. The catalog
+	 * does not change while the process runs, so map indices stay valid.
+	 */
+	public static synchronized osm_map_values[] getMaps() {
+		if (osm_maps == null) {
+			osm_maps = NavitMapCatalog.load(NavitMapCatalog.getCatalogFile());
+			if (osm_maps == null)
+				osm_maps = builtinMaps();
+		}
+		return osm_maps;
+	}
+
+	/** @brief Returns the spatial index over {@link #getMaps()}, building it when first used. */
+	public static synchronized NavitMapIndex getMapIndex() {
+		if (map_index == null)
+			map_index = new NavitMapIndex(getMaps());
+		return map_index;
+	}
+
+	/** @brief Returns the index of the map with the given catalog name, or -1 if there is none. */
+	public static int findMap(String name) {
+		osm_map_values[] maps = getMaps();
+		for (int i = 0; i < maps.length; i++) {
+			if (maps[i].name.equals(name))
+				return i;
+		}
+		return -1;
+	}
 
 	private String map_filename_path;
 	
@@ -321,9 +383,11 @@ public class NavitMapDownloader extends Thread
 		}
 		return maps;
 	}
-	private Boolean                     stop_me                                 = false;
+	private volatile Boolean            stop_me                                 = false;
 	private osm_map_values              map_values;
 	private int                         map_id;
+	private final NavitDownloadQueue    queue;
+	private final NavitTransferController transfer;
 	private long                        uiLastUpdated                           = -1;
 
 	private Boolean                     retryDownload                           = false; //Download failed, but
@@ -331,17 +395,78 @@ public class NavitMapDownloader extends Thread
 	private static final int            SOCKET_CONNECT_TIMEOUT                  = 60000;          // 60 secs.
 	private static final int            SOCKET_READ_TIMEOUT                     = 120000;         // 120 secs.
 	private static final int            MAP_WRITE_FILE_BUFFER                   = 1024 * 64;
-	private static final int            MAP_WRITE_MEM_BUFFER                    = 1024 * 64;
 	private static final int            MAP_READ_FILE_BUFFER                    = 1024 * 64;
 	private static final int            UPDATE_PROGRESS_TIME_NS                 = 1000 * 1000000; // 1ns=1E-9s
 	private static final int            MAX_RETRIES                             = 5;
 	private static final String         TAG                                     = "NavitMapDownloader";
+	private static final int            SEGMENT_COUNT                           = 4;
+	private static final long           SEGMENTED_MIN_SIZE                      = 8 * 1024 * 1024;
+	private static final int            RESUME_STATE_SAVE_TIME_MS               = 5000;
+	private static final int            SEGMENT_PROGRESS_TIME_MS                = 500;
+	private static final int            VERIFY_BLOCK_SIZE                       = 1024 * 1024;
+	private static final int            RESUME_VERIFY_BLOCKS                    = 2;
+
+	/**
+	 * @brief A byte range of the map file, downloaded by its own connection in segmented mode.
+	 */
+	static class Segment
+	{
+		long          start;
+		long          end;  // exclusive
+		volatile long pos;
+
+		Segment(long start, long end, long pos) {
+			this.start = start;
+			this.end = end;
+			this.pos = pos;
+		}
+	}
+
+	/* Segments of the current download, null when downloading over a single stream */
+	private Segment[]                   segments;
+	/* Total size of the map file in segmented mode */
+	private long                        segmented_size;
+	/* CRC32 of each VERIFY_BLOCK_SIZE block of the output file, -1 if not complete yet. null if the
+	 * resume info was written without checksums. */
+	private long[]                      block_crc;
+	/* Where the resume info of a single stream download points to */
+	private URL                         info_url;
+	private long                        info_size;
+	/* The server sends the map gzip compressed, the compressed data is kept in getCompressedFile() */
+	private boolean                     compressed;
+	/* The ETag of the compressed map, so a resumed download continues the very same compressed data */
+	private String                      etag;
+	/* Average speed of the last download attempt in bytes per second */
+	private volatile long               throughput;
+	/* Bytes copied from the network into Java heap buffers */
+	private volatile long               heap_copied_bytes;
+
+	/** @brief Returns the average speed of the last download attempt in bytes per second. */
+	public long getThroughput() {
+		return throughput;
+	}
+
+	/**
+	 * @brief Returns the number of bytes copied from the network into Java heap buffers.
+	 *
+	 * The stream path and the segment downloaders both read the data into a heap buffer before it is
+	 * written to the file, so this grows by the size of the download.
+	 */
+	public long getHeapCopiedBytes() {
+		return heap_copied_bytes;
+	}
+
+	private synchronized void addHeapCopiedBytes(long len) {
+		heap_copied_bytes += len;
+	}
 
 	protected int                       retry_counter                           = 0;
 
-	public NavitMapDownloader(int map_id) {
-		this.map_values = osm_maps[map_id];
+	public NavitMapDownloader(int map_id, NavitDownloadQueue queue) {
+		this.map_values = getMaps()[map_id];
 		this.map_id=map_id;
+		this.queue = queue;
+		this.transfer = queue.getTransferController();
 		this.map_filename_path=Navit.map_filename_path;
 	}
 
@@ -349,31 +474,29 @@ public class NavitMapDownloader extends Thread
 		stop_me = false;
 		retry_counter = 0;
 
-		Log.v(TAG, "start download " + map_values.map_name);
-		updateProgress(0, map_values.est_size_bytes, Navit.T("downloading") + ": " + map_values.map_name);
+		Log.v(TAG, "start download " + map_values.getMapName());
+		updateProgress(0, map_values.est_size_bytes, Navit.T("downloading") + ": " + map_values.getMapName());
 		
-		boolean success;
-		do {
+		/* An existing map only needs the blocks which changed, unless a full download is being resumed */
+		boolean success = getMapFile().exists() && !getDestinationFile().exists()
+		        && new NavitMapDeltaUpdater(this, map_values.getMapName()).update();
+		while (!success) {
 			try {
-				Thread.sleep(10 + retry_counter * 1000);
+				Thread.sleep(retry_counter == 0 ? 10 : transfer.getRetryDelay(retry_counter));
 			} catch (InterruptedException e1) {}
 			retryDownload = false;
 			success = download_osm_map();
-		} while ( !success
-				&& retryDownload
-				&& retry_counter < MAX_RETRIES
-				&& !stop_me);
+			if (!retryDownload || retry_counter >= MAX_RETRIES || stop_me)
+				break;
+		}
 
 		if (success) {
-			toast(map_values.map_name + " " + Navit.T("ready"));
+			toast(map_values.getMapName() + " " + Navit.T("ready"));
 			getMapInfoFile().delete();
 			Log.d(TAG, "success");
 		}
 
-		if (success || stop_me ) {
-			NavitDialogs.sendDialogMessage( NavitDialogs.MSG_MAP_DOWNLOAD_FINISHED
-					, map_filename_path + map_values.map_name + ".bin", null, -1, success ? 1 : 0 , map_id );
-		}
+		queue.downloadFinished(map_id, map_filename_path + map_values.getMapName() + ".bin", success);
 	}
 	
 	public void stop_thread() {
@@ -381,6 +504,10 @@ public class NavitMapDownloader extends Thread
 		Log.d(TAG, "stop_me -> true");
 	}
 
+	protected boolean isStopped() {
+		return stop_me;
+	}
+
 	protected boolean checkFreeSpace(long needed_bytes) {
 		long free_space = getFreeSpace();
 	
@@ -429,10 +556,27 @@ public class NavitMapDownloader extends Thread
 		long old_download_size = outputFile.length();
 
 		URL url = null;
-		if (old_download_size > 0) {
+		segments = null;
+		block_crc = null;
+		info_url = null;
+		compressed = false;
+		etag = null;
+		if (old_download_size > 0 || getCompressedFile().exists()) {
 			url = readFileInfo();
 		}
 
+		if (url != null && segments != null) {
+			verifySegments(outputFile);
+			return downloadSegments(url, outputFile, null) && finishDownload(outputFile);
+		}
+
+		if (url != null && compressed) {
+			// resume at the compressed offset, the map itself is decompressed again from the start
+			old_download_size = getCompressedFile().length();
+		} else if (url != null) {
+			old_download_size = verifyStream(outputFile, old_download_size);
+		}
+
 		if (url == null) {
 			resume = false;
 			url = getDownloadURL();
@@ -445,17 +589,89 @@ public class NavitMapDownloader extends Thread
 			if (resume) {
 				c.setRequestProperty("Range", "bytes=" + old_download_size + "-");
 				already_read = old_download_size;
+				if (compressed && etag != null && !etag.startsWith("W/"))
+					c.setRequestProperty("If-Range", etag);
+			}
+			/* Ask for a compressed map, unless an uncompressed one is resumed. Setting the header also keeps
+			 * HttpURLConnection from decompressing by itself, which would hide the compressed offsets. */
+			c.setRequestProperty("Accept-Encoding", (resume && !compressed) ? "identity" : "gzip");
+			long request_time = System.nanoTime();
+			String content_length = c.getHeaderField("Content-Length");
+			transfer.responseTime(System.nanoTime() - request_time);
+			boolean gzip = "gzip".equalsIgnoreCase(c.getContentEncoding());
+			if (resume && compressed && !(gzip && isPartialResponse(c))) {
+				// the server sends something else than the rest of the compressed map, start over
+				Log.d(TAG, "Compressed download cannot be resumed, starting over");
+				getCompressedFile().delete();
+				if (isPartialResponse(c)) {
+					// only part of some other representation, ask again without resuming
+					((HttpURLConnection) c).disconnect();
+					getMapInfoFile().delete();
+					enableRetry();
+					return false;
+				}
+				resume = false;
+				already_read = 0;
 			}
 			try {
-				real_size_bytes=Long.parseLong(c.getHeaderField("Content-Length")) + already_read;
+				real_size_bytes=Long.parseLong(content_length) + already_read;
 			} catch(Exception e) {
 				real_size_bytes=-1;
 			}
 
+			if (gzip) {
+				if (!resume) {
+					getCompressedFile().delete();
+					compressed = true;
+					etag = c.getHeaderField("ETag");
+					writeFileInfo(c, real_size_bytes);
+				}
+				Log.d(TAG, "compressed size: " + real_size_bytes + ", read: " + already_read + ", Connection ref: "
+				        + c.getURL());
+				return checkFreeSpace(map_values.est_size_bytes + real_size_bytes - already_read)
+				        && downloadCompressed(c, already_read, real_size_bytes, outputFile)
+				        && finishDownload(outputFile);
+			}
+			compressed = false;
+
 			long fileTime = c.getLastModified();
 
+			if (!resume && c.getHeaderField("Content-Length") != null && real_size_bytes > 0) {
+				/* The size is known, so write through a FileChannel into a preallocated file, either in
+				 * parallel segments or as a single segment over the connection we already have. */
+				boolean segmentable = isSegmentable(c, real_size_bytes);
+				int count = segmentable ? SEGMENT_COUNT : 1;
+				outputFile.delete();
+				if (!checkFreeSpace(real_size_bytes)) {
+					((HttpURLConnection) c).disconnect();
+					return false;
+				}
+				segmented_size = real_size_bytes;
+				segments = new Segment[count];
+				long[] starts = new long[count + 1];
+				for (int i = 0; i < count; i++) {
+					/* segments start on a block boundary, so each block is checksummed by one segment */
+					long start = real_size_bytes * i / count;
+					starts[i] = start - start % VERIFY_BLOCK_SIZE;
+				}
+				starts[count] = real_size_bytes;
+				for (int i = 0; i < count; i++)
+					segments[i] = new Segment(starts[i], starts[i + 1], starts[i]);
+				block_crc = new long[(int) ((real_size_bytes + VERIFY_BLOCK_SIZE - 1) / VERIFY_BLOCK_SIZE)];
+				Arrays.fill(block_crc, -1);
+				Log.d(TAG, count + " segment download of " + real_size_bytes + " bytes from " + c.getURL());
+				URL data_url = c.getURL();
+				writeFileInfo(data_url, real_size_bytes);
+				if (segmentable) {
+					((HttpURLConnection) c).disconnect();
+					c = null;
+				}
+				return downloadSegments(data_url, outputFile, (HttpURLConnection) c) && finishDownload(outputFile);
+			}
+
 			if (!resume) {
 				outputFile.delete();
+				block_crc = new long[0];
 				writeFileInfo(c, real_size_bytes);
 			}
 
@@ -467,20 +683,481 @@ public class NavitMapDownloader extends Thread
 
 			if (checkFreeSpace(real_size_bytes - already_read)
 			        && downloadData(c, already_read, real_size_bytes, resume, outputFile)) {
-
-				File finalOutputFile = getMapFile();
-				// delete an already existing file first
-				finalOutputFile.delete();
-				// rename file to its final name
-				outputFile.renameTo(finalOutputFile);
-				return true;
+				return finishDownload(outputFile);
 			}
 		}
 		return false;
 	}
 
+	private static boolean isPartialResponse(URLConnection c) {
+		try {
+			return ((HttpURLConnection) c).getResponseCode() == HttpURLConnection.HTTP_PARTIAL;
+		} catch (IOException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * @brief Counts and keeps a copy of the compressed data read from the server.
+	 */
+	private class CompressedInputStream extends FilterInputStream
+	{
+		private final OutputStream copy;
+		long                       count;
+
+		CompressedInputStream(InputStream in, OutputStream copy) {
+			super(in);
+			this.copy = copy;
+		}
+
+		@Override
+		public int read() throws IOException {
+			byte[] b = new byte[1];
+			return read(b, 0, 1) < 0 ? -1 : b[0] & 0xff;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			int ret = super.read(b, off, len);
+			if (ret > 0) {
+				copy.write(b, off, ret);
+				count += ret;
+				transfer.transferred(ret);
+				transfer.acquire(ret);
+			}
+			return ret;
+		}
+	}
+
+	/**
+	 * @brief Downloads a gzip compressed map, decompressing it while it arrives.
+	 *
+	 * The compressed data is also appended to getCompressedFile(), so an interrupted download resumes at its
+	 * compressed offset. The state of the decompressor cannot be saved, so a resumed download first
+	 * decompresses the compressed data it already has, then continues with the data from the server.
+	 *
+	 * @param c The connection delivering the compressed data from offset compressed_read
+	 * @param compressed_read The number of compressed bytes already on disk
+	 * @param compressed_size The size of the compressed map, or -1 if unknown
+	 * @param outputFile The file to write the decompressed map to
+	 */
+	protected boolean downloadCompressed(URLConnection c, long compressed_read, long compressed_size,
+	        File outputFile) {
+		File compressedFile = getCompressedFile();
+		OutputStream compressedOut = null;
+		InputStream in = null;
+		BufferedOutputStream buf = null;
+		long start_timestamp = System.nanoTime();
+		boolean success = false;
+		try {
+			compressedOut = new BufferedOutputStream(new FileOutputStream(compressedFile, compressed_read > 0),
+			        MAP_WRITE_FILE_BUFFER);
+			CompressedInputStream network = new CompressedInputStream(c.getInputStream(), compressedOut);
+			InputStream source = network;
+			if (compressed_read > 0)
+				source = new SequenceInputStream(new FileInputStream(compressedFile), network);
+			in = new GZIPInputStream(source, MAP_READ_FILE_BUFFER);
+			buf = new BufferedOutputStream(new FileOutputStream(outputFile, false), MAP_WRITE_FILE_BUFFER);
+			byte[] buffer = new byte[transfer.getBufferSize()];
+			int len;
+			while (!stop_me && (len = in.read(buffer)) != -1) {
+				buf.write(buffer, 0, len);
+				updateProgress(start_timestamp, compressed_read, compressed_read + network.count, compressed_size);
+			}
+			long elapsed = System.nanoTime() - start_timestamp;
+			if (elapsed > 0)
+				throughput = network.count * 1000000000L / elapsed;
+			if (stop_me) {
+				toast(Navit.T("Map download aborted!"));
+			} else {
+				success = true;
+			}
+		} catch (ZipException e) {
+			// the compressed data on disk is damaged, it has to be fetched again
+			Log.e(TAG, "Error decompressing map: " + e);
+			compressedFile.delete();
+			getMapInfoFile().delete();
+			enableRetry();
+		} catch (IOException e) {
+			Log.d(TAG, "Error: " + e);
+			enableRetry();
+			updateProgress(compressed_read, compressed_size, Navit.T("Error downloading map!"));
+		} finally {
+			try {
+				if (in != null)
+					in.close();
+				if (buf != null)
+					buf.close();
+				if (compressedOut != null)
+					compressedOut.close();
+			} catch (IOException e) {
+				success = false;
+			}
+		}
+		if (success)
+			compressedFile.delete();
+		return success;
+	}
+
+	/**
+	 * @brief Moves the downloaded map into place, replacing the old map.
+	 *
+	 * If the map cannot be renamed, the temporary file and its info file are kept, so the download
+	 * can be finished later without fetching the map again.
+	 */
+	protected boolean finishDownload(File outputFile) {
+		File finalOutputFile = getMapFile();
+		if (!outputFile.renameTo(finalOutputFile)) {
+			// some file systems do not replace an existing file
+			finalOutputFile.delete();
+			if (!outputFile.renameTo(finalOutputFile)) {
+				Log.e(TAG, "Could not rename " + outputFile + " to " + finalOutputFile);
+				updateProgress(outputFile.length(), outputFile.length(), Navit.T("Error writing map!"));
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * @brief Checks whether a download can be split into segments fetched in parallel.
+	 *
+	 * This requires the server to support byte ranges and to tell the size of the file.
+	 */
+	protected boolean isSegmentable(URLConnection c, long real_size_bytes) {
+		return c.getHeaderField("Content-Length") != null
+		        && "bytes".equalsIgnoreCase(c.getHeaderField("Accept-Ranges"))
+		        && real_size_bytes >= SEGMENTED_MIN_SIZE;
+	}
+
+	/**
+	 * @brief Downloads the segments which are not complete yet, each over its own connection.
+	 *
+	 * Each segment is written to its offset in the preallocated output file. The state of the segments is
+	 * saved to the info file regularly, so an interrupted download resumes where each segment stopped.
+	 *
+	 * @param url The URL of the map file
+	 * @param outputFile The file to write to
+	 * @param c An open connection delivering the whole file from its start, used for the first segment,
+	 *          or null to open a range request for each segment
+	 *
+	 * @return true if all segments are complete
+	 */
+	protected boolean downloadSegments(URL url, File outputFile, HttpURLConnection c) {
+		RandomAccessFile raf = null;
+		FileChannel channel;
+		try {
+			raf = new RandomAccessFile(outputFile, "rw");
+			if (raf.length() != segmented_size)
+				raf.setLength(segmented_size);
+			channel = raf.getChannel();
+		} catch (IOException e) {
+			Log.e(TAG, "Could not open output file for writing: " + e);
+			try {
+				if (raf != null)
+					raf.close();
+			} catch (IOException e1) {
+			}
+			if (c != null)
+				c.disconnect();
+			if (!checkFreeSpace(segmented_size)) {
+				updateProgress(0, segmented_size, Navit.T("Error downloading map!") + "\n"
+				        + Navit.T("Not enough free space"));
+			} else {
+				updateProgress(0, segmented_size, Navit.T("Error writing map!"));
+			}
+			return false;
+		}
+
+		SegmentDownloader[] threads = new SegmentDownloader[segments.length];
+		long start_timestamp = System.nanoTime();
+		long startOffset = getSegmentedBytesRead();
+		for (int i = 0; i < segments.length; i++) {
+			if (segments[i].pos < segments[i].end) {
+				threads[i] = new SegmentDownloader(url, segments[i], channel, i == 0 ? c : null);
+				threads[i].start();
+			}
+		}
+
+		long lastSaved = System.currentTimeMillis();
+		boolean failed = false;
+		for (int i = 0; i < threads.length; i++) {
+			if (threads[i] == null)
+				continue;
+			while (threads[i].isAlive()) {
+				try {
+					threads[i].join(SEGMENT_PROGRESS_TIME_MS);
+				} catch (InterruptedException e) {
+				}
+				updateProgress(start_timestamp, startOffset, getSegmentedBytesRead(), segmented_size);
+				if (System.currentTimeMillis() - lastSaved > RESUME_STATE_SAVE_TIME_MS) {
+					writeFileInfo(url, segmented_size);
+					lastSaved = System.currentTimeMillis();
+				}
+			}
+			failed |= threads[i].failed;
+		}
+		try {
+			channel.close();
+			raf.close();
+		} catch (IOException e) {
+			failed = true;
+		}
+		writeFileInfo(url, segmented_size);
+		long elapsed = System.nanoTime() - start_timestamp;
+		if (elapsed > 0)
+			throughput = (getSegmentedBytesRead() - startOffset) * 1000000000L / elapsed;
+
+		if (stop_me) {
+			toast(Navit.T("Map download aborted!"));
+			return false;
+		}
+		if (failed || getSegmentedBytesRead() < segmented_size) {
+			Log.d(TAG, "Segmented download incomplete, " + getSegmentedBytesRead() + " of " + segmented_size + " bytes");
+			enableRetry();
+			return false;
+		}
+		return true;
+	}
+
+	private long getSegmentedBytesRead() {
+		long ret = 0;
+		for (Segment segment : segments)
+			ret += segment.pos - segment.start;
+		return ret;
+	}
+
+	private synchronized void setBlockCrc(int block, long crc) {
+		if (block_crc == null)
+			return;
+		if (block >= block_crc.length) {
+			long[] grown = new long[Math.max(block + 1, block_crc.length * 2)];
+			System.arraycopy(block_crc, 0, grown, 0, block_crc.length);
+			Arrays.fill(grown, block_crc.length, grown.length, -1);
+			block_crc = grown;
+		}
+		block_crc[block] = crc;
+	}
+
+	private synchronized long getBlockCrc(int block) {
+		return block < block_crc.length ? block_crc[block] : -1;
+	}
+
+	private synchronized long[] getBlockCrcs() {
+		return block_crc == null ? null : block_crc.clone();
+	}
+
+	/**
+	 * @brief Computes the CRC32 of each VERIFY_BLOCK_SIZE block of the output file while it is downloaded.
+	 */
+	private class BlockChecksum
+	{
+		private final CRC32 crc = new CRC32();
+		private long        pos;
+		private final long  size;
+
+		/**
+		 * @param pos The offset in the file of the first byte passed to update(), must be on a block boundary
+		 * @param size The size of the file, so the checksum of a short last block is kept, or -1 if unknown
+		 */
+		BlockChecksum(long pos, long size) {
+			this.pos = pos;
+			this.size = size;
+		}
+
+		void update(byte[] b, int off, int len) {
+			while (len > 0) {
+				int n = (int) Math.min(len, VERIFY_BLOCK_SIZE - pos % VERIFY_BLOCK_SIZE);
+				crc.update(b, off, n);
+				pos += n;
+				off += n;
+				len -= n;
+				if (pos % VERIFY_BLOCK_SIZE == 0 || pos == size) {
+					setBlockCrc((int) ((pos - 1) / VERIFY_BLOCK_SIZE), crc.getValue());
+					crc.reset();
+				}
+			}
+		}
+	}
+
+	/**
+	 * @brief Checks the last blocks downloaded before an interruption against their checksums.
+	 *
+	 * The position is moved back to the start of the partially downloaded block, and to the start of the
+	 * first of the last RESUME_VERIFY_BLOCKS blocks which does not match its checksum, so only that range
+	 * is fetched again. Blocks further back were checksummed as they arrived and are not read again.
+	 *
+	 * @param raf The output file
+	 * @param start The start of the range being downloaded, on a block boundary
+	 * @param pos The position up to which the range was downloaded
+	 * @param size The size of the file, or -1 if unknown
+	 *
+	 * @return The position to resume from
+	 */
+	private long verifiedPosition(RandomAccessFile raf, long start, long pos, long size) throws IOException {
+		if (pos != size)
+			pos -= pos % VERIFY_BLOCK_SIZE;
+		if (pos <= start)
+			return start;
+		if (block_crc == null)
+			return pos;
+		int last = (int) ((pos - 1) / VERIFY_BLOCK_SIZE);
+		int first = Math.max((int) (start / VERIFY_BLOCK_SIZE), last - RESUME_VERIFY_BLOCKS + 1);
+		byte[] buffer = new byte[VERIFY_BLOCK_SIZE];
+		CRC32 crc = new CRC32();
+		for (int block = first; block <= last; block++) {
+			long block_start = (long) block * VERIFY_BLOCK_SIZE;
+			int len = (int) Math.min(VERIFY_BLOCK_SIZE, pos - block_start);
+			raf.seek(block_start);
+			raf.readFully(buffer, 0, len);
+			crc.reset();
+			crc.update(buffer, 0, len);
+			if (crc.getValue() != getBlockCrc(block)) {
+				Log.d(TAG, "Block " + block + " does not match its checksum, fetching it again");
+				return block_start;
+			}
+		}
+		return pos;
+	}
+
+	/**
+	 * @brief Verifies the end of each segment of an interrupted download and moves the segments back
+	 * where the data is incomplete or damaged.
+	 */
+	protected void verifySegments(File outputFile) {
+		RandomAccessFile raf = null;
+		try {
+			raf = new RandomAccessFile(outputFile, "r");
+			for (Segment segment : segments)
+				segment.pos = verifiedPosition(raf, segment.start, segment.pos, segmented_size);
+		} catch (IOException e) {
+			Log.e(TAG, "Could not verify downloaded data, starting segments over: " + e);
+			for (Segment segment : segments)
+				segment.pos = segment.start;
+		} finally {
+			try {
+				if (raf != null)
+					raf.close();
+			} catch (IOException e) {
+			}
+		}
+	}
+
+	/**
+	 * @brief Verifies the end of an interrupted single stream download and truncates the file to the data
+	 * which can be trusted.
+	 *
+	 * @return The number of bytes to keep
+	 */
+	protected long verifyStream(File outputFile, long length) {
+		RandomAccessFile raf = null;
+		long ret = 0;
+		try {
+			raf = new RandomAccessFile(outputFile, "rw");
+			ret = verifiedPosition(raf, 0, length, -1);
+			raf.setLength(ret);
+		} catch (IOException e) {
+			Log.e(TAG, "Could not verify downloaded data: " + e);
+			ret = 0;
+			outputFile.delete();
+		} finally {
+			try {
+				if (raf != null)
+					raf.close();
+			} catch (IOException e) {
+			}
+		}
+		return ret;
+	}
+
+	/**
+	 * @brief Downloads one segment with a range request.
+	 */
+	private class SegmentDownloader extends Thread
+	{
+		private final URL         url;
+		private final Segment     segment;
+		private final FileChannel channel;
+		private HttpURLConnection c;
+		volatile boolean          failed;
+
+		SegmentDownloader(URL url, Segment segment, FileChannel channel, HttpURLConnection c) {
+			this.url = url;
+			this.segment = segment;
+			this.channel = channel;
+			this.c = c;
+		}
+
+		public void run() {
+			InputStream in = null;
+			try {
+				if (c == null) {
+					c = (HttpURLConnection) url.openConnection();
+					c.setRequestMethod("GET");
+					c.setReadTimeout(SOCKET_READ_TIMEOUT);
+					c.setConnectTimeout(SOCKET_CONNECT_TIMEOUT);
+					c.setRequestProperty("Range", "bytes=" + segment.pos + "-" + (segment.end - 1));
+					c.setRequestProperty("Accept-Encoding", "identity");
+					long request_time = System.nanoTime();
+					int response = c.getResponseCode();
+					transfer.responseTime(System.nanoTime() - request_time);
+					if (response == HttpURLConnection.HTTP_OK && segments.length == 1) {
+						// no range support, start over
+						segment.pos = segment.start;
+					} else if (response != HttpURLConnection.HTTP_PARTIAL) {
+						Log.e(TAG, "Server did not honour range request, response " + response);
+						failed = true;
+						return;
+					}
+				}
+				in = c.getInputStream();
+				BlockChecksum checksum = new BlockChecksum(segment.pos, segmented_size);
+				/* The stream reads into one reused heap buffer, which is checksummed and written to the
+				 * file channel as it is. FileChannel.transferFrom would copy the data through a wrapper
+				 * channel and, before Android N, allocate a new buffer of the chunk size on each call. */
+				ByteBuffer buffer = ByteBuffer.allocate(transfer.getBufferSize());
+				while (!stop_me && segment.pos < segment.end) {
+					int chunk = (int) Math.min(transfer.getBufferSize(), segment.end - segment.pos);
+					if (buffer.capacity() < chunk)
+						buffer = ByteBuffer.allocate(chunk);
+					transfer.acquire(chunk);
+					byte[] data = buffer.array();
+					int len = 0;
+					int n;
+					while (len < chunk && (n = in.read(data, len, chunk - len)) > 0)
+						len += n;
+					if (len == 0)
+						break;
+					addHeapCopiedBytes(len);
+					checksum.update(data, 0, len);
+					buffer.clear();
+					buffer.limit(len);
+					while (buffer.hasRemaining())
+						channel.write(buffer, segment.pos + buffer.position());
+					segment.pos += len;
+					transfer.transferred(len);
+				}
+				if (!stop_me && segment.pos < segment.end) {
+					Log.d(TAG, "Segment ended early at " + segment.pos + " of " + segment.end);
+					failed = true;
+				}
+			} catch (IOException e) {
+				Log.e(TAG, "Error downloading segment " + segment.start + "-" + segment.end + ": " + e);
+				failed = true;
+			} finally {
+				try {
+					if (in != null)
+						in.close();
+				} catch (IOException e) {
+				}
+				if (c != null)
+					c.disconnect();
+			}
+		}
+	}
+
 	protected File getDestinationFile() {
-		File outputFile = new File(map_filename_path, map_values.map_name + ".tmp");
+		File outputFile = new File(map_filename_path, map_values.getMapName() + ".tmp");
 		outputFile.getParentFile().mkdir();
 		return outputFile;
 	}
@@ -512,7 +1189,7 @@ public class NavitMapDownloader extends Thread
 			        new URL("http://maps.navit-project.org/api/map/?bbox=" + map_values.lon1 + "," + map_values.lat1
 			                + "," + map_values.lon2 + "," + map_values.lat2);
 		} catch (MalformedURLException e) {
-			Log.e(TAG, "We failed to create a URL to " + map_values.map_name);
+			Log.e(TAG, "We failed to create a URL to " + map_values.getMapName());
 			e.printStackTrace();
 			return null;
 		}
@@ -549,11 +1226,15 @@ public class NavitMapDownloader extends Thread
 	}
 
 	protected File getMapFile() {
-		return new File(map_filename_path, map_values.map_name + ".bin");
+		return new File(map_filename_path, map_values.getMapName() + ".bin");
+	}
+
+	protected File getCompressedFile() {
+		return new File(map_filename_path, map_values.getMapName() + ".tmp.gz");
 	}
 
 	protected File getMapInfoFile() {
-		return new File(map_filename_path, map_values.map_name + ".tmp.info");
+		return new File(map_filename_path, map_values.getMapName() + ".tmp.info");
 	}
 
 	protected BufferedOutputStream getOutputStream(File outputFile, boolean resume) {
@@ -585,16 +1266,26 @@ public class NavitMapDownloader extends Thread
 
 	protected boolean readData(OutputStream buf, InputStream bif, long already_read, long real_size_bytes) {
 		long start_timestamp = System.nanoTime();
-		byte[] buffer = new byte[MAP_WRITE_MEM_BUFFER];
+		byte[] buffer = new byte[transfer.getBufferSize()];
 		int len1 = 0;
 		long mapFileSize = real_size_bytes;
 		long startOffset = already_read;
 		boolean success = false;
+		BlockChecksum checksum = new BlockChecksum(already_read, -1);
+		long lastSaved = System.currentTimeMillis();
 		
 		try {
 			while (!stop_me && (len1 = bif.read(buffer)) != -1) {
+				transfer.transferred(len1);
+				transfer.acquire(len1);
 				already_read += len1;
+				addHeapCopiedBytes(len1);
+				checksum.update(buffer, 0, len1);
 				updateProgress(start_timestamp, startOffset, already_read, mapFileSize);
+				if (info_url != null && System.currentTimeMillis() - lastSaved > RESUME_STATE_SAVE_TIME_MS) {
+					writeFileInfo(info_url, info_size);
+					lastSaved = System.currentTimeMillis();
+				}
 
 				try {
 					buf.write(buffer, 0, len1);
@@ -613,8 +1304,16 @@ public class NavitMapDownloader extends Thread
 					
 					return false;
 				}
+				// follow the measured rate with the size of the reads
+				if (buffer.length != transfer.getBufferSize())
+					buffer = new byte[transfer.getBufferSize()];
 			}
 
+			long elapsed = System.nanoTime() - start_timestamp;
+			if (elapsed > 0)
+				throughput = (already_read - startOffset) * 1000000000L / elapsed;
+			if (info_url != null)
+				writeFileInfo(info_url, info_size);
 			if (stop_me) {
 				toast(Navit.T("Map download aborted!"));
 			} else if ( already_read < real_size_bytes ) {
@@ -638,14 +1337,60 @@ public class NavitMapDownloader extends Thread
 		try {
 			ObjectInputStream infoStream = new ObjectInputStream(new FileInputStream(getMapInfoFile()));
 			String resume_proto = infoStream.readUTF();
-			infoStream.readUTF(); // read the host name (unused for now)
+			String resume_host = infoStream.readUTF();
 			String resume_file = infoStream.readUTF();
+			long resume_size = infoStream.readLong();
+			int segment_count = 0;
+			try {
+				segment_count = infoStream.readInt();
+			} catch (IOException e) {
+				// written by a version without segmented downloads
+			}
+			if (segment_count > 0) {
+				Segment[] resume_segments = new Segment[segment_count];
+				for (int i = 0; i < segment_count; i++)
+					resume_segments[i] = new Segment(infoStream.readLong(), infoStream.readLong(), infoStream.readLong());
+				segments = resume_segments;
+				segmented_size = resume_size;
+			}
+			int block_count = -1;
+			try {
+				block_count = infoStream.readInt();
+			} catch (IOException e) {
+				// written by a version without checksums
+			}
+			if (block_count >= 0) {
+				long[] resume_crc = new long[block_count];
+				for (int i = 0; i < block_count; i++)
+					resume_crc[i] = infoStream.readLong();
+				block_crc = resume_crc;
+			}
+			try {
+				compressed = infoStream.readBoolean();
+				etag = infoStream.readUTF();
+				if (etag.length() == 0)
+					etag = null;
+			} catch (IOException e) {
+				// written by a version without compressed downloads
+				compressed = false;
+				etag = null;
+			}
 			infoStream.close();
 			// looks like the same file, try to resume
 			Log.v(TAG, "Try to resume download");
-			url = new URL(resume_proto + "://" + "maps.navit-project.org" + resume_file);
+			if (segments != null) {
+				// segments must come from the very same file, so stay on the host it was served from
+				url = new URL(resume_proto + "://" + resume_host + resume_file);
+			} else {
+				url = new URL(resume_proto + "://" + "maps.navit-project.org" + resume_file);
+				info_url = url;
+				info_size = resume_size;
+			}
 		} catch (Exception e) {
 			getMapInfoFile().delete();
+			segments = null;
+			block_crc = null;
+			info_url = null;
 		}
 		return url;
 	}
@@ -670,7 +1415,7 @@ public class NavitMapDownloader extends Thread
 			}
 			String info =
 			        String.format("%s: %s\n %dMb / %dMb\n %.1f kb/s %s: %s", Navit.T("downloading")
-			                , map_values.map_name, readBytes / 1024 / 1024, maxBytes / 1024 / 1024,
+			                , map_values.getMapName(), readBytes / 1024 / 1024, maxBytes / 1024 / 1024,
 			                per_second_overall / 1024f, Navit.T("ETA"), eta_string);
 
 			if (retry_counter > 0) {
@@ -684,19 +1429,47 @@ public class NavitMapDownloader extends Thread
 	}
 	
 	protected void updateProgress(long positionBytes, long maximumBytes, String infoText) {
-		NavitDialogs.sendDialogMessage(NavitDialogs.MSG_PROGRESS_BAR, Navit.T("Map download"), infoText
-		        , NavitDialogs.DIALOG_MAPDOWNLOAD, (int) (maximumBytes / 1024),
-		        (int) (positionBytes / 1024));
+		queue.downloadProgress(map_id, positionBytes, maximumBytes, infoText);
 	}
 
 	protected void writeFileInfo(URLConnection c, long sizeInBytes) {
+		info_url = c.getURL();
+		info_size = sizeInBytes;
+		writeFileInfo(info_url, sizeInBytes);
+	}
+
+	/**
+	 * @brief Writes the information needed to resume the download, including the state of all segments
+	 * and the checksums of the blocks downloaded so far.
+	 */
+	protected void writeFileInfo(URL url, long sizeInBytes) {
 		ObjectOutputStream infoStream;
 		try {
 			infoStream = new ObjectOutputStream(new FileOutputStream(getMapInfoFile()));
-			infoStream.writeUTF(c.getURL().getProtocol());
-			infoStream.writeUTF(c.getURL().getHost());
-			infoStream.writeUTF(c.getURL().getFile());
+			infoStream.writeUTF(url.getProtocol());
+			infoStream.writeUTF(url.getAuthority());
+			infoStream.writeUTF(url.getFile());
 			infoStream.writeLong(sizeInBytes);
+			if (segments != null) {
+				infoStream.writeInt(segments.length);
+				for (Segment segment : segments) {
+					infoStream.writeLong(segment.start);
+					infoStream.writeLong(segment.end);
+					infoStream.writeLong(segment.pos);
+				}
+			} else {
+				infoStream.writeInt(0);
+			}
+			long[] crcs = getBlockCrcs();
+			if (crcs != null) {
+				infoStream.writeInt(crcs.length);
+				for (long crc : crcs)
+					infoStream.writeLong(crc);
+			} else {
+				infoStream.writeInt(-1);
+			}
+			infoStream.writeBoolean(compressed);
+			infoStream.writeUTF(etag != null ? etag : "");
 			infoStream.close();
 		} catch (Exception e) {
 			Log.e(TAG, "Could not write info file for map download. Resuming will not be possible. (" + e.getMessage() + ")");
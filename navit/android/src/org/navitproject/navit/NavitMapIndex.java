@@ -0,0 +1,152 @@
+/**
+ * Navit, a modular navigation system.
+ * Copyright (C) 2005-2008 Navit Team
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * version 2 as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor,
+ * Boston, MA  02110-1301, USA.
+ */
+
+package org.navitproject.navit;
+
+import java.util.Arrays;
+
+/**
+ * @brief A grid index over the bounding boxes of the downloadable maps.
+ *
+ * The world is divided into cells of CELL_DEGREES by CELL_DEGREES, and each cell lists the maps whose
+ * bounding box overlaps it. A query only tests the maps of the cells it touches, instead of the whole
+ * catalog. Results are map indices, sorted by the estimated size of the map, smallest first, so the most
+ * specific map comes first.
+ */
+public class NavitMapIndex
+{
+	private static final double                       CELL_DEGREES = 5;
+	private static final int                          COLS         = (int) (360 / CELL_DEGREES);
+	private static final int                          ROWS         = (int) (180 / CELL_DEGREES);
+
+	private final NavitMapDownloader.osm_map_values[] maps;
+	/* The maps of each cell, row by row */
+	private final int[][]                             cells        = new int[COLS * ROWS][];
+
+	/**
+	 * @brief Builds the index.
+	 *
+	 * @param maps The catalog, results are indices into this array
+	 */
+	public NavitMapIndex(NavitMapDownloader.osm_map_values[] maps)
+	{
+		this.maps = maps;
+		int[] counts = new int[cells.length];
+		for (NavitMapDownloader.osm_map_values map : maps) {
+			for (int row = row(map.min_lat); row <= row(map.max_lat); row++)
+				for (int col = col(map.min_lon); col <= col(map.max_lon); col++)
+					counts[row * COLS + col]++;
+		}
+		for (int i = 0; i < cells.length; i++) {
+			cells[i] = new int[counts[i]];
+			counts[i] = 0;
+		}
+		for (int i = 0; i < maps.length; i++) {
+			NavitMapDownloader.osm_map_values map = maps[i];
+			for (int row = row(map.min_lat); row <= row(map.max_lat); row++) {
+				for (int col = col(map.min_lon); col <= col(map.max_lon); col++) {
+					int cell = row * COLS + col;
+					cells[cell][counts[cell]++] = i;
+				}
+			}
+		}
+	}
+
+	private static int col(double lon)
+	{
+		return Math.max(0, Math.min(COLS - 1, (int) Math.floor((lon + 180) / CELL_DEGREES)));
+	}
+
+	private static int row(double lat)
+	{
+		return Math.max(0, Math.min(ROWS - 1, (int) Math.floor((lat + 90) / CELL_DEGREES)));
+	}
+
+	/**
+	 * @brief Returns the maps which contain a position.
+	 *
+	 * @param lat The latitude in degrees
+	 * @param lon The longitude in degrees
+	 *
+	 * @return The indices of the maps, smallest map first
+	 */
+	public int[] query(double lat, double lon)
+	{
+		int[] cell = cells[row(lat) * COLS + col(lon)];
+		int[] ret = new int[cell.length];
+		int count = 0;
+		for (int i : cell) {
+			if (maps[i].contains(lat, lon))
+				ret[count++] = i;
+		}
+		return sortBySize(ret, count);
+	}
+
+	/**
+	 * @brief Returns the maps needed along a route.
+	 *
+	 * Each leg of the route is widened by the margin on all sides, and all maps which overlap the
+	 * bounding box of a widened leg are returned. For long legs this may include maps slightly off the
+	 * route, but never misses one the route passes through.
+	 *
+	 * @param lat The latitudes of the points of the route, in degrees
+	 * @param lon The longitudes of the points of the route, in degrees
+	 * @param margin The width of the corridor on each side of the route, in degrees
+	 *
+	 * @return The indices of the maps, smallest map first
+	 */
+	public int[] queryCorridor(double[] lat, double[] lon, double margin)
+	{
+		boolean[] seen = new boolean[maps.length];
+		int[] ret = new int[maps.length];
+		int count = 0;
+		int points = Math.min(lat.length, lon.length);
+		for (int p = 0; p < points; p++) {
+			int q = (p + 1 < points) ? p + 1 : p;
+			double min_lat = Math.min(lat[p], lat[q]) - margin;
+			double max_lat = Math.max(lat[p], lat[q]) + margin;
+			double min_lon = Math.min(lon[p], lon[q]) - margin;
+			double max_lon = Math.max(lon[p], lon[q]) + margin;
+			for (int row = row(min_lat); row <= row(max_lat); row++) {
+				for (int col = col(min_lon); col <= col(max_lon); col++) {
+					for (int i : cells[row * COLS + col]) {
+						if (!seen[i] && maps[i].intersects(min_lat, min_lon, max_lat, max_lon)) {
+							seen[i] = true;
+							ret[count++] = i;
+						}
+					}
+				}
+			}
+		}
+		return sortBySize(ret, count);
+	}
+
+	private int[] sortBySize(int[] indices, int count)
+	{
+		/* Sort size and index packed into one long: sizes stay below 2^43 bytes, indices below 2^20 */
+		long[] keys = new long[count];
+		for (int i = 0; i < count; i++)
+			keys[i] = (maps[indices[i]].est_size_bytes << 20) | indices[i];
+		Arrays.sort(keys);
+		int[] ret = new int[count];
+		for (int i = 0; i < count; i++)
+			ret[i] = (int) (keys[i] & 0xfffff);
+		return ret;
+	}
+}
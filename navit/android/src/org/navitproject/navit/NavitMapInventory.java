@@ -0,0 +1,163 @@
+/**
+ * Navit, a modular navigation system.
+ * Copyright (C) 2005-2008 Navit Team
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * version 2 as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor,
+ * Boston, MA  02110-1301, USA.
+ */
+
+package org.navitproject.navit;
+
+import java.io.File;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import android.os.FileObserver;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.util.Log;
+
+/**
+ * @brief A cached list of the installed maps.
+ *
+ * The map directory is scanned in a background thread, and the result is kept with the size, the
+ * modification time and the coverage of each map, so the UI never has to touch the file system to
+ * show the installed maps. A FileObserver on the map directory triggers a new scan whenever a map file
+ * is created, replaced or deleted, and listeners are told about the new list on the main thread.
+ */
+public class NavitMapInventory
+{
+	/**
+	 * @brief Receives the list of installed maps whenever it changed, on the main thread.
+	 */
+	public interface Listener
+	{
+		void onMapsChanged(NavitMap[] maps);
+	}
+
+	private static final String                  TAG           = "NavitMapInventory";
+	/* Wait for more changes before scanning, a download or deletion comes with several events */
+	private static final int                     SCAN_DELAY_MS = 500;
+	private static final int                     MAP_EVENTS    = FileObserver.CLOSE_WRITE | FileObserver.DELETE
+	        | FileObserver.MOVED_FROM | FileObserver.MOVED_TO;
+
+	private static NavitMapInventory             instance;
+
+	private final String                         path;
+	private final Handler                        scan_handler;
+	private final Handler                        main_handler  = new Handler(Looper.getMainLooper());
+	private final CopyOnWriteArrayList<Listener> listeners     = new CopyOnWriteArrayList<Listener>();
+	private final FileObserver                   observer;
+	private volatile NavitMap[]                  maps          = new NavitMap[0];
+	private volatile boolean                     scanned;
+
+	private final Runnable                       scan          = new Runnable() {
+		public void run() {
+			scan();
+		}
+	};
+
+	/**
+	 * @brief Returns the inventory of the map directory, starting the first scan when first used.
+	 */
+	public static synchronized NavitMapInventory getInstance() {
+		if (instance != null && !instance.path.equals(Navit.map_filename_path)) {
+			instance.observer.stopWatching();
+			instance.scan_handler.getLooper().quit();
+			instance = null;
+		}
+		if (instance == null)
+			instance = new NavitMapInventory(Navit.map_filename_path);
+		return instance;
+	}
+
+	private NavitMapInventory(String path) {
+		this.path = path;
+		HandlerThread thread = new HandlerThread(TAG);
+		thread.start();
+		scan_handler = new Handler(thread.getLooper());
+		observer = new FileObserver(path, MAP_EVENTS) {
+			@Override
+			public void onEvent(int event, String file) {
+				if (file != null && file.endsWith(".bin"))
+					invalidate();
+			}
+		};
+		observer.startWatching();
+		scan_handler.post(scan);
+	}
+
+	/** @brief Schedules a new scan of the map directory. */
+	public void invalidate() {
+		scan_handler.removeCallbacks(scan);
+		scan_handler.postDelayed(scan, SCAN_DELAY_MS);
+	}
+
+	/**
+	 * @brief Returns the installed maps found by the last scan.
+	 *
+	 * Does not touch the file system. The list is empty until the first scan finished, see isScanned().
+	 */
+	public NavitMap[] getMaps() {
+		return maps;
+	}
+
+	/** @brief Returns true once the map directory was scanned. */
+	public boolean isScanned() {
+		return scanned;
+	}
+
+	/** @brief Returns the map with the given location from the last scan, or null. */
+	public NavitMap find(String location) {
+		for (NavitMap map : maps) {
+			if (map.getLocation().equals(location))
+				return map;
+		}
+		return null;
+	}
+
+	public void addListener(Listener listener) {
+		listeners.addIfAbsent(listener);
+	}
+
+	public void removeListener(Listener listener) {
+		listeners.remove(listener);
+	}
+
+	private void scan() {
+		NavitMap[] found = NavitMapDownloader.getAvailableMaps();
+		NavitMapDownloader.osm_map_values[] catalog = NavitMapDownloader.getMaps();
+		for (NavitMap map : found) {
+			File file = new File(map.getLocation());
+			map.setFileInfo(file.length(), file.lastModified());
+			/* The coverage is known for maps from the catalog, the file name is the name of the map */
+			for (NavitMapDownloader.osm_map_values values : catalog) {
+				if (values.getMapName().equals(map.mapName)) {
+					map.setBoundingBox(values.min_lat, values.min_lon, values.max_lat, values.max_lon);
+					break;
+				}
+			}
+		}
+		Log.d(TAG, "Found " + found.length + " maps in " + path);
+		maps = found;
+		scanned = true;
+		main_handler.post(new Runnable() {
+			public void run() {
+				NavitMap[] current = maps;
+				for (Listener listener : listeners)
+					listener.onMapsChanged(current);
+			}
+		});
+	}
+}
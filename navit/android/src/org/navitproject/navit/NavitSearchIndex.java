@@ -0,0 +1,1127 @@
+/**
+ * Navit, a modular navigation system.
+ * Copyright (C) 2005-2008 Navit Team
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * version 2 as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor,
+ * Boston, MA  02110-1301, USA.
+ */
+
+package org.navitproject.navit;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Enumeration;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.PriorityQueue;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+import android.util.Log;
+
+/**
+ * @brief An index of the towns of the installed maps, for looking up a town without native code.
+ *
+ * For each map file the names of the towns and districts in the parts of its country index, which the
+ * native search reads as well, are written to an index file, under the start of each word of the name.
+ * Index files are memory mapped, and a search is a binary search over blocks of names followed by a
+ * bounded scan of the matching names, so it takes microseconds instead of a walk over the map data.
+ *
+ * Index files are built in a background thread whenever the inventory of maps changes. An index file
+ * records the size and modification time of its map, so only maps which were added or replaced are
+ * indexed again. Only a single word is looked up, everything else is left to the native search: queries
+ * of more words, e.g. streets and house numbers, queries without results, which may be spelling variants,
+ * and queries with more than MAX_RESULTS results. Searches also fall back until all maps are indexed.
+ *
+ * The index is only used if it is enabled in the preferences. Like the native search it only finds
+ * towns of the selected country, a town gets the country of the part it is in. Maps without a country
+ * index are left to the native search.
+ *
+ * The names are sorted in runs on disk, so a build does not keep a map in memory. Before a build a
+ * marker file next to the index records the map and the number of attempts, so a map whose build
+ * failed, or killed the app, is not built again on every start.
+ *
+ * Index format (big endian): the magic {@code NAVITSIX}, int version (4), long size and long
+ * modification time of the map, int number of countries in the country index of the map, int number of
+ * entries, int number of blocks, an int file offset for each block, then the entries. Each block holds
+ * BLOCK_ENTRIES entries, with the names front coded: byte length of the prefix shared with the previous
+ * name (0 for the first entry of a block), byte length of the rest of the name, the rest of the name in
+ * UTF-8, byte type, short numeric country code (0 if unknown), int x and int y of the position in map
+ * units, short length of the address and the address in UTF-8.
+ */
+public class NavitSearchIndex implements NavitMapInventory.Listener
+{
+	private static final String TAG               = "NavitSearchIndex";
+	private static final String MAGIC             = "NAVITSIX";
+	private static final int    VERSION           = 4;
+	private static final int    HEADER_SIZE       = 8 + 4 + 8 + 8 + 4 + 4 + 4;
+	/* The preference which enables the index */
+	private static final String PREF_ENABLED      = "SearchIndex";
+	private static final int    BLOCK_ENTRIES     = 64;
+	private static final int    MAX_NAME_BYTES    = 255;
+	private static final int    MAX_ADDRESS_BYTES = 1024;
+	/* Larger maps are left to the native search, block offsets are ints */
+	private static final int    MAX_ENTRIES       = 4000000;
+	private static final long   MAX_INDEX_BYTES   = 1L << 30;
+	private static final int    MAX_TILE_BYTES    = 16 * 1024 * 1024;
+	/* A town is indexed under at most this many of its words */
+	private static final int    MAX_KEYS_PER_NAME = 8;
+	/* The entries sorted in memory at once, and the runs merged at once */
+	private static final int    RUN_ENTRIES       = 32768;
+	private static final int    MERGE_RUNS        = 32;
+	private static final int    MAX_BUILD_ATTEMPTS = 2;
+	private static final int    MAX_RESULTS       = 500;
+	/* Searches run on the UI thread, so they read at most this many entries */
+	private static final int    MAX_SCANNED       = 16 * MAX_RESULTS;
+
+	/* Item and attribute types of item_def.h and attr_def.h, checked by cmake/check_binfile_ids.cmake */
+	private static final int    TYPE_TOWN_LABEL          = 0x00010000;
+	private static final int    TYPE_DISTRICT_LABEL      = 0x00010100;
+	private static final int    TYPE_DISTRICT_LABEL_1E7  = 0x00010117;
+	private static final int    ATTR_TOWN_NAME           = 0x0003000a;
+	private static final int    ATTR_DISTRICT_NAME       = 0x0003000c;
+	private static final int    TYPE_COUNTRYINDEX        = 0xc0000023;
+	private static final int    ATTR_ZIPFILE_REF         = 0x00020009;
+	private static final int    ATTR_COUNTRY_ID          = 0x0002000a;
+
+	/* The numeric code of each ISO 3166 alpha-2 code, as in country.c */
+	private static final String COUNTRY_IDS =
+	        "AD020AE784AF004AG028AI660AL008AM051AN530AO024AQ010AR032AS016AT040AU036AW533AX248AZ031BA070BB052BD050"
+	        + "BE056BF854BG100BH048BI108BJ204BL652BM060BN096BO068BQ535BR076BS044BT064BV074BW072BY112BZ084CA124CC166"
+	        + "CD180CF140CG178CH756CI384CK184CL152CM120CN156CO170CR188CU192CV132CW531CX162CY196CZ203DE276DJ262DK208"
+	        + "DM212DO214DZ012EC218EE233EG818EH732ER232ES724ET231FI246FJ242FK238FM583FO234FR250GA266GB826GD308GE268"
+	        + "GF254GG831GH288GI292GL304GM270GN324GP312GQ226GR300GS239GT320GU316GW624GY328HK344HM334HN340HR191HT332"
+	        + "HU348ID360IE372IL376IM833IN356IO086IQ368IR364IS352IT380JE832JM388JO400JP392KE404KG417KH116KI296KM174"
+	        + "KN659KP408KR410KW414KY136KZ398LA418LB422LC662LI438LK144LR430LS426LT440LU442LV428LY434MA504MC492MD498"
+	        + "ME499MF663MG450MH584MK807ML466MM104MN496MO446MP580MQ474MR478MS500MT470MU480MV462MW454MX484MY458MZ508"
+	        + "NA516NC540NE562NF574NG566NI558NL528NO578NP524NR520NU570NZ554OM512PA591PE604PF258PG598PH608PK586PL616"
+	        + "PM666PN612PR630PS275PT620PW585PY600QA634RE638RO642RS688RU643RW646SA682SB090SC690SD736SE752SG702SH654"
+	        + "SI705SJ744SK703SL694SM674SN686SO706SR740SS728ST678SV222SX534SY760SZ748TC796TD148TF260TG768TH764TJ762"
+	        + "TK772TL626TM795TN788TO776TR792TT780TV798TW158TZ834UA804UG800UM581US840UY858UZ860VA336VC670VE862VG092"
+	        + "VI850VN704VU548WF876WS882YE887YT175ZA710ZM894ZW716";
+
+	/* Copies of a town are merged if they are in the same cell, in map units (about 2 km) */
+	private static final int    MERGE_CELL_SHIFT  = 11;
+
+	private static NavitSearchIndex instance;
+
+	private final Handler          index_handler;
+	/* Whether the index follows the inventory, guarded by the class */
+	private boolean                started;
+	private volatile MapIndex[]    indices  = new MapIndex[0];
+	private volatile boolean       ready;
+
+	/** @brief An opened index file. */
+	private static class MapIndex
+	{
+		final String           map_location;
+		final long             map_size;
+		final long             map_modified;
+		final MappedByteBuffer buffer;
+		final int              countries;
+		final int              entries;
+		final int[]            blocks;
+
+		MapIndex(String map_location, long map_size, long map_modified, MappedByteBuffer buffer, int countries,
+		        int entries, int[] blocks) {
+			this.map_location = map_location;
+			this.map_size = map_size;
+			this.map_modified = map_modified;
+			this.buffer = buffer;
+			this.countries = countries;
+			this.entries = entries;
+			this.blocks = blocks;
+		}
+	}
+
+	/** @brief A town while an index is built. */
+	private static class Entry
+	{
+		byte[] key;
+		int    type;
+		int    country;
+		int    x;
+		int    y;
+		byte[] address;
+	}
+
+	/**
+	 * @brief Returns the index if it is enabled in the preferences, otherwise null.
+	 *
+	 * An enabled index follows the inventory of maps from then on.
+	 */
+	public static synchronized NavitSearchIndex getInstance(Context context) {
+		if (!isEnabled(context))
+			return null;
+		if (instance == null)
+			instance = new NavitSearchIndex();
+		if (!instance.started) {
+			instance.started = true;
+			NavitMapInventory inventory = NavitMapInventory.getInstance();
+			inventory.addListener(instance);
+			if (inventory.isScanned())
+				instance.onMapsChanged(inventory.getMaps());
+		}
+		return instance;
+	}
+
+	/** @brief Returns true if the index is enabled in the preferences. It is disabled by default. */
+	public static boolean isEnabled(Context context) {
+		return context.getSharedPreferences(Navit.NAVIT_PREFS, Context.MODE_PRIVATE).getBoolean(PREF_ENABLED, false);
+	}
+
+	/**
+	 * @brief Enables or disables the index in the preferences.
+	 *
+	 * Enabling the index starts indexing the installed maps. Disabling it stops following the inventory
+	 * of maps, and the index files are deleted once the current update is done.
+	 */
+	public static synchronized void setEnabled(Context context, boolean enabled) {
+		SharedPreferences.Editor editor = context.getSharedPreferences(Navit.NAVIT_PREFS, Context.MODE_PRIVATE).edit();
+		editor.putBoolean(PREF_ENABLED, enabled);
+		editor.commit();
+		if (enabled) {
+			getInstance(context);
+		} else if (instance != null && instance.started) {
+			final NavitSearchIndex index = instance;
+			index.started = false;
+			index.ready = false;
+			NavitMapInventory.getInstance().removeListener(index);
+			index.index_handler.post(new Runnable() {
+				public void run() {
+					index.clear();
+				}
+			});
+		}
+	}
+
+	private NavitSearchIndex() {
+		/* A build can take minutes, it must not slow down drawing the map */
+		HandlerThread thread = new HandlerThread(TAG, Process.THREAD_PRIORITY_BACKGROUND);
+		thread.start();
+		index_handler = new Handler(thread.getLooper());
+	}
+
+	/** @brief Drops the indices and deletes their files. */
+	private void clear() {
+		ready = false;
+		indices = new MapIndex[0];
+		String[] files = getIndexDir().list();
+		if (files != null) {
+			for (String name : files)
+				new File(getIndexDir(), name).delete();
+		}
+	}
+
+	private static File getIndexDir() {
+		return new File(Navit.NAVIT_DATA_SHARE_DIR, "search_index");
+	}
+
+	private static File getIndexFile(String map_location) {
+		return new File(getIndexDir(), new File(map_location).getName() + ".idx");
+	}
+
+	private static File getFailedFile(File index_file) {
+		return new File(index_file.getPath() + ".failed");
+	}
+
+	/**
+	 * @brief Records an attempt to build an index in its marker file.
+	 *
+	 * @return false if the index of this version of the map failed to build MAX_BUILD_ATTEMPTS times
+	 */
+	private static boolean startAttempt(File index_file, long size, long modified) {
+		File failed_file = getFailedFile(index_file);
+		int attempts = 0;
+		if (failed_file.exists()) {
+			try {
+				DataInputStream in = new DataInputStream(new FileInputStream(failed_file));
+				try {
+					if (in.readLong() == size && in.readLong() == modified)
+						attempts = in.readInt();
+				} finally {
+					in.close();
+				}
+			} catch (IOException e) {
+				/* A marker cut short by a crash is an attempt of its own */
+				attempts = MAX_BUILD_ATTEMPTS - 1;
+			}
+		}
+		if (attempts >= MAX_BUILD_ATTEMPTS)
+			return false;
+		writeAttempts(failed_file, size, modified, attempts + 1);
+		return true;
+	}
+
+	private static void writeAttempts(File failed_file, long size, long modified, int attempts) {
+		try {
+			File dir = failed_file.getParentFile();
+			if (!dir.isDirectory() && !dir.mkdirs())
+				throw new IOException("cannot create " + dir);
+			DataOutputStream out = new DataOutputStream(new FileOutputStream(failed_file));
+			try {
+				out.writeLong(size);
+				out.writeLong(modified);
+				out.writeInt(attempts);
+			} finally {
+				out.close();
+			}
+		} catch (IOException e) {
+			Log.e(TAG, "Could not write " + failed_file + ": " + e);
+		}
+	}
+
+	public void onMapsChanged(final NavitMap[] maps) {
+		index_handler.post(new Runnable() {
+			public void run() {
+				update(maps);
+			}
+		});
+	}
+
+	/** @brief Returns true if all installed maps are indexed. */
+	public boolean isReady() {
+		return ready;
+	}
+
+	/**
+	 * @brief Opens or builds the index of each map, and drops the indices of removed maps.
+	 */
+	private void update(NavitMap[] maps) {
+		ready = false;
+		ArrayList<MapIndex> opened = new ArrayList<MapIndex>();
+		HashSet<String> index_files = new HashSet<String>();
+		boolean complete = true;
+		for (NavitMap map : maps) {
+			String location = map.getLocation();
+			long size = map.size();
+			long modified = map.lastModified();
+			File index_file = getIndexFile(location);
+			File failed_file = getFailedFile(index_file);
+			index_files.add(index_file.getName());
+			index_files.add(failed_file.getName());
+			MapIndex index = null;
+			for (MapIndex current : indices) {
+				if (current.map_location.equals(location) && current.map_size == size
+				        && current.map_modified == modified)
+					index = current;
+			}
+			if (index == null)
+				index = open(index_file, location, size, modified);
+			if (index == null && startAttempt(index_file, size, modified)) {
+				try {
+					build(new File(location), index_file, size, modified);
+					index = open(index_file, location, size, modified);
+					failed_file.delete();
+				} catch (IOException e) {
+					Log.e(TAG, "Could not index " + location + ": " + e);
+					index_file.delete();
+					writeAttempts(failed_file, size, modified, MAX_BUILD_ATTEMPTS);
+				} catch (RuntimeException e) {
+					/* A malformed tile must not take the app down with this thread */
+					Log.e(TAG, "Could not index " + location + ": " + e);
+					index_file.delete();
+					writeAttempts(failed_file, size, modified, MAX_BUILD_ATTEMPTS);
+				} catch (OutOfMemoryError e) {
+					Log.e(TAG, "Out of memory while indexing " + location);
+					index_file.delete();
+					writeAttempts(failed_file, size, modified, MAX_BUILD_ATTEMPTS);
+				}
+			}
+			if (index != null) {
+				opened.add(index);
+				/* Searches can use the maps indexed so far, the next maps may take a while */
+				indices = opened.toArray(new MapIndex[opened.size()]);
+			} else {
+				complete = false;
+			}
+		}
+		indices = opened.toArray(new MapIndex[opened.size()]);
+		ready = complete;
+		String[] files = getIndexDir().list();
+		if (files != null) {
+			for (String name : files) {
+				if (!index_files.contains(name))
+					new File(getIndexDir(), name).delete();
+			}
+		}
+		Log.d(TAG, "Indexed " + opened.size() + " of " + maps.length + " maps");
+	}
+
+	private static MapIndex open(File index_file, String location, long size, long modified) {
+		if (!index_file.exists())
+			return null;
+		try {
+			RandomAccessFile file = new RandomAccessFile(index_file, "r");
+			try {
+				FileChannel channel = file.getChannel();
+				MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+				byte[] magic = new byte[MAGIC.length()];
+				buffer.get(magic);
+				if (!MAGIC.equals(new String(magic, "US-ASCII")) || buffer.getInt() != VERSION
+				        || buffer.getLong() != size || buffer.getLong() != modified)
+					return null;
+				int countries = buffer.getInt();
+				int entries = buffer.getInt();
+				int[] blocks = new int[buffer.getInt()];
+				if (entries < 0 || blocks.length != (entries + BLOCK_ENTRIES - 1) / BLOCK_ENTRIES)
+					return null;
+				for (int i = 0; i < blocks.length; i++)
+					blocks[i] = buffer.getInt();
+				return new MapIndex(location, size, modified, buffer, countries, entries, blocks);
+			} finally {
+				/* The mapping stays valid after the file is closed */
+				file.close();
+			}
+		} catch (IOException e) {
+			Log.e(TAG, "Invalid search index " + index_file + ": " + e);
+			return null;
+		} catch (RuntimeException e) {
+			Log.e(TAG, "Invalid search index " + index_file + ": " + e);
+			return null;
+		}
+	}
+
+	private static boolean isTown(int type) {
+		return type >= TYPE_TOWN_LABEL && type <= TYPE_DISTRICT_LABEL_1E7;
+	}
+
+	/**
+	 * @brief Reads the towns and districts of a map and writes its index.
+	 *
+	 * The towns are read from the parts of the country index, which the native search uses as well. They
+	 * are sorted in runs of RUN_ENTRIES, which are written to temporary files next to the index and merged
+	 * into it, so the memory used does not grow with the size of the map.
+	 */
+	private static void build(File map_file, File index_file, long size, long modified) throws IOException {
+		long start = System.currentTimeMillis();
+		File dir = index_file.getParentFile();
+		if (!dir.isDirectory() && !dir.mkdirs())
+			throw new IOException("cannot create " + dir);
+		Runs runs = new Runs(index_file);
+		IndexOutput out = new IndexOutput(index_file, size, modified);
+		try {
+			ZipFile zip = new ZipFile(map_file);
+			try {
+				ArrayList<ZipEntry> members = new ArrayList<ZipEntry>();
+				Enumeration<? extends ZipEntry> entries = zip.entries();
+				while (entries.hasMoreElements())
+					members.add(entries.nextElement());
+				Tile tile = new Tile();
+				int[] member_countries = new int[members.size()];
+				out.countries = readCountryIndex(zip, members, tile, member_countries);
+				for (int i = 0; i < members.size(); i++) {
+					if (member_countries[i] == 0)
+						continue;
+					tile.read(zip, members.get(i));
+					readTile(tile.data, tile.size, member_countries[i], runs);
+				}
+				runs.flush();
+			} finally {
+				zip.close();
+			}
+			/* Merge in steps, so no more than MERGE_RUNS files are open at once */
+			while (runs.files.size() > MERGE_RUNS) {
+				ArrayList<File> inputs = new ArrayList<File>(runs.files.subList(0, MERGE_RUNS));
+				RunOutput merged = new RunOutput(runs.create());
+				try {
+					merge(inputs, merged);
+				} finally {
+					merged.close();
+				}
+				for (File input : inputs) {
+					input.delete();
+					runs.files.remove(input);
+				}
+			}
+			merge(runs.files, out);
+			out.finish();
+			Log.d(TAG, "Indexed " + out.count + " names of " + map_file + " in "
+			        + (System.currentTimeMillis() - start) + " ms");
+		} finally {
+			out.delete();
+			runs.delete();
+		}
+	}
+
+	/** @brief The data of a zip member, in a buffer reused for all members. */
+	private static class Tile
+	{
+		byte[] data = new byte[64 * 1024];
+		int    size;
+
+		void read(ZipFile zip, ZipEntry member) throws IOException {
+			size = 0;
+			if (member.isDirectory() || member.getSize() <= 0)
+				return;
+			if (member.getSize() > MAX_TILE_BYTES)
+				throw new IOException("tile too large: " + member.getName());
+			int member_size = (int) member.getSize();
+			if (data.length < member_size)
+				data = new byte[member_size];
+			InputStream in = zip.getInputStream(member);
+			try {
+				while (size < member_size) {
+					int len = in.read(data, size, member_size - size);
+					if (len < 0)
+						throw new IOException("truncated tile " + member.getName());
+					size += len;
+				}
+			} finally {
+				in.close();
+			}
+		}
+	}
+
+	/**
+	 * @brief Finds the parts of the country index of a map.
+	 *
+	 * The country index items of the last member, the top of the tile tree, refer to a member per country,
+	 * whose country index items refer to the parts with the towns of that country, see write_countrydir()
+	 * of maptool.
+	 *
+	 * @param member_countries Set to the numeric country code of each part, 0 for other members
+	 *
+	 * @return The number of countries in the index
+	 */
+	private static int readCountryIndex(ZipFile zip, ArrayList<ZipEntry> members, Tile tile,
+	        int[] member_countries) throws IOException {
+		if (members.isEmpty())
+			return 0;
+		HashSet<Integer> countries = new HashSet<Integer>();
+		ArrayList<Integer> pending = new ArrayList<Integer>();
+		pending.add(members.size() - 1);
+		while (!pending.isEmpty()) {
+			tile.read(zip, members.get(pending.remove(pending.size() - 1)));
+			IntBuffer ints = ByteBuffer.wrap(tile.data, 0, tile.size).order(ByteOrder.LITTLE_ENDIAN).asIntBuffer();
+			int limit = ints.limit();
+			int pos = 0;
+			while (pos + 3 <= limit) {
+				int size = ints.get(pos);
+				int next = pos + size + 1;
+				if (size < 2 || next > limit)
+					break;
+				if (ints.get(pos + 1) == TYPE_COUNTRYINDEX) {
+					int country = 0;
+					int ref = -1;
+					for (int attr = pos + 3 + Math.max(0, ints.get(pos + 2)); attr + 2 < next;) {
+						int attr_size = ints.get(attr);
+						if (attr_size < 1 || attr + attr_size + 1 > next)
+							break;
+						if (ints.get(attr + 1) == ATTR_COUNTRY_ID)
+							country = ints.get(attr + 2);
+						else if (ints.get(attr + 1) == ATTR_ZIPFILE_REF)
+							ref = ints.get(attr + 2);
+						attr += attr_size + 1;
+					}
+					if (country > 0 && ref >= 0 && ref < members.size() - 1 && member_countries[ref] == 0) {
+						member_countries[ref] = country;
+						countries.add(country);
+						pending.add(ref);
+					}
+				}
+				pos = next;
+			}
+		}
+		return countries.size();
+	}
+
+	/**
+	 * @brief Adds the towns and districts of a part of the country index.
+	 *
+	 * A tile is a sequence of items of little endian ints: the length of the item in ints, the type, the
+	 * number of coordinate ints, the coordinates, then the attributes as length, type and data. Maptool
+	 * writes a copy of an item for each word its name can be matched from, these are merged as duplicates.
+	 *
+	 * @param country The country of the part
+	 */
+	private static void readTile(byte[] tile, int tile_size, int country, Runs runs) throws IOException {
+		IntBuffer ints = ByteBuffer.wrap(tile, 0, tile_size).order(ByteOrder.LITTLE_ENDIAN).asIntBuffer();
+		int limit = ints.limit();
+		int pos = 0;
+		while (pos + 3 <= limit) {
+			int size = ints.get(pos);
+			int type = ints.get(pos + 1);
+			int coord_size = ints.get(pos + 2);
+			int next = pos + size + 1;
+			if (size < 2 || next > limit || coord_size < 0 || pos + 3 + coord_size > next)
+				return;
+			if (isTown(type) && coord_size >= 2) {
+				String town = null;
+				String district = null;
+				for (int attr = pos + 3 + coord_size; attr + 1 < next;) {
+					int attr_size = ints.get(attr);
+					if (attr_size < 1 || attr + attr_size + 1 > next)
+						break;
+					int attr_type = ints.get(attr + 1);
+					if (attr_type == ATTR_TOWN_NAME)
+						town = readString(tile, (attr + 2) * 4, (attr + attr_size + 1) * 4);
+					else if (attr_type == ATTR_DISTRICT_NAME)
+						district = readString(tile, (attr + 2) * 4, (attr + attr_size + 1) * 4);
+					attr += attr_size + 1;
+				}
+				/* A district is found by its name and the name of its town, and shown as by town_str() of android.c */
+				String address = (district != null && town != null) ? town + " (" + district + ")"
+				        : (district != null ? district : town);
+				if (district != null && district.length() > 0)
+					addEntries(district, address, country, ints.get(pos + 3), ints.get(pos + 4), runs);
+				if (town != null && town.length() > 0)
+					addEntries(town, address, country, ints.get(pos + 3), ints.get(pos + 4), runs);
+			}
+			pos = next;
+		}
+	}
+
+	/**
+	 * @brief Adds a town under the start of each word of its name, up to MAX_KEYS_PER_NAME words.
+	 *
+	 * Like the native search, a name is matched from the start of any of its words.
+	 */
+	private static void addEntries(String name, String address, int country, int x, int y, Runs runs)
+	        throws IOException {
+		String[] words = NavitTextNormalizer.words(NavitTextNormalizer.fold(name));
+		byte[] address_bytes = truncate(address.getBytes("UTF-8"), MAX_ADDRESS_BYTES);
+		for (int first = 0; first < words.length && first < MAX_KEYS_PER_NAME; first++) {
+			StringBuilder key = new StringBuilder();
+			for (int i = first; i < words.length; i++) {
+				if (key.length() > 0)
+					key.append(' ');
+				key.append(words[i]);
+			}
+			Entry entry = new Entry();
+			entry.key = truncate(key.toString().getBytes("UTF-8"), MAX_NAME_BYTES);
+			entry.type = NavitAddressResults.TYPE_TOWN;
+			entry.country = country;
+			entry.x = x;
+			entry.y = y;
+			entry.address = address_bytes;
+			runs.add(entry);
+		}
+	}
+
+	private static String readString(byte[] data, int start, int end) {
+		int len = 0;
+		while (start + len < end && data[start + len] != 0)
+			len++;
+		try {
+			return new String(data, start, len, "UTF-8");
+		} catch (UnsupportedEncodingException e) {
+			return null;
+		}
+	}
+
+	private static long cell(int x, int y, int shift) {
+		return ((long) (x >> shift) << 32) | ((y >> shift) & 0xffffffffL);
+	}
+
+	private static byte[] truncate(byte[] data, int max) {
+		if (data.length <= max)
+			return data;
+		byte[] ret = new byte[max];
+		System.arraycopy(data, 0, ret, 0, max);
+		return ret;
+	}
+
+	private static int compare(byte[] a, int a_len, byte[] b, int b_len) {
+		int len = Math.min(a_len, b_len);
+		for (int i = 0; i < len; i++) {
+			int diff = (a[i] & 0xff) - (b[i] & 0xff);
+			if (diff != 0)
+				return diff;
+		}
+		return a_len - b_len;
+	}
+
+	/**
+	 * @brief The order of the index: by key, then type, country and position, so the copies of a town
+	 * follow each other.
+	 */
+	private static final Comparator<Entry> ENTRY_ORDER = new Comparator<Entry>() {
+		public int compare(Entry a, Entry b) {
+			int ret = NavitSearchIndex.compare(a.key, a.key.length, b.key, b.key.length);
+			if (ret != 0)
+				return ret;
+			if (a.type != b.type)
+				return a.type - b.type;
+			if (a.country != b.country)
+				return a.country - b.country;
+			long a_cell = cell(a.x, a.y, MERGE_CELL_SHIFT);
+			long b_cell = cell(b.x, b.y, MERGE_CELL_SHIFT);
+			if (a_cell != b_cell)
+				return a_cell < b_cell ? -1 : 1;
+			return NavitSearchIndex.compare(a.address, a.address.length, b.address, b.address.length);
+		}
+	};
+
+	/** @brief Returns true if an entry is a copy of the entry before it. */
+	private static boolean isDuplicate(Entry last, Entry entry) {
+		return last.type == entry.type && last.country == entry.country && Arrays.equals(last.key, entry.key)
+		        && Arrays.equals(last.address, entry.address)
+		        && cell(last.x, last.y, MERGE_CELL_SHIFT) == cell(entry.x, entry.y, MERGE_CELL_SHIFT);
+	}
+
+	/** @brief Where entries are written to in ENTRY_ORDER. */
+	private interface EntryOutput
+	{
+		void write(Entry entry) throws IOException;
+	}
+
+	/**
+	 * @brief The sorted runs of a build, in temporary files next to the index.
+	 */
+	private static class Runs
+	{
+		final File             index_file;
+		final ArrayList<File>  files   = new ArrayList<File>();
+		final ArrayList<Entry> pending = new ArrayList<Entry>();
+		int                    next;
+
+		Runs(File index_file) {
+			this.index_file = index_file;
+		}
+
+		File create() {
+			File ret = new File(index_file.getPath() + ".run" + next++);
+			files.add(ret);
+			return ret;
+		}
+
+		void add(Entry entry) throws IOException {
+			pending.add(entry);
+			if (pending.size() == RUN_ENTRIES)
+				flush();
+		}
+
+		/** @brief Sorts the pending entries and writes them to a new run. */
+		void flush() throws IOException {
+			if (pending.isEmpty())
+				return;
+			Entry[] sorted = pending.toArray(new Entry[pending.size()]);
+			pending.clear();
+			Arrays.sort(sorted, ENTRY_ORDER);
+			RunOutput out = new RunOutput(create());
+			try {
+				Entry last = null;
+				for (Entry entry : sorted) {
+					if (last == null || !isDuplicate(last, entry))
+						out.write(entry);
+					last = entry;
+				}
+			} finally {
+				out.close();
+			}
+		}
+
+		void delete() {
+			for (File file : files)
+				file.delete();
+			files.clear();
+		}
+	}
+
+	/**
+	 * @brief Writes entries to a run: byte length and key, byte type, short country, int x and y, short length
+	 * and address.
+	 */
+	private static class RunOutput implements EntryOutput
+	{
+		private final DataOutputStream out;
+
+		RunOutput(File file) throws IOException {
+			out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 64 * 1024));
+		}
+
+		public void write(Entry entry) throws IOException {
+			out.writeByte(entry.key.length);
+			out.write(entry.key);
+			out.writeByte(entry.type);
+			out.writeShort(entry.country);
+			out.writeInt(entry.x);
+			out.writeInt(entry.y);
+			out.writeShort(entry.address.length);
+			out.write(entry.address);
+		}
+
+		void close() throws IOException {
+			out.close();
+		}
+	}
+
+	/** @brief Reads the entries of a run. */
+	private static class RunReader
+	{
+		private final DataInputStream in;
+		Entry                         current;
+
+		RunReader(File file) throws IOException {
+			in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 16 * 1024));
+		}
+
+		/** @brief Reads the next entry into current, returns false at the end of the run. */
+		boolean next() throws IOException {
+			int key_len = in.read();
+			if (key_len < 0)
+				return false;
+			Entry entry = new Entry();
+			entry.key = new byte[key_len];
+			in.readFully(entry.key);
+			entry.type = in.readByte();
+			entry.country = in.readShort();
+			entry.x = in.readInt();
+			entry.y = in.readInt();
+			entry.address = new byte[in.readShort() & 0xffff];
+			in.readFully(entry.address);
+			current = entry;
+			return true;
+		}
+
+		void close() {
+			try {
+				in.close();
+			} catch (IOException e) {
+			}
+		}
+	}
+
+	/**
+	 * @brief Merges sorted runs into one output, dropping duplicate parts of streets.
+	 */
+	private static void merge(List<File> inputs, EntryOutput out) throws IOException {
+		ArrayList<RunReader> readers = new ArrayList<RunReader>(inputs.size());
+		PriorityQueue<RunReader> queue = new PriorityQueue<RunReader>(Math.max(1, inputs.size()),
+		        new Comparator<RunReader>() {
+			        public int compare(RunReader a, RunReader b) {
+				        return ENTRY_ORDER.compare(a.current, b.current);
+			        }
+		        });
+		try {
+			for (File input : inputs) {
+				RunReader reader = new RunReader(input);
+				readers.add(reader);
+				if (reader.next())
+					queue.add(reader);
+			}
+			Entry last = null;
+			while (!queue.isEmpty()) {
+				RunReader reader = queue.poll();
+				Entry entry = reader.current;
+				if (last == null || !isDuplicate(last, entry))
+					out.write(entry);
+				last = entry;
+				if (reader.next())
+					queue.add(reader);
+			}
+		} finally {
+			for (RunReader reader : readers)
+				reader.close();
+		}
+	}
+
+	private static int sharedPrefix(byte[] a, byte[] b) {
+		int len = Math.min(a.length, b.length);
+		int ret = 0;
+		while (ret < len && a[ret] == b[ret])
+			ret++;
+		return ret;
+	}
+
+	/**
+	 * @brief Writes the index file from the merged entries.
+	 *
+	 * The entries are written to a temporary file first, as the offsets of the blocks, which come before
+	 * the entries, are only known at the end.
+	 */
+	private static class IndexOutput implements EntryOutput
+	{
+		private final File       index_file;
+		private final File       body_file;
+		private final File       tmp_file;
+		private final long       size;
+		private final long       modified;
+		private DataOutputStream body;
+		private long             body_size;
+		private int[]            blocks = new int[64];
+		private byte[]           previous;
+		int                      countries;
+		int                      count;
+
+		IndexOutput(File index_file, long size, long modified) {
+			this.index_file = index_file;
+			this.body_file = new File(index_file.getPath() + ".body");
+			this.tmp_file = new File(index_file.getPath() + ".tmp");
+			this.size = size;
+			this.modified = modified;
+		}
+
+		public void write(Entry entry) throws IOException {
+			if (count == MAX_ENTRIES || body_size > MAX_INDEX_BYTES)
+				throw new IOException("too many towns and streets");
+			if (body == null)
+				body = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(body_file), 64 * 1024));
+			int shared = 0;
+			if (count % BLOCK_ENTRIES == 0) {
+				int block = count / BLOCK_ENTRIES;
+				if (block == blocks.length) {
+					int[] new_blocks = new int[blocks.length * 2];
+					System.arraycopy(blocks, 0, new_blocks, 0, block);
+					blocks = new_blocks;
+				}
+				blocks[block] = (int) body_size;
+			} else {
+				shared = sharedPrefix(previous, entry.key);
+			}
+			body.writeByte(shared);
+			body.writeByte(entry.key.length - shared);
+			body.write(entry.key, shared, entry.key.length - shared);
+			body.writeByte(entry.type);
+			body.writeShort(entry.country);
+			body.writeInt(entry.x);
+			body.writeInt(entry.y);
+			body.writeShort(entry.address.length);
+			body.write(entry.address);
+			body_size += 2 + (entry.key.length - shared) + 1 + 2 + 8 + 2 + entry.address.length;
+			previous = entry.key;
+			count++;
+		}
+
+		void finish() throws IOException {
+			if (body != null)
+				body.close();
+			body = null;
+			int block_count = (count + BLOCK_ENTRIES - 1) / BLOCK_ENTRIES;
+			int base = HEADER_SIZE + 4 * block_count;
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp_file),
+			        64 * 1024));
+			try {
+				out.write(MAGIC.getBytes("US-ASCII"));
+				out.writeInt(VERSION);
+				out.writeLong(size);
+				out.writeLong(modified);
+				out.writeInt(countries);
+				out.writeInt(count);
+				out.writeInt(block_count);
+				for (int i = 0; i < block_count; i++)
+					out.writeInt(base + blocks[i]);
+				if (count > 0) {
+					InputStream in = new FileInputStream(body_file);
+					try {
+						byte[] buffer = new byte[64 * 1024];
+						int len;
+						while ((len = in.read(buffer)) > 0)
+							out.write(buffer, 0, len);
+					} finally {
+						in.close();
+					}
+				}
+			} finally {
+				out.close();
+			}
+			if (!tmp_file.renameTo(index_file)) {
+				index_file.delete();
+				if (!tmp_file.renameTo(index_file))
+					throw new IOException("cannot replace " + index_file);
+			}
+		}
+
+		/** @brief Removes the temporary files. */
+		void delete() {
+			if (body != null) {
+				try {
+					body.close();
+				} catch (IOException e) {
+				}
+				body = null;
+			}
+			body_file.delete();
+			tmp_file.delete();
+		}
+	}
+
+	/**
+	 * @brief Looks up the name of a town or district.
+	 *
+	 * Only queries of a single word are answered, like the native search the word has to start a word of
+	 * the name. Queries of more words, e.g. a town and a street, are left to the native search, which
+	 * also matches spelling variants the index does not know. The results are not marked complete, so
+	 * they are neither cached nor refined.
+	 *
+	 * The scan runs on the calling thread, so it is bounded: at most MAX_SCANNED entries are read.
+	 *
+	 * @param query The query as typed
+	 * @param partial false if the name has to match the query exactly
+	 * @param country The ISO 3166 alpha-2 code of the country to search in
+	 * @param out The results are added to this, or nothing is added
+	 *
+	 * @return false if the index cannot answer the query: not all maps are indexed yet, a map has no
+	 * country index, the query is not a single word, or it has no results or too many
+	 */
+	public boolean search(String query, boolean partial, String country, NavitAddressResults out) {
+		MapIndex[] current = indices;
+		if (!ready)
+			return false;
+		int country_id = getCountryId(country);
+		if (country_id == 0)
+			return false;
+		for (MapIndex index : current) {
+			if (index.countries == 0)
+				return false;
+		}
+		String[] words = NavitTextNormalizer.words(NavitTextNormalizer.fold(query));
+		if (words.length != 1)
+			return false;
+		byte[] prefix;
+		try {
+			prefix = truncate(words[0].getBytes("UTF-8"), MAX_NAME_BYTES);
+		} catch (UnsupportedEncodingException e) {
+			return false;
+		}
+
+		Results results = new Results();
+		for (int i = 0; i < current.length && !results.overflow; i++)
+			lookup(current[i], prefix, partial, country_id, results);
+		/* The native search finds all results, the index would have to leave some out */
+		if (results.overflow || results.count == 0)
+			return false;
+		out.add(results.types, results.lats, results.lons, results.addresses, results.count);
+		return true;
+	}
+
+	/** @brief Returns the numeric code of an ISO 3166 alpha-2 code, or 0 if it is unknown. */
+	private static int getCountryId(String country) {
+		if (country == null || country.length() != 2)
+			return 0;
+		String iso2 = country.toUpperCase(Locale.US);
+		for (int i = 0; i < COUNTRY_IDS.length(); i += 5) {
+			if (COUNTRY_IDS.startsWith(iso2, i))
+				return Integer.parseInt(COUNTRY_IDS.substring(i + 2, i + 5));
+		}
+		return 0;
+	}
+
+	/**
+	 * @brief Collects up to MAX_RESULTS results, they are only added to the store if there are no more.
+	 *
+	 * A town is indexed under each word of its name, and a town in several maps in each of them, these
+	 * copies are only added once.
+	 */
+	private static class Results
+	{
+		final int[]    types     = new int[MAX_RESULTS];
+		final float[]  lats      = new float[MAX_RESULTS];
+		final float[]  lons      = new float[MAX_RESULTS];
+		final String[] addresses = new String[MAX_RESULTS];
+		final HashSet<String> found = new HashSet<String>();
+		int            count;
+		int            scanned;
+		boolean        overflow;
+
+		/** @brief Counts an entry read, returns false once MAX_SCANNED entries were read. */
+		boolean scan() {
+			if (++scanned > MAX_SCANNED)
+				overflow = true;
+			return !overflow;
+		}
+
+		void add(int type, int x, int y, String address) {
+			if (!found.add(x + "," + y + "," + address))
+				return;
+			if (count == MAX_RESULTS) {
+				overflow = true;
+				return;
+			}
+			types[count] = type;
+			/* Map units to degrees, as transform_to_geo() does for projection_mg */
+			lons[count] = (float) (x / 6371000.0 / Math.PI * 180);
+			lats[count] = (float) (Math.atan(Math.exp(y / 6371000.0)) / Math.PI * 360 - 90);
+			addresses[count] = address;
+			count++;
+		}
+	}
+
+	/**
+	 * @brief Adds the entries of an index in a country whose key starts with the prefix.
+	 */
+	private static void lookup(MapIndex index, byte[] prefix, boolean partial, int country, Results results) {
+		if (index.entries == 0)
+			return;
+		ByteBuffer buffer = index.buffer.duplicate();
+		byte[] key = new byte[MAX_NAME_BYTES];
+		/* Find the last block whose first name is before the prefix, matches may start in it */
+		int low = 0;
+		int high = index.blocks.length - 1;
+		while (low < high) {
+			int mid = (low + high + 1) / 2;
+			buffer.position(index.blocks[mid] + 1);
+			int len = buffer.get() & 0xff;
+			buffer.get(key, 0, len);
+			if (compare(key, len, prefix, prefix.length) < 0)
+				low = mid;
+			else
+				high = mid - 1;
+		}
+
+		buffer.position(index.blocks[low]);
+		int key_len = 0;
+		for (int i = low * BLOCK_ENTRIES; i < index.entries && results.scan(); i++) {
+			int shared = buffer.get() & 0xff;
+			int len = buffer.get() & 0xff;
+			buffer.get(key, shared, len);
+			key_len = shared + len;
+			int type = buffer.get();
+			int entry_country = buffer.getShort();
+			int x = buffer.getInt();
+			int y = buffer.getInt();
+			int address_len = buffer.getShort() & 0xffff;
+			int cmp = compare(key, Math.min(key_len, prefix.length), prefix, prefix.length);
+			if (cmp > 0)
+				break;
+			if (cmp < 0 || (!partial && key_len != prefix.length) || entry_country != country) {
+				buffer.position(buffer.position() + address_len);
+				continue;
+			}
+			byte[] address_bytes = new byte[address_len];
+			buffer.get(address_bytes);
+			String address;
+			try {
+				address = new String(address_bytes, "UTF-8");
+			} catch (UnsupportedEncodingException e) {
+				continue;
+			}
+			results.add(type, x, y, address);
+		}
+	}
+}
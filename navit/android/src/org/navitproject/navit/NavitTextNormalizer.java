@@ -0,0 +1,193 @@
+/**
+ * Navit, a modular navigation system.
+ * Copyright (C) 2005-2008 Navit Team
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * version 2 as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor,
+ * Boston, MA  02110-1301, USA.
+ */
+
+package org.navitproject.navit;
+
+import java.util.ArrayList;
+
+/**
+ * @brief Normalizes search queries and addresses, so they can be compared in Java.
+ *
+ * Text is lower cased and the diacritics of latin letters are removed, so "München" and "munchen"
+ * compare equal. Cyrillic and greek letters are transliterated to latin ones, so names can be found
+ * with a latin keyboard, e.g. "Москва" with "moskva". Words are separated by anything which is not a
+ * letter or a digit, as the native search does with spaces, commas and slashes.
+ */
+public class NavitTextNormalizer
+{
+	/* Latin letters with diacritics, and the letters they are folded to */
+	private static final String ACCENTED = "àáâãäåāăąçćĉċčďđèéêëēĕėęěĝğġģĥħìíîïĩīĭįıĵķĺļľŀłñńņňòóôõöøōŏőŕŗř"
+	        + "śŝşšţťŧùúûüũūŭůűųŵýÿŷźżž";
+	private static final String FOLDED   = "aaaaaaaaacccccddeeeeeeeeegggghhiiiiiiiiijklllllnnnnooooooooorrr"
+	        + "sssstttuuuuuuuuuuwyyyzzz";
+
+	/* Transliteration of the lower case cyrillic letters from U+0430 to U+044F */
+	private static final String[] CYRILLIC = { "a", "b", "v", "g", "d", "e", "zh", "z", "i", "i", "k", "l", "m",
+	        "n", "o", "p", "r", "s", "t", "u", "f", "kh", "ts", "ch", "sh", "shch", "", "y", "", "e", "yu", "ya" };
+	/* Transliteration of the lower case greek letters from U+03AC to U+03CE */
+	private static final String[] GREEK    = { "a", "e", "i", "i", "y", "a", "v", "g", "d", "e", "z", "i", "th", "i",
+	        "k", "l", "m", "n", "x", "o", "p", "r", "s", "s", "t", "y", "f", "ch", "ps", "o", "i", "y", "o", "y", "o" };
+
+	/**
+	 * @brief Returns the text lower cased, without diacritics and in latin letters.
+	 */
+	public static String normalize(String text) {
+		StringBuilder ret = new StringBuilder(text.length());
+		appendNormalized(text, ret);
+		return ret.toString();
+	}
+
+	/**
+	 * @brief Returns the text lower cased and without diacritics, but not transliterated.
+	 *
+	 * The native search does not transliterate, so "Москва" and "moskva" have different results. Use this
+	 * where the results of the native search are told apart by their query, e.g. for the cache.
+	 */
+	public static String fold(String text) {
+		StringBuilder ret = new StringBuilder(text.length());
+		append(text, ret, false);
+		return ret.toString();
+	}
+
+	/**
+	 * @brief Appends the normalized text, without creating intermediate strings.
+	 */
+	public static void appendNormalized(CharSequence text, StringBuilder out) {
+		append(text, out, true);
+	}
+
+	private static void append(CharSequence text, StringBuilder out, boolean transliterate) {
+		for (int i = 0; i < text.length(); i++) {
+			char c = Character.toLowerCase(text.charAt(i));
+			if (c < 0x80) {
+				out.append(c);
+				continue;
+			}
+			int folded = ACCENTED.indexOf(c);
+			if (folded >= 0)
+				out.append(FOLDED.charAt(folded));
+			else if (c == 'ß')
+				out.append("ss");
+			else if (c == 'æ')
+				out.append("ae");
+			else if (c == 'œ')
+				out.append("oe");
+			else if (!transliterate)
+				out.append(c);
+			else if (c >= 0x0430 && c <= 0x044f)
+				out.append(CYRILLIC[c - 0x0430]);
+			else if (c >= 0x03ac && c <= 0x03ce)
+				out.append(GREEK[c - 0x03ac]);
+			else
+				appendOther(out, c);
+		}
+	}
+
+	private static void appendOther(StringBuilder out, char c) {
+		switch (c) {
+		case '\u0390': // greek iota with dialytika and tonos
+			out.append('i');
+			break;
+		case '\u0451': // cyrillic io
+			out.append('e');
+			break;
+		case '\u0452': // cyrillic dje
+			out.append('d');
+			break;
+		case '\u0454': // ukrainian ie
+			out.append("ie");
+			break;
+		case '\u0456': // byelorussian-ukrainian i
+		case '\u0457': // ukrainian yi
+			out.append('i');
+			break;
+		case '\u0458': // cyrillic je
+			out.append('j');
+			break;
+		case '\u045b': // cyrillic tshe
+			out.append('c');
+			break;
+		case '\u045e': // short u
+			out.append('u');
+			break;
+		case '\u0491': // ukrainian ghe with upturn
+			out.append('g');
+			break;
+		default:
+			out.append(c);
+		}
+	}
+
+	/**
+	 * @brief Splits normalized text into words.
+	 */
+	public static String[] words(String normalized) {
+		ArrayList<String> ret = new ArrayList<String>();
+		int start = -1;
+		for (int i = 0; i <= normalized.length(); i++) {
+			boolean word_char = i < normalized.length() && Character.isLetterOrDigit(normalized.charAt(i));
+			if (word_char && start < 0) {
+				start = i;
+			} else if (!word_char && start >= 0) {
+				ret.add(normalized.substring(start, i));
+				start = -1;
+			}
+		}
+		return ret.toArray(new String[ret.size()]);
+	}
+
+	/**
+	 * @brief Returns true if each prefix starts a word of the text.
+	 *
+	 * @param normalized The normalized text
+	 * @param prefixes The normalized prefixes
+	 */
+	public static boolean matchesWordPrefixes(String normalized, String[] prefixes) {
+		for (String prefix : prefixes) {
+			boolean found = false;
+			int pos = normalized.indexOf(prefix);
+			while (pos >= 0 && !found) {
+				if (pos == 0 || !Character.isLetterOrDigit(normalized.charAt(pos - 1)))
+					found = true;
+				else
+					pos = normalized.indexOf(prefix, pos + 1);
+			}
+			if (!found)
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * @brief Returns true if a query of one word extends another query of one word.
+	 *
+	 * With a prefix search, the results of such a query are the results of the other one whose address
+	 * has a word starting with the query. Queries of more words are not refinements: the native search
+	 * matches each result with some of the words only, e.g. the town Berlin is a result of "berlin haupt"
+	 * and of "berlin hauptst", although its address has no word starting with "hauptst".
+	 *
+	 * @param words The normalized words of the query
+	 * @param previous The normalized words of the other query
+	 */
+	public static boolean isRefinement(String[] words, String[] previous) {
+		if (words.length != 1 || previous.length != 1)
+			return false;
+		return words[0].startsWith(previous[0]);
+	}
+}
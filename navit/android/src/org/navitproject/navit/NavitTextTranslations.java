@@ -121,6 +121,10 @@ public class NavitTextTranslations
 		v = new String[]{"en", "Search", "de", "suchen"};
 		p(k, v);
 
+		k = "use search index";
+		v = new String[]{"en", "use search index", "de", "Suchindex verwenden"};
+		p(k, v);
+
 		k = "drive here";
 		v = new String[]{"en", "Route to here", "de", "Ziel setzen"};
 		p(k, v);
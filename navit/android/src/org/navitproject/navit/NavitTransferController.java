@@ -0,0 +1,191 @@
+/**
+ * Navit, a modular navigation system.
+ * Copyright (C) 2005-2008 Navit Team
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * version 2 as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor,
+ * Boston, MA  02110-1301, USA.
+ */
+
+package org.navitproject.navit;
+
+import java.util.Random;
+
+/**
+ * @brief Paces the map downloads and adapts them to the measured bandwidth.
+ *
+ * One controller is shared by all downloads of the queue, so its measurements and its rate limit
+ * cover the whole traffic. It provides:
+ * - the transfer rate, as an exponentially weighted moving average,
+ * - the size of the read buffer or transfer chunk, enough for about 100 ms of traffic at that rate,
+ * - an optional limit of the rate, enforced by a token bucket which all transfers draw from,
+ * - the delay before a retry, growing exponentially with random jitter,
+ * - an estimate of the round trip time, from the time the server takes to answer a request.
+ */
+public class NavitTransferController
+{
+	private static final int    MIN_BUFFER_SIZE    = 16 * 1024;
+	private static final int    MAX_BUFFER_SIZE    = 1024 * 1024;
+	/* Each chunk should take about this long at the current rate */
+	private static final long   CHUNK_TIME_NS      = 100 * 1000000L;
+	private static final long   RATE_WINDOW_NS     = 500 * 1000000L;
+	private static final float  RATE_WEIGHT        = 0.3f;
+	private static final float  RTT_WEIGHT         = 0.125f;
+	private static final long   RETRY_BASE_MS      = 1000;
+	private static final long   RETRY_MAX_MS       = 60000;
+
+	private final Random        random             = new Random();
+
+	/* Rate measurement */
+	private long                window_start       = -1;
+	private long                window_bytes;
+	private long                rate;
+	private long                total_bytes;
+
+	/* Token bucket, in bytes, for the rate limit */
+	private long                rate_limit;
+	private double              tokens;
+	private long                tokens_updated;
+
+	private long                rtt_ns;
+	private int                 retries;
+
+	/**
+	 * @brief Accounts for data received by a transfer.
+	 *
+	 * @param bytes The number of bytes received
+	 */
+	public synchronized void transferred(long bytes) {
+		long now = System.nanoTime();
+		total_bytes += bytes;
+		if (window_start < 0) {
+			window_start = now;
+			window_bytes = 0;
+		}
+		window_bytes += bytes;
+		long elapsed = now - window_start;
+		if (elapsed >= RATE_WINDOW_NS) {
+			long sample = window_bytes * 1000000000L / elapsed;
+			rate = (rate == 0) ? sample : (long) (RATE_WEIGHT * sample + (1 - RATE_WEIGHT) * rate);
+			window_start = now;
+			window_bytes = 0;
+		}
+	}
+
+	/**
+	 * @brief Waits until the rate limit allows to transfer the given amount of data.
+	 *
+	 * Returns immediately if there is no limit. The bytes are taken from the bucket before waiting, so
+	 * transfers running in parallel share the limit evenly.
+	 *
+	 * @param bytes The number of bytes about to be transferred
+	 */
+	public void acquire(long bytes) {
+		long wait_ns;
+		synchronized (this) {
+			if (rate_limit <= 0)
+				return;
+			long now = System.nanoTime();
+			tokens = Math.min(rate_limit, tokens + (now - tokens_updated) * (double) rate_limit / 1000000000L);
+			tokens_updated = now;
+			tokens -= bytes;
+			if (tokens >= 0)
+				return;
+			wait_ns = (long) (-tokens * 1000000000L / rate_limit);
+		}
+		try {
+			Thread.sleep(wait_ns / 1000000, (int) (wait_ns % 1000000));
+		} catch (InterruptedException e) {
+		}
+	}
+
+	/**
+	 * @brief Returns the size for the next read or transfer chunk.
+	 *
+	 * The size covers about 100 ms of traffic at the current rate, rounded up to a power of two so it
+	 * changes rarely, between 16 KB and 1 MB. A rate limit also caps the size, so pacing stays smooth.
+	 */
+	public synchronized int getBufferSize() {
+		long bytes = rate * CHUNK_TIME_NS / 1000000000L;
+		if (rate_limit > 0)
+			bytes = Math.min(bytes, rate_limit * CHUNK_TIME_NS / 1000000000L);
+		int ret = MIN_BUFFER_SIZE;
+		while (ret < bytes && ret < MAX_BUFFER_SIZE)
+			ret *= 2;
+		return ret;
+	}
+
+	/**
+	 * @brief Returns how long to wait before a retry.
+	 *
+	 * The delay doubles with each attempt, up to one minute. Half of it is random, so downloads which
+	 * failed at the same time do not all retry at the same time.
+	 *
+	 * @param attempt The number of the retry, starting with 1
+	 *
+	 * @return The delay in milliseconds
+	 */
+	public long getRetryDelay(int attempt) {
+		long delay = RETRY_BASE_MS << Math.min(Math.max(attempt - 1, 0), 16);
+		delay = Math.min(delay, RETRY_MAX_MS);
+		synchronized (this) {
+			retries++;
+			return delay / 2 + (long) (random.nextDouble() * delay / 2);
+		}
+	}
+
+	/**
+	 * @brief Accounts for the time between sending a request and receiving the response headers.
+	 */
+	public synchronized void responseTime(long nanos) {
+		if (nanos <= 0)
+			return;
+		rtt_ns = (rtt_ns == 0) ? nanos : (long) (RTT_WEIGHT * nanos + (1 - RTT_WEIGHT) * rtt_ns);
+	}
+
+	/**
+	 * @brief Sets the maximum rate of all transfers together.
+	 *
+	 * @param bytes_per_second The limit, or 0 for no limit
+	 */
+	public synchronized void setRateLimit(long bytes_per_second) {
+		rate_limit = Math.max(0, bytes_per_second);
+		tokens = 0;
+		tokens_updated = System.nanoTime();
+	}
+
+	/** @brief Returns the rate limit in bytes per second, 0 if there is none. */
+	public synchronized long getRateLimit() {
+		return rate_limit;
+	}
+
+	/** @brief Returns the current rate of all transfers together, in bytes per second. */
+	public synchronized long getRate() {
+		return rate;
+	}
+
+	/** @brief Returns the estimated round trip time to the map server in milliseconds, 0 if unknown. */
+	public synchronized long getRttMillis() {
+		return rtt_ns / 1000000;
+	}
+
+	/** @brief Returns the number of retries so far. */
+	public synchronized int getRetries() {
+		return retries;
+	}
+
+	/** @brief Returns the number of bytes transferred so far. */
+	public synchronized long getTotalBytes() {
+		return total_bytes;
+	}
+}
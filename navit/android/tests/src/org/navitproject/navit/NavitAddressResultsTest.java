@@ -0,0 +1,135 @@
+/**
+ * Navit, a modular navigation system.
+ * Copyright (C) 2005-2008 Navit Team
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * version 2 as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor,
+ * Boston, MA  02110-1301, USA.
+ */
+
+package org.navitproject.navit;
+
+import junit.framework.TestCase;
+
+/**
+ * @brief Tests NavitAddressResults with synthetic batches, as delivered by the native search.
+ *
+ * NavitAddressResults and NavitTextNormalizer do not use Android classes, so this runs as a plain JUnit
+ * test against src/, e.g. {@code java junit.textui.TestRunner org.navitproject.navit.NavitAddressResultsTest}.
+ */
+public class NavitAddressResultsTest extends TestCase
+{
+	private static final int BATCH_SIZE = 256;
+	private static final int BATCHES    = 400;
+
+	private final int[]      types      = new int[BATCH_SIZE];
+	private final float[]    lats       = new float[BATCH_SIZE];
+	private final float[]    lons       = new float[BATCH_SIZE];
+	private final String[]   addresses  = new String[BATCH_SIZE];
+
+	/** @brief Fills the batch with results numbered from first, alternating towns and streets. */
+	private void fillBatch(int first) {
+		for (int i = 0; i < BATCH_SIZE; i++) {
+			int n = first + i;
+			types[i] = n % 2 == 0 ? NavitAddressResults.TYPE_TOWN : NavitAddressResults.TYPE_STREET;
+			lats[i] = 48 + n / 100000f;
+			lons[i] = 11 + n / 100000f;
+			addresses[i] = n % 2 == 0 ? "Town " + n : "Town " + (n - 1) + ", Street " + n;
+		}
+	}
+
+	public void testAddBatches() {
+		NavitAddressResults results = new NavitAddressResults();
+		for (int batch = 0; batch < BATCHES; batch++) {
+			fillBatch(batch * BATCH_SIZE);
+			results.add(types, lats, lons, addresses, BATCH_SIZE);
+		}
+		assertEquals(BATCHES * BATCH_SIZE, results.size());
+		assertEquals(BATCHES * BATCH_SIZE / 2, results.getCount(NavitAddressResults.TYPE_TOWN));
+		assertEquals(BATCHES * BATCH_SIZE / 2, results.getCount(NavitAddressResults.TYPE_STREET));
+		assertEquals(0, results.getCount(NavitAddressResults.TYPE_HOUSE_NUMBER));
+		int last = BATCHES * BATCH_SIZE - 1;
+		assertEquals(NavitAddressResults.TYPE_STREET, results.getType(last));
+		assertEquals(48 + last / 100000f, results.getLat(last));
+		assertEquals(11 + last / 100000f, results.getLon(last));
+		assertEquals("Town " + (last - 1) + ", Street " + last, results.getAddress(last));
+	}
+
+	public void testAddPartialBatch() {
+		NavitAddressResults results = new NavitAddressResults();
+		fillBatch(0);
+		results.add(types, lats, lons, addresses, 3);
+		results.add(types, lats, lons, addresses, 0);
+		assertEquals(3, results.size());
+		assertEquals("Town 2", results.getAddress(2));
+	}
+
+	public void testRetainMatching() {
+		NavitAddressResults results = new NavitAddressResults();
+		fillBatch(0);
+		results.add(types, lats, lons, addresses, BATCH_SIZE);
+		results.retainMatching(new String[] { "street" });
+		assertEquals(BATCH_SIZE / 2, results.size());
+		assertEquals(0, results.getCount(NavitAddressResults.TYPE_TOWN));
+		assertEquals(BATCH_SIZE / 2, results.getCount(NavitAddressResults.TYPE_STREET));
+		for (int i = 0; i < results.size(); i++)
+			assertEquals(NavitAddressResults.TYPE_STREET, results.getType(i));
+
+		/* Prefixes have to start a word, and all of them have to match */
+		results.retainMatching(new String[] { "stree", "251" });
+		assertEquals(1, results.size());
+		assertEquals("Town 250, Street 251", results.getAddress(0));
+		results.retainMatching(new String[] { "treet" });
+		assertTrue(results.isEmpty());
+	}
+
+	public void testClear() {
+		NavitAddressResults results = new NavitAddressResults();
+		fillBatch(0);
+		results.add(types, lats, lons, addresses, BATCH_SIZE);
+		results.setComplete(true);
+		results.clear();
+		assertTrue(results.isEmpty());
+		assertFalse(results.isComplete());
+		assertEquals(0, results.getCount(NavitAddressResults.TYPE_TOWN));
+		assertEquals(0f, results.getResultsPerSecond());
+	}
+
+	/**
+	 * @brief Measures how many results per second can be added in batches, and checks the rate reported.
+	 */
+	public void testResultsPerSecond() throws InterruptedException {
+		NavitAddressResults results = new NavitAddressResults();
+		assertEquals(0f, results.getResultsPerSecond());
+		fillBatch(0);
+		long start = System.nanoTime();
+		results.add(types, lats, lons, addresses, BATCH_SIZE);
+		/* A single batch has no duration */
+		assertEquals(0f, results.getResultsPerSecond());
+
+		for (int batch = 1; batch < BATCHES; batch++)
+			results.add(types, lats, lons, addresses, BATCH_SIZE);
+		long elapsed = System.nanoTime() - start;
+		float rate = results.getResultsPerSecond();
+		System.out.println("Added " + results.size() + " results in " + BATCHES + " batches in "
+		        + elapsed / 1000 + " us, reported rate " + rate + " results/s");
+		/* The rate is measured between the first and the last batch, which were added within elapsed */
+		assertTrue(rate > 0);
+		assertTrue(rate >= results.size() * 1000000000f / elapsed);
+
+		/* A pause before the last batch lowers the rate to at most the results over the pause */
+		Thread.sleep(100);
+		results.add(types, lats, lons, addresses, BATCH_SIZE);
+		assertTrue(results.getResultsPerSecond() <= results.size() / 0.1f);
+	}
+}
@@ -40,7 +40,8 @@ struct graphics_priv {
 		NavitGraphics_draw_circle, NavitGraphics_draw_text, NavitGraphics_draw_image, 
 		NavitGraphics_draw_image_warp, NavitGraphics_draw_mode, NavitGraphics_draw_drag, 
 		NavitGraphics_overlay_disable, NavitGraphics_overlay_resize, NavitGraphics_SetCamera,
-		NavitGraphics_setBackgroundColor;
+		NavitGraphics_setBackgroundColor, NavitGraphics_draw_buffer_replay, NavitGraphics_setDoubleBuffer,
+		NavitGraphics_setLabelCache, NavitGraphics_set_draw_buffer;
 
 	jclass PaintClass;
 	jmethodID Paint_init,Paint_setStrokeWidth,Paint_setARGB;
@@ -48,11 +49,11 @@ struct graphics_priv {
 	jobject NavitGraphics;
 	jobject Paint;
 	
-	jclass BitmapFactoryClass;	
-	jmethodID BitmapFactory_decodeFile, BitmapFactory_decodeResource;
+	jclass NavitImageCacheClass;
+	jmethodID NavitImageCache_getFileImage, NavitImageCache_getResourceImage;
 
 	jclass BitmapClass;
-	jmethodID Bitmap_getHeight, Bitmap_getWidth, Bitmap_createScaledBitmap;
+	jmethodID Bitmap_getHeight, Bitmap_getWidth;
 
 	jclass ContextClass;
 	jmethodID Context_getResources;
@@ -67,6 +68,31 @@ struct graphics_priv {
 	struct window win;
 	struct padding *padding;
 	jint bgcolor;
+
+	int draw_batch;
+	int double_buffer;
+	int label_cache;
+	jint *draw_buffer;
+	int draw_buffer_size;
+	int draw_buffer_pos;
+	int draw_buffer_commands;
+};
+
+/* Number of ints in the draw buffer shared with NavitGraphics when draw_batch is enabled. */
+#define DRAW_BUFFER_SIZE 16384
+
+/* These constants must be synchronized with the backend_* constants in NavitGraphics.java. */
+enum graphics_android_backend {
+	graphics_android_backend_bitmap = 0,
+	graphics_android_backend_surface,
+};
+
+/* These constants must be synchronized with the draw_op_* constants in NavitGraphics.java. */
+enum draw_buffer_op {
+	draw_op_polyline = 1,
+	draw_op_polygon,
+	draw_op_rectangle,
+	draw_op_circle,
 };
 
 struct graphics_font_priv {
@@ -128,6 +154,12 @@ find_static_method(jclass class, char *name, char *args, jmethodID *ret)
 static void
 graphics_destroy(struct graphics_priv *gr)
 {
+	if (gr->draw_buffer) {
+		/* Java must not touch the buffer once its memory is freed */
+		(*jnienv)->CallVoidMethod(jnienv, gr->NavitGraphics, gr->NavitGraphics_set_draw_buffer, NULL);
+		g_free(gr->draw_buffer);
+		gr->draw_buffer=NULL;
+	}
 }
 
 static void font_destroy(struct graphics_font_priv *font)
@@ -240,27 +272,18 @@ image_new(struct graphics_priv *gra, struct graphics_image_methods *meth, char *
 		id=(*jnienv)->CallIntMethod(jnienv, gra->Resources, gra->Resources_getIdentifier, string, a, gra->packageName);
 		dbg(lvl_debug,"id=%d\n",id);
 		if (id)
-			localBitmap=(*jnienv)->CallStaticObjectMethod(jnienv, gra->BitmapFactoryClass, gra->BitmapFactory_decodeResource, gra->Resources, id);
+			localBitmap=(*jnienv)->CallStaticObjectMethod(jnienv, gra->NavitImageCacheClass, gra->NavitImageCache_getResourceImage,
+					gra->Resources, id, *w, *h);
 		(*jnienv)->DeleteLocalRef(jnienv, a);
 	} else {
 		string = (*jnienv)->NewStringUTF(jnienv, path);
-		localBitmap=(*jnienv)->CallStaticObjectMethod(jnienv, gra->BitmapFactoryClass, gra->BitmapFactory_decodeFile, string);
+		localBitmap=(*jnienv)->CallStaticObjectMethod(jnienv, gra->NavitImageCacheClass, gra->NavitImageCache_getFileImage,
+				string, *w, *h);
 	}
 	if (localBitmap) {
+		/* NavitImageCache has already scaled the image to the requested size */
 		ret->width=(*jnienv)->CallIntMethod(jnienv, localBitmap, gra->Bitmap_getWidth);
 		ret->height=(*jnienv)->CallIntMethod(jnienv, localBitmap, gra->Bitmap_getHeight);
-		if((*w!=IMAGE_W_H_UNSET && *w!=ret->width) || (*h!=IMAGE_W_H_UNSET && *w!=ret->height)) {
-			jclass scaledBitmap=(*jnienv)->CallStaticObjectMethod(jnienv, gra->BitmapClass, 
-				gra->Bitmap_createScaledBitmap, localBitmap, (*w==IMAGE_W_H_UNSET)?ret->width:*w, (*h==IMAGE_W_H_UNSET)?ret->height:*h, JNI_TRUE);
-			if(!scaledBitmap) {
-				dbg(lvl_error,"Bitmap scaling to %dx%d failed for %s",*w,*h,path);
-			} else {
-				(*jnienv)->DeleteLocalRef(jnienv, localBitmap);
-				localBitmap=scaledBitmap;
-				ret->width=(*jnienv)->CallIntMethod(jnienv, localBitmap, gra->Bitmap_getWidth);
-				ret->height=(*jnienv)->CallIntMethod(jnienv, localBitmap, gra->Bitmap_getHeight);
-			}
-		}
 		ret->Bitmap = (*jnienv)->NewGlobalRef(jnienv, localBitmap);
 		(*jnienv)->DeleteLocalRef(jnienv, localBitmap);
 
@@ -290,29 +313,102 @@ static void initPaint(struct graphics_priv *gra, struct graphics_gc_priv *gc)
     (*jnienv)->CallVoidMethod(jnienv, gc->gra->Paint, gra->Paint_setARGB, gc->a, gc->r, gc->g, gc->b);
 }
 
+/**
+ * @brief Hands all queued draw commands over to NavitGraphics.
+ *
+ * The commands are replayed on the Java side with a single JNI upcall. This must be called
+ * before any drawing operation which is not queued, so the order of operations is preserved.
+ *
+ * @param gra The graphics instance
+ */
+static void
+draw_buffer_flush(struct graphics_priv *gra)
+{
+	if (!gra->draw_buffer_pos)
+		return;
+	(*jnienv)->CallVoidMethod(jnienv, gra->NavitGraphics, gra->NavitGraphics_draw_buffer_replay, gra->Paint,
+		gra->draw_buffer_pos, gra->draw_buffer_commands);
+	gra->draw_buffer_pos=0;
+	gra->draw_buffer_commands=0;
+}
+
+/**
+ * @brief Reserves space for a command in the draw buffer.
+ *
+ * @param gra The graphics instance
+ * @param len The number of ints needed for the command, including opcode and length
+ *
+ * @return A pointer to the reserved space, or {@code NULL} if batching is disabled or the command
+ * does not fit into the buffer at all. In the latter case the caller has to use the direct upcall.
+ */
+static jint *
+draw_buffer_reserve(struct graphics_priv *gra, int len)
+{
+	jint *ret;
+	if (!gra->draw_buffer || len > gra->draw_buffer_size)
+		return NULL;
+	if (gra->draw_buffer_pos + len > gra->draw_buffer_size)
+		draw_buffer_flush(gra);
+	ret=gra->draw_buffer+gra->draw_buffer_pos;
+	gra->draw_buffer_pos+=len;
+	gra->draw_buffer_commands++;
+	return ret;
+}
+
+static jint *
+draw_buffer_put_gc(jint *pc, struct graphics_gc_priv *gc)
+{
+	*pc++=gc->linewidth;
+	*pc++=gc->a;
+	*pc++=gc->r;
+	*pc++=gc->g;
+	*pc++=gc->b;
+	return pc;
+}
+
+static void
+draw_lines_fill(jint *pc, struct graphics_gc_priv *gc, struct point *p, int count)
+{
+	int i;
+	pc=draw_buffer_put_gc(pc, gc);
+	*pc++=gc->ndashes;
+	for (i = 0 ; i < gc->ndashes ; i++)
+		*pc++=gc->dashes[i];
+	for (i = 0 ; i < count ; i++) {
+		*pc++=p[i].x;
+		*pc++=p[i].y;
+	}
+}
+
+static void
+draw_polygon_fill(jint *pc, struct graphics_gc_priv *gc, struct point *p, int count)
+{
+	int i;
+	pc=draw_buffer_put_gc(pc, gc);
+	for (i = 0 ; i < count ; i++) {
+		*pc++=p[i].x;
+		*pc++=p[i].y;
+	}
+}
+
 static void
 draw_lines(struct graphics_priv *gra, struct graphics_gc_priv *gc, struct point *p, int count)
 {
 	int arrsize=1+4+1+gc->ndashes+count*2;
-	jint pc[arrsize];
-	int i;
+	jint *buf;
 	jintArray points;
 	if (count <= 0)
 		return;
-	points = (*jnienv)->NewIntArray(jnienv,arrsize);
-	pc[0]=gc->linewidth;
-	pc[1]=gc->a;
-	pc[2]=gc->r;
-	pc[3]=gc->g;
-	pc[4]=gc->b;
-	pc[5]=gc->ndashes;
-	for (i = 0 ; i < gc->ndashes ; i++) {
-		pc[6+i] = gc->dashes[i];
-	}
-	for (i = 0 ; i < count ; i++) {
-		pc[6+gc->ndashes+i*2]=p[i].x;
-		pc[6+gc->ndashes+i*2+1]=p[i].y;
+	if ((buf=draw_buffer_reserve(gra, 2+arrsize))) {
+		buf[0]=draw_op_polyline;
+		buf[1]=arrsize;
+		draw_lines_fill(buf+2, gc, p, count);
+		return;
 	}
+	jint pc[arrsize];
+	draw_lines_fill(pc, gc, p, count);
+	draw_buffer_flush(gra);
+	points = (*jnienv)->NewIntArray(jnienv,arrsize);
 	(*jnienv)->SetIntArrayRegion(jnienv, points, 0, arrsize, pc);
 	(*jnienv)->CallVoidMethod(jnienv, gra->NavitGraphics, gra->NavitGraphics_draw_polyline, gc->gra->Paint, points);
 	(*jnienv)->DeleteLocalRef(jnienv, points);
@@ -322,21 +418,20 @@ static void
 draw_polygon(struct graphics_priv *gra, struct graphics_gc_priv *gc, struct point *p, int count)
 {
 	int arrsize=1+4+count*2;
-	jint pc[arrsize];
-	int i;
+	jint *buf;
 	jintArray points;
 	if (count <= 0)
 		return;
-	points = (*jnienv)->NewIntArray(jnienv,arrsize);
-	for (i = 0 ; i < count ; i++) {
-		pc[5+i*2]=p[i].x;
-		pc[5+i*2+1]=p[i].y;
+	if ((buf=draw_buffer_reserve(gra, 2+arrsize))) {
+		buf[0]=draw_op_polygon;
+		buf[1]=arrsize;
+		draw_polygon_fill(buf+2, gc, p, count);
+		return;
 	}
-	pc[0]=gc->linewidth;
-	pc[1]=gc->a;
-	pc[2]=gc->r;
-	pc[3]=gc->g;
-	pc[4]=gc->b;
+	jint pc[arrsize];
+	draw_polygon_fill(pc, gc, p, count);
+	draw_buffer_flush(gra);
+	points = (*jnienv)->NewIntArray(jnienv,arrsize);
 	(*jnienv)->SetIntArrayRegion(jnienv, points, 0, arrsize, pc);
 	(*jnienv)->CallVoidMethod(jnienv, gra->NavitGraphics, gra->NavitGraphics_draw_polygon, gc->gra->Paint, points);
 	(*jnienv)->DeleteLocalRef(jnienv, points);
@@ -345,6 +440,18 @@ draw_polygon(struct graphics_priv *gra, struct graphics_gc_priv *gc, struct poin
 static void
 draw_rectangle(struct graphics_priv *gra, struct graphics_gc_priv *gc, struct point *p, int w, int h)
 {
+	jint *buf;
+	if ((buf=draw_buffer_reserve(gra, 2+5+4))) {
+		buf[0]=draw_op_rectangle;
+		buf[1]=5+4;
+		buf=draw_buffer_put_gc(buf+2, gc);
+		buf[0]=p->x;
+		buf[1]=p->y;
+		buf[2]=w;
+		buf[3]=h;
+		return;
+	}
+	draw_buffer_flush(gra);
         initPaint(gra, gc);
 	(*jnienv)->CallVoidMethod(jnienv, gra->NavitGraphics, gra->NavitGraphics_draw_rectangle, gc->gra->Paint, p->x, p->y, w, h);
 }
@@ -352,6 +459,17 @@ draw_rectangle(struct graphics_priv *gra, struct graphics_gc_priv *gc, struct po
 static void
 draw_circle(struct graphics_priv *gra, struct graphics_gc_priv *gc, struct point *p, int r)
 {
+	jint *buf;
+	if ((buf=draw_buffer_reserve(gra, 2+5+3))) {
+		buf[0]=draw_op_circle;
+		buf[1]=5+3;
+		buf=draw_buffer_put_gc(buf+2, gc);
+		buf[0]=p->x;
+		buf[1]=p->y;
+		buf[2]=r;
+		return;
+	}
+	draw_buffer_flush(gra);
         initPaint(gra, gc);
 	(*jnienv)->CallVoidMethod(jnienv, gra->NavitGraphics, gra->NavitGraphics_draw_circle, gc->gra->Paint, p->x, p->y, r);
 }
@@ -362,6 +480,7 @@ draw_text(struct graphics_priv *gra, struct graphics_gc_priv *fg, struct graphic
 {
 	int bgcolor=0;
 	dbg(lvl_debug,"enter %s\n", text);
+	draw_buffer_flush(gra);
 	initPaint(gra, fg);
 	if(bg)
 		bgcolor=(bg->a<<24)| (bg->r<<16) | (bg->g<<8) | bg->b;
@@ -374,6 +493,7 @@ static void
 draw_image(struct graphics_priv *gra, struct graphics_gc_priv *fg, struct point *p, struct graphics_image_priv *img)
 {
 	dbg(lvl_debug,"enter %p\n",img);
+	draw_buffer_flush(gra);
 	initPaint(gra, fg);
 	(*jnienv)->CallVoidMethod(jnienv, gra->NavitGraphics, gra->NavitGraphics_draw_image, fg->gra->Paint, p->x, p->y, img->Bitmap);
 	
@@ -384,19 +504,24 @@ draw_image_warp (struct graphics_priv *gr, struct graphics_gc_priv *fg, struct p
 {
 
 	/*
-	 *
-	 *
-	 * if coord count==3 then top.left top.right bottom.left
-	 *
+	 * count==1: center
+	 * count==2: top.left bottom.right
+	 * count==3: top.left top.right bottom.left
+	 * count==4: top.left top.right bottom.left bottom.right
 	 */
+	struct point pc[4];
+	int i;
 
-	if (count==3)
-	{
-		initPaint(gr, fg);
-		(*jnienv)->CallVoidMethod(jnienv, gr->NavitGraphics, gr->NavitGraphics_draw_image_warp, fg->gra->Paint, 
-			count,  p[0].x, p[0].y,p[1].x, p[1].y, p[2].x, p[2].y, img->Bitmap);
-	} else
+	if (count < 1 || count > 4) {
 		dbg(lvl_debug,"draw_image_warp is called with unsupported count parameter value %d\n", count);
+		return;
+	}
+	for (i = 0 ; i < 4 ; i++)
+		pc[i]=p[i < count ? i : count-1];
+	draw_buffer_flush(gr);
+	initPaint(gr, fg);
+	(*jnienv)->CallVoidMethod(jnienv, gr->NavitGraphics, gr->NavitGraphics_draw_image_warp, fg->gra->Paint,
+		count, pc[0].x, pc[0].y, pc[1].x, pc[1].y, pc[2].x, pc[2].y, pc[3].x, pc[3].y, img->Bitmap);
 }
 
 
@@ -414,6 +539,7 @@ background_gc(struct graphics_priv *gr, struct graphics_gc_priv *gc)
 static void
 draw_mode(struct graphics_priv *gra, enum draw_mode_num mode)
 {
+	draw_buffer_flush(gra);
 	(*jnienv)->CallVoidMethod(jnienv, gra->NavitGraphics, gra->NavitGraphics_draw_mode, (int)mode);
 }
 
@@ -431,6 +557,10 @@ get_data(struct graphics_priv *this, const char *type)
 
 static void image_free(struct graphics_priv *gr, struct graphics_image_priv *priv)
 {
+	if (!priv)
+		return;
+	(*jnienv)->DeleteGlobalRef(jnienv, priv->Bitmap);
+	g_free(priv);
 }
 
 static void get_text_bbox(struct graphics_priv *gr, struct graphics_font_priv *font, char *text, int dx, int dy, struct point *ret, int estimate)
@@ -453,11 +583,13 @@ static void get_text_bbox(struct graphics_priv *gr, struct graphics_font_priv *f
 
 static void overlay_disable(struct graphics_priv *gra, int disable)
 {
+	draw_buffer_flush(gra);
 	(*jnienv)->CallVoidMethod(jnienv, gra->NavitGraphics, gra->NavitGraphics_overlay_disable, disable);
 }
 
 static void overlay_resize(struct graphics_priv *gra, struct point *pnt, int w, int h, int wraparound)
 {
+	draw_buffer_flush(gra);
 	(*jnienv)->CallVoidMethod(jnienv, gra->NavitGraphics, gra->NavitGraphics_overlay_resize, pnt ? pnt->x:0 , pnt ? pnt->y:0, w, h, wraparound);
 }
 
@@ -480,6 +612,20 @@ set_attr(struct graphics_priv *gra, struct attr *attr)
 		else
 			dbg(lvl_error, "NavitGraphics.setBackgroundColor not found, cannot set background color\n");
 		return 1;
+	case attr_double_buffer:
+		if (gra->NavitGraphics_setDoubleBuffer == NULL)
+			return 0;
+		draw_buffer_flush(gra);
+		gra->double_buffer=attr->u.num;
+		(*jnienv)->CallVoidMethod(jnienv, gra->NavitGraphics, gra->NavitGraphics_setDoubleBuffer, gra->double_buffer);
+		return 1;
+	case attr_label_cache:
+		if (gra->NavitGraphics_setLabelCache == NULL)
+			return 0;
+		draw_buffer_flush(gra);
+		gra->label_cache=attr->u.num;
+		(*jnienv)->CallVoidMethod(jnienv, gra->NavitGraphics, gra->NavitGraphics_setLabelCache, gra->label_cache);
+		return 1;
 	default:
 		return 0;
 	}
@@ -616,11 +762,11 @@ graphics_android_init(struct graphics_priv *ret, struct graphics_priv *parent, s
 	if (!find_method(ret->PaintClass, "setStrokeWidth", "(F)V", &ret->Paint_setStrokeWidth))
 		return 0;
 
-	if (!find_class_global("android/graphics/BitmapFactory", &ret->BitmapFactoryClass))
+	if (!find_class_global("org/navitproject/navit/NavitImageCache", &ret->NavitImageCacheClass))
 		return 0;
-	if (!find_static_method(ret->BitmapFactoryClass, "decodeFile", "(Ljava/lang/String;)Landroid/graphics/Bitmap;", &ret->BitmapFactory_decodeFile))
+	if (!find_static_method(ret->NavitImageCacheClass, "getFileImage", "(Ljava/lang/String;II)Landroid/graphics/Bitmap;", &ret->NavitImageCache_getFileImage))
 		return 0;
-	if (!find_static_method(ret->BitmapFactoryClass, "decodeResource", "(Landroid/content/res/Resources;I)Landroid/graphics/Bitmap;", &ret->BitmapFactory_decodeResource))
+	if (!find_static_method(ret->NavitImageCacheClass, "getResourceImage", "(Landroid/content/res/Resources;III)Landroid/graphics/Bitmap;", &ret->NavitImageCache_getResourceImage))
 		return 0;
 
 	if (!find_class_global("android/graphics/Bitmap", &ret->BitmapClass))
@@ -629,8 +775,6 @@ graphics_android_init(struct graphics_priv *ret, struct graphics_priv *parent, s
 		return 0;
 	if (!find_method(ret->BitmapClass, "getWidth", "()I", &ret->Bitmap_getWidth))
 		return 0;
-	if (!find_static_method(ret->BitmapClass, "createScaledBitmap", "(Landroid/graphics/Bitmap;IIZ)Landroid/graphics/Bitmap;", &ret->Bitmap_createScaledBitmap))
-		return 0;
 
 	if (!find_class_global("android/content/Context", &ret->ContextClass))
 		return 0;
@@ -726,7 +870,7 @@ graphics_android_init(struct graphics_priv *ret, struct graphics_priv *parent, s
 		return 0;
 	if (!find_method(ret->NavitGraphicsClass, "draw_image", "(Landroid/graphics/Paint;IILandroid/graphics/Bitmap;)V", &ret->NavitGraphics_draw_image))
 		return 0;
-	if (!find_method(ret->NavitGraphicsClass, "draw_image_warp", "(Landroid/graphics/Paint;IIIIIIILandroid/graphics/Bitmap;)V", &ret->NavitGraphics_draw_image_warp))
+	if (!find_method(ret->NavitGraphicsClass, "draw_image_warp", "(Landroid/graphics/Paint;IIIIIIIIILandroid/graphics/Bitmap;)V", &ret->NavitGraphics_draw_image_warp))
 		return 0;
 	if (!find_method(ret->NavitGraphicsClass, "draw_mode", "(I)V", &ret->NavitGraphics_draw_mode))
 		return 0;
@@ -738,6 +882,24 @@ graphics_android_init(struct graphics_priv *ret, struct graphics_priv *parent, s
 		return 0;
 	if (!find_method(ret->NavitGraphicsClass, "SetCamera", "(I)V", &ret->NavitGraphics_SetCamera))
 		return 0;
+	if (ret->draw_batch) {
+		jobject buffer;
+		if (!find_method(ret->NavitGraphicsClass, "draw_buffer_replay", "(Landroid/graphics/Paint;II)V", &ret->NavitGraphics_draw_buffer_replay))
+			return 0;
+		if (!find_method(ret->NavitGraphicsClass, "set_draw_buffer", "(Ljava/nio/ByteBuffer;)V", &ret->NavitGraphics_set_draw_buffer))
+			return 0;
+		ret->draw_buffer_size=DRAW_BUFFER_SIZE;
+		ret->draw_buffer=g_new(jint, ret->draw_buffer_size);
+		buffer=(*jnienv)->NewDirectByteBuffer(jnienv, ret->draw_buffer, ret->draw_buffer_size*sizeof(jint));
+		if (!buffer) {
+			dbg(lvl_error,"Failed to create draw buffer, falling back to direct drawing\n");
+			g_free(ret->draw_buffer);
+			ret->draw_buffer=NULL;
+		} else {
+			(*jnienv)->CallVoidMethod(jnienv, ret->NavitGraphics, ret->NavitGraphics_set_draw_buffer, buffer);
+			(*jnienv)->DeleteLocalRef(jnienv, buffer);
+		}
+	}
 #if 0
 	set_activity(ret->NavitGraphics);
 #endif
@@ -826,15 +988,19 @@ static struct command_table commands[] = {
  * @param meth The methods for the new graphics instance
  * @param attrs The attributes for the new graphics instance
  * @param cbl The callback list for the new graphics instance
+ * @param backend How the map is brought to the screen
  *
  * @return The new graphics instance
  */
 static struct graphics_priv *
-graphics_android_new(struct navit *nav, struct graphics_methods *meth, struct attr **attrs, struct callback_list *cbl)
+graphics_android_new_backend(struct navit *nav, struct graphics_methods *meth, struct attr **attrs, struct callback_list *cbl,
+		enum graphics_android_backend backend)
 {
 	struct graphics_priv *ret;
 	struct attr *attr;
 	int use_camera=0;
+	int bitmap_pool_size=-1;
+	int bpp=32;
 	jmethodID cid;
 	jint android_bgcolor;
 
@@ -868,6 +1034,25 @@ graphics_android_new(struct navit *nav, struct graphics_methods *meth, struct at
 	if ((attr=attr_search(attrs, NULL, attr_use_camera))) {
 		use_camera=attr->u.num;
 	}
+	/* attr_draw_batch queues drawing operations and hands them to Java in one call per batch */
+	if ((attr=attr_search(attrs, NULL, attr_draw_batch))) {
+		ret->draw_batch=attr->u.num;
+	}
+	/* attr_double_buffer renders the map into a back buffer which is swapped in at draw_mode_end */
+	if ((attr=attr_search(attrs, NULL, attr_double_buffer))) {
+		ret->double_buffer=attr->u.num;
+	}
+	if ((attr=attr_search(attrs, NULL, attr_bitmap_pool_size))) {
+		bitmap_pool_size=attr->u.num;
+	}
+	/* attr_label_cache draws labels from pre-rendered bitmaps */
+	if ((attr=attr_search(attrs, NULL, attr_label_cache))) {
+		ret->label_cache=attr->u.num;
+	}
+	/* attr_bpp=16 selects an opaque RGB_565 bitmap for the map, overlays always use ARGB_8888 */
+	if ((attr=attr_search(attrs, NULL, attr_bpp))) {
+		bpp=attr->u.num;
+	}
         if ((attr=attr_search(attrs, NULL, attr_callback_list))) {
 		command_add_table(attr->u.callback_list, commands, sizeof(commands)/sizeof(struct command_table), ret);
         }
@@ -893,6 +1078,34 @@ graphics_android_new(struct navit *nav, struct graphics_methods *meth, struct at
 		if (ret->NavitGraphics_setBackgroundColor != NULL) {
 			(*jnienv)->CallVoidMethod(jnienv, ret->NavitGraphics, ret->NavitGraphics_setBackgroundColor, ret->bgcolor);
 		}
+		ret->NavitGraphics_setDoubleBuffer = (*jnienv)->GetMethodID(jnienv, ret->NavitGraphicsClass, "setDoubleBuffer", "(I)V");
+		if (ret->NavitGraphics_setDoubleBuffer != NULL && ret->double_buffer) {
+			(*jnienv)->CallVoidMethod(jnienv, ret->NavitGraphics, ret->NavitGraphics_setDoubleBuffer, ret->double_buffer);
+		}
+		ret->NavitGraphics_setLabelCache = (*jnienv)->GetMethodID(jnienv, ret->NavitGraphicsClass, "setLabelCache", "(I)V");
+		if (ret->NavitGraphics_setLabelCache != NULL && ret->label_cache) {
+			(*jnienv)->CallVoidMethod(jnienv, ret->NavitGraphics, ret->NavitGraphics_setLabelCache, ret->label_cache);
+		}
+		if (bpp != 32) {
+			cid = (*jnienv)->GetMethodID(jnienv, ret->NavitGraphicsClass, "setPixelFormat", "(I)V");
+			if (cid != NULL)
+				(*jnienv)->CallVoidMethod(jnienv, ret->NavitGraphics, cid, bpp);
+			else
+				dbg(lvl_error, "NavitGraphics.setPixelFormat not found, cannot set bpp=%d\n", bpp);
+		}
+		if (backend != graphics_android_backend_bitmap) {
+			cid = (*jnienv)->GetMethodID(jnienv, ret->NavitGraphicsClass, "setBackend", "(I)V");
+			if (cid != NULL)
+				(*jnienv)->CallVoidMethod(jnienv, ret->NavitGraphics, cid, backend);
+			else
+				dbg(lvl_error, "NavitGraphics.setBackend not found, using bitmap backend\n");
+		}
+		/* attr_bitmap_pool_size limits the memory of map and overlay bitmaps kept for reuse after a resize */
+		if (bitmap_pool_size >= 0) {
+			cid = (*jnienv)->GetMethodID(jnienv, ret->NavitGraphicsClass, "setBitmapPoolSize", "(I)V");
+			if (cid != NULL)
+				(*jnienv)->CallVoidMethod(jnienv, ret->NavitGraphics, cid, bitmap_pool_size);
+		}
 		dbg(lvl_debug,"returning %p\n",ret);
 		return ret;
 	} else {
@@ -901,6 +1114,29 @@ graphics_android_new(struct navit *nav, struct graphics_methods *meth, struct at
 	}
 }
 
+/**
+ * @brief Creates a new Android graphics instance which draws the map through a View.
+ *
+ * This is the graphics type "android".
+ */
+static struct graphics_priv *
+graphics_android_new(struct navit *nav, struct graphics_methods *meth, struct attr **attrs, struct callback_list *cbl)
+{
+	return graphics_android_new_backend(nav, meth, attrs, cbl, graphics_android_backend_bitmap);
+}
+
+/**
+ * @brief Creates a new Android graphics instance which composites the map onto a SurfaceView.
+ *
+ * This is the graphics type "android_surface". It uses a hardware accelerated canvas where available
+ * and supports the same attributes as "android".
+ */
+static struct graphics_priv *
+graphics_android_surface_new(struct navit *nav, struct graphics_methods *meth, struct attr **attrs, struct callback_list *cbl)
+{
+	return graphics_android_new_backend(nav, meth, attrs, cbl, graphics_android_backend_surface);
+}
+
 /**
  * @brief Creates a new overlay
  *
@@ -921,6 +1157,7 @@ overlay_new(struct graphics_priv *gr, struct graphics_methods *meth, struct poin
 {
 	struct graphics_priv *ret=g_new0(struct graphics_priv, 1);
 	*meth=graphics_methods;
+	ret->draw_batch=gr->draw_batch;
 	if (graphics_android_init(ret, gr, p, w, h, wraparound, 0)) {
 		dbg(lvl_debug,"returning %p\n",ret);
 		return ret;
@@ -1199,5 +1436,6 @@ plugin_init(void)
 {
 	dbg(lvl_debug,"enter\n");
         plugin_register_category_graphics("android", graphics_android_new);
+        plugin_register_category_graphics("android_surface", graphics_android_surface_new);
 	plugin_register_category_event("android", event_android_new);
 }